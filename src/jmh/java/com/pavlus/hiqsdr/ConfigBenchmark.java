@@ -0,0 +1,80 @@
+package com.pavlus.hiqsdr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of configuration packets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConfigBenchmark {
+
+private Config config;
+private ByteBuffer out;
+private ByteBuffer packet;
+private long frequency;
+
+@Setup
+public void setUp() {
+	config = new Config((byte) 2);
+	config.setSampleRate(Protocol.MAX_SAMPLE_RATE);
+	config.setRxFrequency(7_100_000);
+	out = ByteBuffer.allocate(Protocol.CFG_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	packet = ByteBuffer.allocate(Protocol.CFG_PACKET_SIZE);
+	config.writeOut(packet);
+	packet.flip();
+	frequency = 7_100_000;
+}
+
+/**
+ * Reader path, snapshot is read without locking.
+ */
+@Benchmark
+public long readSnapshot() {
+	final ConfigSnapshot s = config.snapshot();
+	return s.getRxFrequency() + s.getSampleRate();
+}
+
+/**
+ * Every call retunes, so new snapshot is built and encoded.
+ */
+@Benchmark
+public ByteBuffer retuneAndWriteOut() {
+	frequency ^= 1000;
+	config.setRxFrequency(frequency);
+	out.clear();
+	config.writeOut(out);
+	return out;
+}
+
+@Benchmark
+public ByteBuffer writeOut() {
+	out.clear();
+	config.writeOut(out);
+	return out;
+}
+
+@Benchmark
+public Config fillFromPacket() {
+	packet.rewind();
+	config.fillFromPacket(packet);
+	return config;
+}
+}
@@ -0,0 +1,129 @@
+package com.pavlus.hiqsdr;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-thread throughput of {@link IQCodec}, one operation is one receiver packet,
+ * so score times {@link Protocol#RX_PACKET_SIZE} is bytes of raw stream per second one core codes.
+ * Secondary results give the same in MB/s and compression ratio of signal.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IQCodecBenchmark {
+
+private static final int PACKETS = IQCompressor.DEFAULT_FRAME_PACKETS;
+
+/**
+ * Gaussian noise of a few hundred counts, as antenna noise floor, or strong tone over it.
+ */
+@Param({"noise", "tone"})
+public String signal;
+
+/**
+ * Raw stream coded, reported per second.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public static class Throughput {
+	public double rawMB;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		rawMB = 0;
+	}
+}
+
+/**
+ * Raw frame size relative to its code. JMH sums events of measurement iterations
+ * of all forks, so every iteration reports its share and the result is the ratio itself.
+ */
+@AuxCounters(AuxCounters.Type.EVENTS)
+@State(Scope.Thread)
+public static class Ratio {
+	public double ratio;
+	double share;
+
+	@Setup(Level.Iteration)
+	public void reset(final BenchmarkParams params) {
+		share = 1.0 / (params.getMeasurement().getCount() * Math.max(1, params.getForks()));
+	}
+
+	void set(final double value) {
+		ratio = value * share;
+	}
+}
+
+private static final double FRAME_MB = PACKETS * Protocol.RX_PACKET_SIZE / 1e6;
+
+private final IQCodec codec = new IQCodec();
+private ByteBuffer block;
+private byte[] encoded;
+private ByteBuffer frame;
+private ByteBuffer decoded;
+
+@Setup
+public void setUp() {
+	final Random random = new Random(1);
+	final boolean tone = "tone".equals(signal);
+	block = ByteBuffer.allocateDirect(PACKETS * Protocol.RX_PACKET_SIZE);
+	long n = 0;
+	for (int p = 0; p < PACKETS; ++p) {
+		block.put((byte) p).put((byte) 0);
+		for (int i = 0; i < Protocol.RX_SAMPLES_PER_PACKET; ++i, ++n) {
+			final double phase = 2 * Math.PI * 1000 * n / 96000;
+			final double amplitude = tone ? 0x3fffff : 0;
+			put24(block, (int) (Math.cos(phase) * amplitude + random.nextGaussian() * 300));
+			put24(block, (int) (Math.sin(phase) * amplitude + random.nextGaussian() * 300));
+		}
+	}
+	block.flip();
+	encoded = new byte[IQCodec.maxFrameSize(PACKETS)];
+	final int length = codec.encode(block, 0, PACKETS, encoded, 0);
+	frame = ByteBuffer.wrap(encoded, 0, length);
+	decoded = ByteBuffer.allocateDirect(PACKETS * Protocol.RX_PACKET_SIZE);
+}
+
+private static void put24(final ByteBuffer buffer, final int value) {
+	buffer.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+}
+
+@Benchmark
+@OperationsPerInvocation(PACKETS)
+public int encode(final Throughput throughput, final Ratio ratio) {
+	final int length = codec.encode(block, 0, PACKETS, encoded, 0);
+	throughput.rawMB += FRAME_MB;
+	ratio.set(block.remaining() / (double) length);
+	return length;
+}
+
+@Benchmark
+@OperationsPerInvocation(PACKETS)
+public int decode(final Throughput throughput, final Ratio ratio) {
+	final int packets = codec.decode(frame, 0, decoded, 0);
+	throughput.rawMB += FRAME_MB;
+	ratio.set(block.remaining() / (double) frame.remaining());
+	return packets;
+}
+}
@@ -0,0 +1,54 @@
+package com.pavlus.hiqsdr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frequency and sample rate conversions, inputs are cycled to keep them from being constant-folded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+
+private static final int MASK = 15;
+private final long[] frequencies = new long[MASK + 1];
+private final long[] phases = new long[MASK + 1];
+private final int[] rates = new int[MASK + 1];
+private int i;
+
+public ProtocolBenchmark() {
+	for (int k = 0; k <= MASK; ++k) {
+		frequencies[k] = Protocol.MIN_FREQUENCY + k * 1_234_567L;
+		phases[k] = Protocol.frequencyToTunePhase(frequencies[k]);
+		rates[k] = Protocol.SAMPLE_RATES[k % Protocol.SAMPLE_RATES.length];
+	}
+}
+
+@Benchmark
+public long frequencyToTunePhase() {
+	return Protocol.frequencyToTunePhase(frequencies[i++ & MASK]);
+}
+
+@Benchmark
+public long tunePhaseToFrequency() {
+	return Protocol.tunePhaseToFrequency(phases[i++ & MASK]);
+}
+
+@Benchmark
+public byte sampleRate2Code() {
+	return Protocol.sampleRate2Code(rates[i++ & MASK]);
+}
+}
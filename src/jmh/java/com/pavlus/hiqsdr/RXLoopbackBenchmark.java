@@ -0,0 +1,105 @@
+package com.pavlus.hiqsdr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receive-to-subscriber throughput of {@link RXProcessor} over loopback, one operation is one packet.
+ * <p>
+ * Benchmark thread plays the device: it sends packets to the receiver, keeping at most {@link #WINDOW}
+ * of them undelivered, so socket buffer never overflows and every packet is counted.
+ * With GC profiler {@code gc.alloc.rate.norm} is allocation per packet.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RXLoopbackBenchmark {
+
+private static final int WINDOW = 64;
+
+@Param({"1", "4", "16"})
+public int subscribers;
+
+@Param({"DIRECT", "RING"})
+public RXOptions.Dispatch dispatch;
+
+private DatagramChannel device;
+private RXProcessor rx;
+private ByteBuffer packet;
+private final AtomicLong delivered = new AtomicLong();
+private long sent;
+
+@Setup(Level.Trial)
+public void setUp() throws IOException {
+	final InetAddress loopback = InetAddress.getLoopbackAddress();
+	device = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+	rx = new RXProcessor(device.getLocalAddress(), new RXOptions().dispatch(dispatch));
+	for (int i = 0; i < subscribers; ++i) {
+		rx.subscribe(new Subscriber<ByteBuffer>() {
+			@Override
+			public void onSubscribe(final Subscription s) {
+				s.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(final ByteBuffer buffer) {
+				delivered.incrementAndGet();
+				rx.onNext(buffer);
+			}
+
+			@Override
+			public void onError(final Throwable t) {
+			}
+
+			@Override
+			public void onComplete() {
+			}
+		});
+	}
+	rx.switchOn();
+	final ByteBuffer cmd = ByteBuffer.allocate(Protocol.CFG_PACKET_SIZE);
+	device.connect(device.receive(cmd));
+	packet = ByteBuffer.allocateDirect(Protocol.RX_PACKET_SIZE);
+}
+
+@TearDown(Level.Trial)
+public void tearDown() throws IOException {
+	rx.onComplete();
+	device.close();
+}
+
+@Benchmark
+public void receive() throws IOException {
+	final long target = (sent - WINDOW) * subscribers;
+	while (delivered.get() < target) {
+		Thread.yield();
+	}
+	packet.clear();
+	packet.put(Protocol.RX_SEQUENCE_OFFSET, (byte) sent++);
+	device.write(packet);
+}
+}
@@ -0,0 +1,93 @@
+package com.pavlus.hiqsdr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-thread throughput of {@link Resampler}, one operation is one input sample,
+ * so score is samples per second one core converts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResamplerBenchmark {
+
+private static final int PACKETS = 16;
+private static final int SAMPLES = PACKETS * Protocol.RX_SAMPLES_PER_PACKET;
+
+/**
+ * Input and output rates separated by colon.
+ */
+@Param({"960000:44100", "960000:12000", "192000:48000", "48000:44100"})
+public String rates;
+
+private Resampler resampler;
+private ByteBuffer block;
+private long outputValues;
+
+@Setup
+public void setUp() {
+	final String[] split = rates.split(":");
+	final int input = Integer.parseInt(split[0]);
+	resampler = new Resampler(null, input, Integer.parseInt(split[1]));
+	resampler.subscribe(new Subscriber<FloatBuffer>() {
+		@Override
+		public void onSubscribe(final Subscription s) {
+		}
+
+		@Override
+		public void onNext(final FloatBuffer buffer) {
+			outputValues += buffer.remaining();
+		}
+
+		@Override
+		public void onError(final Throwable t) {
+		}
+
+		@Override
+		public void onComplete() {
+		}
+	});
+	block = ByteBuffer.allocateDirect(PACKETS * Protocol.RX_PACKET_SIZE);
+	long n = 0;
+	for (int p = 0; p < PACKETS; ++p) {
+		block.put((byte) p).put((byte) 0);
+		for (int i = 0; i < Protocol.RX_SAMPLES_PER_PACKET; ++i, ++n) {
+			final double phase = 2 * Math.PI * 1000 * n / input;
+			put24(block, (int) (Math.cos(phase) * 0x3fffff));
+			put24(block, (int) (Math.sin(phase) * 0x3fffff));
+		}
+	}
+	block.flip();
+}
+
+private static void put24(final ByteBuffer buffer, final int value) {
+	buffer.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+}
+
+@Benchmark
+@OperationsPerInvocation(SAMPLES)
+public long resample() {
+	resampler.onNext(block);
+	return outputValues;
+}
+}
@@ -0,0 +1,262 @@
+package com.pavlus.hiqsdr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import static com.pavlus.hiqsdr.Protocol.RX_HEADER_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_PAYLOAD_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SEQUENCE_OFFSET;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_FILLED;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_GAP;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_OFFSET;
+
+/**
+ * Reads datagrams straight into pooled blocks, checking their size and sequence numbers.
+ * <p>
+ * Datagrams of wrong size and late packets are skipped and counted.
+ * Gaps in sequence are handled according to {@link RXOptions.GapPolicy}.
+ * Used only by receiving thread.
+ */
+final class BlockAssembler {
+
+interface Output {
+	/**
+	 * Called when pool has no free buffers, may refill it.
+	 */
+	void onEmptyPool();
+
+	/**
+	 * Takes block ready for subscribers, assembler's own reference is released by receiver.
+	 *
+	 * @param arrival {@link System#nanoTime()} when first packet of block was read.
+	 */
+	void publish(ByteBuffer block, long arrival);
+}
+
+private final BufferPool pool;
+private final Output output;
+private final int batchSize;
+private final long batchLatency;
+private final RXOptions.GapPolicy gapPolicy;
+private final SequenceTracker tracker = new SequenceTracker();
+// one spare byte lets oversized datagrams be noticed instead of silently truncated
+private final ByteBuffer overflow = ByteBuffer.allocateDirect(RX_PACKET_SIZE + 1);
+private final ByteBuffer pending = ByteBuffer.allocateDirect(RX_PACKET_SIZE);
+private final ByteBuffer zeros = ByteBuffer.allocateDirect(RX_PAYLOAD_SIZE);
+private final ByteBuffer last; // payload of last packet for REPEAT_LAST
+private ByteBuffer block;
+private int blockEnd;
+private long arrival;
+private long deadline;
+private volatile long packets;
+private volatile long malformed;
+private volatile long dropped;
+private volatile long filled;
+
+BlockAssembler(final BufferPool pool, final Output output, final RXOptions options) {
+	this.pool = pool;
+	this.output = output;
+	batchSize = options.batchPackets * RX_PACKET_SIZE;
+	batchLatency = options.batchLatency;
+	gapPolicy = options.gapPolicy;
+	last = gapPolicy == RXOptions.GapPolicy.REPEAT_LAST ? ByteBuffer.allocateDirect(RX_PAYLOAD_SIZE) : null;
+}
+
+/**
+ * Reads one datagram from non-blocking channel.
+ *
+ * @return false if channel had nothing to read.
+ */
+boolean read(final ReadableByteChannel channel) throws IOException {
+	if (block == null && !nextBlock()) {
+		overflow.clear();
+		if (channel.read(overflow) == 0) {
+			return false;
+		}
+		++dropped;
+		return true;
+	}
+	final int start = block.position();
+	block.limit(Math.min(start + RX_PACKET_SIZE + 1, block.capacity()));
+	final int cnt = channel.read(block);
+	block.limit(block.capacity());
+	if (cnt == 0) {
+		return false;
+	}
+	if (cnt != RX_PACKET_SIZE) {
+		++malformed;
+		block.position(start);
+		return true;
+	}
+	++packets;
+	final int missing = tracker.accept(block.get(start + RX_SEQUENCE_OFFSET) & 0xff);
+	if (missing < 0) {
+		block.position(start);
+		return true;
+	}
+	if (missing > 0) {
+		if (gapPolicy == RXOptions.GapPolicy.FLAG) {
+			block.put(start + RX_STATUS_OFFSET, (byte) (block.get(start + RX_STATUS_OFFSET) | RX_STATUS_GAP));
+		} else {
+			return fill(start, missing);
+		}
+	}
+	if (last != null) {
+		remember(start);
+	}
+	appended();
+	return true;
+}
+
+/**
+ * Emits current block if it waited long enough.
+ */
+void flush(final long now) {
+	if (block != null && block.position() > 0 && deadline - now <= 0) {
+		emit();
+	}
+}
+
+/**
+ * @return whether there is partially filled block waiting for {@link #deadline()}.
+ */
+boolean hasPending() {
+	return block != null && block.position() > 0;
+}
+
+long deadline() {
+	return deadline;
+}
+
+/**
+ * Gives current block back to the pool.
+ */
+void release() {
+	if (block != null) {
+		pool.release(block);
+		block = null;
+	}
+}
+
+SequenceTracker tracker() {
+	return tracker;
+}
+
+long packets() {
+	return packets;
+}
+
+long bytes() {
+	return packets * RX_PACKET_SIZE;
+}
+
+long malformed() {
+	return malformed;
+}
+
+long dropped() {
+	return dropped;
+}
+
+long filled() {
+	return filled;
+}
+
+/**
+ * Moves just received packet aside and puts synthesized packets in front of it.
+ */
+private boolean fill(final int start, final int missing) {
+	block.limit(start + RX_PACKET_SIZE).position(start);
+	pending.clear();
+	pending.put(block);
+	pending.flip();
+	block.limit(block.capacity()).position(start);
+	final int sequence = pending.get(RX_SEQUENCE_OFFSET) & 0xff;
+
+	for (int i = missing; i > 0; --i) {
+		if (block == null && !nextBlock()) {
+			dropped += i + 1;
+			return true;
+		}
+		final int pos = block.position();
+		block.put((byte) (sequence - i));
+		block.put(RX_STATUS_FILLED);
+		if (last != null) {
+			last.clear();
+			block.put(last);
+		} else {
+			zeros.clear();
+			block.put(zeros);
+		}
+		++filled;
+		if (pos == 0) {
+			started();
+		}
+		if (block.position() + RX_PACKET_SIZE > blockEnd) {
+			emit();
+		}
+	}
+
+	if (block == null && !nextBlock()) {
+		++dropped;
+		return true;
+	}
+	final int pos = block.position();
+	block.put(pending);
+	if (last != null) {
+		remember(pos);
+	}
+	appended();
+	return true;
+}
+
+private void remember(final int start) {
+	block.limit(start + RX_PACKET_SIZE).position(start + RX_HEADER_SIZE);
+	last.clear();
+	last.put(block);
+	block.limit(block.capacity());
+}
+
+private void appended() {
+	final int pos = block.position();
+	if (pos == RX_PACKET_SIZE) {
+		started();
+	}
+	if (pos + RX_PACKET_SIZE > blockEnd) {
+		emit();
+	}
+}
+
+private void started() {
+	arrival = System.nanoTime();
+	deadline = arrival + batchLatency;
+}
+
+private void emit() {
+	final ByteBuffer ready = block;
+	block = null;
+	ready.flip();
+	output.publish(ready, arrival);
+}
+
+private boolean nextBlock() {
+	ByteBuffer buff = pool.acquire();
+	if (buff == null) {
+		output.onEmptyPool();
+		buff = pool.acquire();
+		if (buff == null) {
+			return false;
+		}
+	}
+	blockEnd = Math.min(buff.capacity(), batchSize);
+	if (blockEnd < RX_PACKET_SIZE) {
+		pool.release(buff);
+		return false;
+	}
+	buff.clear();
+	block = buff;
+	return true;
+}
+}
@@ -0,0 +1,40 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of reusable reference-counted buffers for receiving packets.
+ * <p>
+ * Buffer handed out by {@link #acquire()} holds one reference owned by the caller,
+ * every additional holder is accounted with {@link #retain(ByteBuffer, int)},
+ * and buffer becomes available again when the last reference is {@link #release(ByteBuffer) released}.
+ */
+interface BufferPool {
+
+/**
+ * @return cleared buffer with one reference held by caller, or {@code null} if pool is exhausted.
+ */
+ByteBuffer acquire();
+
+/**
+ * Adds {@code count} references to the acquired buffer.
+ */
+void retain(ByteBuffer buffer, int count);
+
+/**
+ * Drops one reference of the buffer, returning it to the pool when no references are left.
+ *
+ * @return false if buffer doesn't belong to this pool.
+ */
+boolean release(ByteBuffer buffer);
+
+/**
+ * @return number of buffers ready to be acquired.
+ */
+int available();
+
+/**
+ * @return number of buffers owned by this pool.
+ */
+int capacity();
+}
@@ -0,0 +1,30 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Helpers for buffers shared between subscribers, none of them touches position or limit.
+ */
+final class Buffers {
+
+private Buffers() {}
+
+/**
+ * Copies {@code length} bytes using absolute accessors only.
+ * Byte order of destination is switched to the one of source.
+ */
+static void copy(final ByteBuffer src, int srcIndex, final ByteBuffer dst, int dstIndex, final int length) {
+	final ByteOrder order = src.order();
+	if (dst.order() != order) {
+		dst.order(order);
+	}
+	final int longs = length >>> 3;
+	for (int i = 0; i < longs; ++i, srcIndex += 8, dstIndex += 8) {
+		dst.putLong(dstIndex, src.getLong(srcIndex));
+	}
+	for (int i = length & 7; i > 0; --i) {
+		dst.put(dstIndex++, src.get(srcIndex++));
+	}
+}
+}
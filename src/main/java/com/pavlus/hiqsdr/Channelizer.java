@@ -0,0 +1,480 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polyphase filter bank splitting decoded receiver stream into {@code N} equally spaced channels.
+ * <p>
+ * Channel {@code k} is centered at {@link #getChannelOffset(int)} of sample rate, is {@code 1/N} of it wide
+ * and sampled at {@code 1/N} of input rate. Every {@code N} input samples give one output frame:
+ * {@code N} polyphase branches of prototype low-pass filter followed by {@code N}-point FFT.
+ * Frames of a block don't depend on each other, so they are split into slices computed by
+ * {@link ForkJoinPool}, small blocks are done on receiving thread. Batch receiver blocks,
+ * see {@link RXOptions#batch(int, long, java.util.concurrent.TimeUnit)}, to give the pool enough work.
+ * <p>
+ * Each channel is a {@link Publisher} of interleaved I, Q floats. Output blocks are taken round-robin
+ * from per-channel pool like {@link IQDecoder} does, so emitted block stays intact until
+ * {@code poolSize - 1} more blocks are emitted. Blocks are dropped for subscribers without demand.
+ * Bank connects to receiver when first channel gets subscriber.
+ */
+public final class Channelizer implements Subscriber<FloatBuffer>, Closeable {
+
+public static final int DEFAULT_TAPS_PER_CHANNEL = 12;
+// below this many frames per slice forking costs more than it saves
+private static final int MIN_SLICE_FRAMES = 16;
+private static final ChannelSubscription[] EMPTY = new ChannelSubscription[0];
+
+private final int channels;
+private final int taps;
+private final int history;
+private final int poolSize;
+// taps of branch m are at [m * taps, (m + 1) * taps)
+private final float[] branches;
+private final FFT fft;
+private final ForkJoinPool pool;
+private final boolean ownPool;
+private final FloatIQDecoder decoder;
+private final Channel[] outputs;
+private final Slice[] slices;
+private final Batch batch = new Batch();
+// held while block is processed, so close() knows pool is no longer used
+private final Object processing = new Object();
+
+// owned by receiving thread
+private float[] samples;
+private int buffered;
+private int next;
+private final float[][] frameOutputs;
+
+private volatile Subscription upstream;
+private volatile boolean done;
+private boolean connected;
+private int subscribers;
+
+/**
+ * Uses {@link #DEFAULT_TAPS_PER_CHANNEL} and own pool of all processors.
+ *
+ * @param channels number of channels, power of two.
+ */
+public Channelizer(SwitchablePooledProcessor<ByteBuffer> source, int channels) {
+	this(source, channels, DEFAULT_TAPS_PER_CHANNEL, IQDecoder.DEFAULT_POOL_SIZE, null);
+}
+
+/**
+ * @param channels        number of channels, power of two.
+ * @param tapsPerChannel  length of each polyphase branch, longer gives sharper channel edges.
+ * @param poolSize        number of output blocks per channel reused round-robin.
+ * @param pool            pool doing the work, or {@code null} to create one closed by {@link #close()}.
+ */
+public Channelizer(SwitchablePooledProcessor<ByteBuffer> source, int channels, int tapsPerChannel, int poolSize,
+                   ForkJoinPool pool) {
+	if (tapsPerChannel <= 0 || poolSize <= 0) {
+		throw new IllegalArgumentException("Taps per channel and pool size must be positive.");
+	}
+	fft = new FFT(channels);
+	this.channels = channels;
+	this.taps = tapsPerChannel;
+	this.poolSize = poolSize;
+	history = (tapsPerChannel - 1) * channels;
+	branches = prototype(channels, tapsPerChannel);
+	ownPool = pool == null;
+	this.pool = ownPool ? new ForkJoinPool() : pool;
+	decoder = new FloatIQDecoder(source);
+	outputs = new Channel[channels];
+	for (int k = 0; k < channels; ++k) {
+		outputs[k] = new Channel();
+	}
+	slices = new Slice[this.pool.getParallelism()];
+	for (int i = 0; i < slices.length; ++i) {
+		slices[i] = new Slice();
+	}
+	frameOutputs = new float[channels][];
+	samples = new float[2 * (history + channels)];
+	buffered = history; // starts with silence
+}
+
+/**
+ * Windowed-sinc low-pass cut at half channel spacing, unity gain at DC,
+ * rearranged into branches: {@code h[p * N + m]} goes to branch {@code m}, position {@code p}.
+ */
+private static float[] prototype(final int channels, final int taps) {
+	final int length = channels * taps;
+	final double cutoff = 0.5 / channels;
+	final double[] h = new double[length];
+	double sum = 0;
+	for (int n = 0; n < length; ++n) {
+		final double t = n - (length - 1) / 2.0;
+		final double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+		final double x = 2 * Math.PI * n / (length - 1);
+		final double blackman = 0.42 - 0.5 * Math.cos(x) + 0.08 * Math.cos(2 * x);
+		h[n] = sinc * blackman;
+		sum += h[n];
+	}
+	final float[] branches = new float[length];
+	for (int p = 0; p < taps; ++p) {
+		for (int m = 0; m < channels; ++m) {
+			branches[m * taps + p] = (float) (h[p * channels + m] / sum);
+		}
+	}
+	return branches;
+}
+
+public int getChannelCount() {
+	return channels;
+}
+
+/**
+ * @return center of channel {@code k} as fraction of input sample rate, in [-0.5, 0.5).
+ */
+public double getChannelOffset(int k) {
+	return (k < channels / 2 ? k : k - channels) / (double) channels;
+}
+
+/**
+ * @return stream of channel {@code k}.
+ */
+public Publisher<FloatBuffer> channel(int k) {
+	return outputs[k];
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	synchronized (this) {
+		if (done) {
+			s.cancel();
+			return;
+		}
+		upstream = s;
+	}
+	s.request(Long.MAX_VALUE);
+}
+
+@Override
+public void onNext(final FloatBuffer block) {
+	synchronized (processing) {
+		if (!done) {
+			process(block);
+		}
+	}
+}
+
+private void process(final FloatBuffer block) {
+	final int values = block.remaining() & ~1;
+	if (samples.length < 2 * buffered + values) {
+		samples = Arrays.copyOf(samples, 2 * buffered + values);
+	}
+	block.duplicate().get(samples, 2 * buffered, values);
+	buffered += values / 2;
+	final int frames = (buffered - history) / channels;
+	if (frames == 0) {
+		return;
+	}
+	final int slot = next;
+	next = slot + 1 == poolSize ? 0 : slot + 1;
+	for (int k = 0; k < channels; ++k) {
+		frameOutputs[k] = outputs[k].ensure(slot, 2 * frames);
+	}
+	run(frames);
+	// keep filter history and samples not making whole frame yet
+	final int consumed = frames * channels;
+	System.arraycopy(samples, 2 * consumed, samples, 0, 2 * (buffered - consumed));
+	buffered -= consumed;
+	for (Channel c : outputs) {
+		c.publish(slot, frames);
+	}
+}
+
+private void run(final int frames) {
+	final int count = Math.min(slices.length, Math.max(1, frames / MIN_SLICE_FRAMES));
+	for (int i = 0; i < count; ++i) {
+		slices[i].reinitialize();
+		slices[i].from = (int) ((long) frames * i / count);
+		slices[i].to = (int) ((long) frames * (i + 1) / count);
+	}
+	if (count == 1) {
+		slices[0].compute();
+	} else {
+		batch.reinitialize();
+		batch.count = count;
+		pool.invoke(batch);
+	}
+}
+
+@Override
+public void onError(final Throwable t) {
+	done = true;
+	for (Channel c : outputs) {
+		for (ChannelSubscription s : c.terminate(t)) {
+			s.subscriber.onError(t);
+		}
+	}
+}
+
+@Override
+public void onComplete() {
+	done = true;
+	for (Channel c : outputs) {
+		for (ChannelSubscription s : c.terminate(null)) {
+			s.subscriber.onComplete();
+		}
+	}
+}
+
+/**
+ * Disconnects from receiver and completes all channels.
+ * Own pool is shut down once block being processed, if any, is done.
+ */
+@Override
+public void close() {
+	final Subscription s;
+	synchronized (this) {
+		s = upstream;
+		upstream = null;
+	}
+	if (s != null) {
+		s.cancel();
+	}
+	synchronized (processing) {
+		done = true;
+	}
+	onComplete();
+	if (ownPool) {
+		pool.shutdown();
+	}
+}
+
+private synchronized void subscribed() {
+	++subscribers;
+	if (!connected && !done) {
+		connected = true;
+		decoder.subscribe(this);
+	}
+}
+
+private void unsubscribed() {
+	Subscription disconnect = null;
+	synchronized (this) {
+		if (--subscribers == 0 && connected) {
+			connected = false;
+			disconnect = upstream;
+			upstream = null;
+		}
+	}
+	if (disconnect != null) {
+		disconnect.cancel();
+	}
+}
+
+private final class Batch extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	int count;
+
+	@Override
+	protected void compute() {
+		for (int i = 1; i < count; ++i) {
+			slices[i].fork();
+		}
+		slices[0].compute();
+		for (int i = 1; i < count; ++i) {
+			slices[i].join();
+		}
+	}
+}
+
+/**
+ * Computes frames [from, to) of current block.
+ */
+private final class Slice extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	final float[] frame = new float[2 * channels];
+	int from;
+	int to;
+
+	@Override
+	protected void compute() {
+		final float[] x = samples;
+		final float[][] out = frameOutputs;
+		for (int f = from; f < to; ++f) {
+			// newest sample of frame, branch m starts m samples before it and steps back by N
+			final int newest = history + f * channels + channels - 1;
+			for (int m = 0; m < channels; ++m) {
+				float re = 0;
+				float im = 0;
+				int index = 2 * (newest - m);
+				for (int p = m * taps, end = p + taps; p < end; ++p, index -= 2 * channels) {
+					final float h = branches[p];
+					re += h * x[index];
+					im += h * x[index + 1];
+				}
+				frame[2 * m] = re;
+				frame[2 * m + 1] = im;
+			}
+			fft.inverse(frame);
+			for (int k = 0; k < channels; ++k) {
+				out[k][2 * f] = frame[2 * k];
+				out[k][2 * f + 1] = frame[2 * k + 1];
+			}
+		}
+	}
+}
+
+private final class Channel implements Publisher<FloatBuffer> {
+	final float[][] arrays = new float[poolSize][];
+	final FloatBuffer[] blocks = new FloatBuffer[poolSize];
+	volatile ChannelSubscription[] subscriptions = EMPTY;
+	// guarded by this
+	boolean terminated;
+	Throwable error;
+
+	float[] ensure(final int slot, final int values) {
+		float[] out = arrays[slot];
+		if (out == null || out.length < values) {
+			out = arrays[slot] = new float[values];
+			blocks[slot] = FloatBuffer.wrap(out);
+		}
+		return out;
+	}
+
+	void publish(final int slot, final int frames) {
+		final ChannelSubscription[] current = subscriptions;
+		if (current.length == 0) {
+			return;
+		}
+		final FloatBuffer block = blocks[slot];
+		block.clear();
+		block.limit(2 * frames);
+		for (ChannelSubscription s : current) {
+			s.offer(block);
+		}
+	}
+
+	@Override
+	public void subscribe(final Subscriber<? super FloatBuffer> s) {
+		final ChannelSubscription subscription = new ChannelSubscription(this, s);
+		final boolean added;
+		final Throwable terminal;
+		synchronized (this) {
+			added = !terminated;
+			terminal = error;
+			if (added) {
+				ChannelSubscription[] current = subscriptions;
+				ChannelSubscription[] updated = Arrays.copyOf(current, current.length + 1);
+				updated[current.length] = subscription;
+				subscriptions = updated;
+			}
+		}
+		if (added) {
+			s.onSubscribe(subscription);
+			return;
+		}
+		// channel has already finished, subscriber is told so right away
+		s.onSubscribe(new Subscription() {
+			@Override
+			public void request(final long n) {
+			}
+
+			@Override
+			public void cancel() {
+			}
+		});
+		if (terminal != null) {
+			s.onError(terminal);
+		} else {
+			s.onComplete();
+		}
+	}
+
+	synchronized ChannelSubscription[] terminate(final Throwable error) {
+		if (!terminated) {
+			terminated = true;
+			this.error = error;
+		}
+		ChannelSubscription[] current = subscriptions;
+		subscriptions = EMPTY;
+		return current;
+	}
+
+	boolean remove(final ChannelSubscription s) {
+		synchronized (this) {
+			ChannelSubscription[] current = subscriptions;
+			for (int i = 0; i < current.length; ++i) {
+				if (current[i] == s) {
+					ChannelSubscription[] updated = new ChannelSubscription[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i, updated.length - i);
+					subscriptions = updated;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
+
+private final class ChannelSubscription implements Subscription {
+	final Channel channel;
+	final Subscriber<? super FloatBuffer> subscriber;
+	final AtomicLong demand = new AtomicLong();
+	volatile boolean cancelled;
+	boolean counted;
+
+	ChannelSubscription(final Channel channel, final Subscriber<? super FloatBuffer> subscriber) {
+		this.channel = channel;
+		this.subscriber = subscriber;
+	}
+
+	void offer(final FloatBuffer block) {
+		long current;
+		do {
+			current = demand.get();
+			if (current <= 0) {
+				return;
+			}
+		} while (current != Long.MAX_VALUE && !demand.compareAndSet(current, current - 1));
+		subscriber.onNext(block);
+	}
+
+	@Override
+	public void request(final long n) {
+		if (n <= 0 || cancelled) {
+			return;
+		}
+		long current;
+		do {
+			current = demand.get();
+		} while (!demand.compareAndSet(current, RXDispatcher.addDemand(current, n)));
+		synchronized (this) {
+			if (counted || cancelled) {
+				return;
+			}
+			counted = true;
+		}
+		subscribed();
+	}
+
+	@Override
+	public void cancel() {
+		synchronized (this) {
+			cancelled = true;
+		}
+		if (channel.remove(this)) {
+			synchronized (this) {
+				if (!counted) {
+					return;
+				}
+			}
+			unsubscribed();
+		}
+	}
+}
+}
@@ -5,7 +5,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.pavlus.hiqsdr.Protocol.*;
 
@@ -18,23 +17,10 @@ public class Config {
 
 ByteBuffer cmdPacket = ByteBuffer.allocate(CFG_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN); // received packet
 
-ByteBuffer ctrlCmdBuf = ByteBuffer.allocate(CFG_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN); // sent packet
-byte txPowerLevel;
-byte txControl;
-byte rxControl;
-byte firmwareVersion;
-byte preselector;
-byte attenuator;
-byte antenna;
-long rxTunePhase;
-long txTunePhase;
-int sampleRate;
-long txTuneFrequency;
-long rxTuneFrequency;
-
-
-boolean tieTX2RXFreq = true;
-private AtomicBoolean needToFillPacket = new AtomicBoolean(true);
+// published by setters, read without locking
+private volatile ConfigSnapshot state;
+// last written out, what device should report back
+private volatile ConfigSnapshot sent;
 
 /**
  * Creates Config representing corresponding to specified packet.
@@ -60,14 +46,50 @@ public Config() {
  * @throws IllegalArgumentException
  */
 public Config(byte fwVersion) {
-	checkFwVersionAndSet(fwVersion);
+	this(ConfigSnapshot.builder().firmwareVersion(fwVersion).build());
+}
+
+/**
+ * Creates Config holding specified state.
+ */
+public Config(ConfigSnapshot snapshot) {
+	set(snapshot);
+}
+
+/**
+ * Copies settings along with last sent and received packets, so {@link #isConsistent()} gives the same answer.
+ */
+Config(Config other) {
+	synchronized (other) {
+		state = other.state;
+		sent = other.sent;
+		cmdPacket.put((ByteBuffer) other.cmdPacket.duplicate().clear());
+		cmdPacket.position(other.cmdPacket.position()).limit(other.cmdPacket.limit());
+	}
+}
+
+/**
+ * @return current state, never locks. Its packet is already encoded.
+ */
+public ConfigSnapshot snapshot() {
+	return state;
+}
+
+/**
+ * Replaces whole state at once, e.g. with one prepared by {@link ConfigSnapshot#toBuilder()}.
+ */
+public synchronized void set(ConfigSnapshot snapshot) {
+	if (snapshot == null) {
+		throw new NullPointerException("snapshot");
+	}
+	state = snapshot;
 }
 
 /**
  * @return TX power level in range 0..255.
  */
 public int getTxPowerLevel() {
-	return txPowerLevel & 0xff;
+	return state.getTxPowerLevel();
 }
 
 /**
@@ -76,273 +98,172 @@ public int getTxPowerLevel() {
  * @param powerLevel
  * @throws IllegalArgumentException
  */
-public void setTxPowerLevel(int powerLevel) {
+public synchronized void setTxPowerLevel(int powerLevel) {
 	checkTxPowerLevelAndSet(powerLevel);
-	needToFillPacket.set(true);
 }
 
-protected void checkTxPowerLevelAndSet(final int powerLevel) {
-	if (powerLevel > 255 || powerLevel < 0) {
-		throw new IllegalArgumentException("TxPowerLevel must be in range 0-255.");
-	}
-	txPowerLevel = (byte) (powerLevel & 0xff);
+/**
+ * @deprecated state is validated by {@link ConfigSnapshot.Builder}, use {@link #setTxPowerLevel(int)}.
+ */
+@Deprecated
+protected synchronized void checkTxPowerLevelAndSet(final int powerLevel) {
+	state = state.toBuilder().txPowerLevel(powerLevel).build();
 }
 
 public byte getFirmwareVersion() {
-	return firmwareVersion;
+	return state.getFirmwareVersion();
 }
 
-public void setFirmwareVersion(byte fwv) {
+public synchronized void setFirmwareVersion(byte fwv) {
 	checkFwVersionAndSet(fwv);
-	needToFillPacket.set(true);
 }
 
-
-protected void checkFwVersionAndSet(final byte fwv) {
-	if (fwv > 2 || fwv < 0) {
-		throw new IllegalArgumentException("Supported firmware versions: 0, 1, 2, but \"" + fwv + "\" specified.");
-	}
-	firmwareVersion = fwv;
+/**
+ * @deprecated state is validated by {@link ConfigSnapshot.Builder}, use {@link #setFirmwareVersion(byte)}.
+ */
+@Deprecated
+protected synchronized void checkFwVersionAndSet(final byte fwv) {
+	state = state.toBuilder().firmwareVersion(fwv).build();
 }
 
 public byte getAntenna() {
-	return antenna;
+	return state.getAntenna();
 }
 
-public void setAntenna(byte ant) {
+public synchronized void setAntenna(byte ant) {
 	checkAntennaAndSet(ant);
-	needToFillPacket.set(true);
 }
 
-protected void checkAntennaAndSet(final byte ant) {
-	if (firmwareVersion == 0) {
-		throw new IllegalStateException("Antenna selection is not supported by HiQSDR fw v1.0");
-	}
-	antenna = ant;
+/**
+ * @deprecated state is validated by {@link ConfigSnapshot.Builder}, use {@link #setAntenna(byte)}.
+ */
+@Deprecated
+protected synchronized void checkAntennaAndSet(final byte ant) {
+	state = state.toBuilder().antenna(ant).build();
 }
 
-public synchronized void fillFromChannel(ReadableByteChannel channel) throws IllegalArgumentException, IOException {
+/**
+ * Reads configuration packet reported by device, it's kept for {@link #isConsistent()}.
+ *
+ * @return false if non-blocking channel had nothing to read.
+ * @throws IllegalArgumentException if packet can't be parsed.
+ */
+public synchronized boolean fillFromChannel(ReadableByteChannel channel) throws IllegalArgumentException, IOException {
 	cmdPacket.clear();
-	channel.read(cmdPacket);
-	fillFromPacket(cmdPacket);
-}
-
-public synchronized void fillFromPacket(ByteBuffer packet) throws IllegalArgumentException {
-	packet.order(ByteOrder.LITTLE_ENDIAN);
-
-	// check header magic
-	byte S = packet.get();
-	byte t = packet.get();
-	if (S != MAGIC_S || t != MAGIC_t) {
-		throw new IllegalArgumentException("Malformed packet");
+	if (channel.read(cmdPacket) <= 0) {
+		cmdPacket.flip();
+		return false;
 	}
-
-	rxTunePhase = packet.getInt();
-	rxTuneFrequency = tunePhaseToFrequency(rxTunePhase);
-
-	txTunePhase = packet.getInt();
-	txTuneFrequency = tunePhaseToFrequency(txTunePhase);
-	if (rxTuneFrequency == txTuneFrequency) {
-		tieTX2RXFreq = true;
+	cmdPacket.flip();
+	if (cmdPacket.remaining() != CFG_PACKET_SIZE) {
+		throw new IllegalArgumentException("Malformed packet");
 	}
+	fillFromPacket(cmdPacket.duplicate());
+	return true;
+}
 
-	txPowerLevel = packet.get();
-
-	txControl = packet.get();
-
-	rxControl = packet.get();
-
-	sampleRate = code2SampleRate(rxControl);
-
-	firmwareVersion = packet.get();
-	if (firmwareVersion < 1) {
-		preselector = 0;
-		attenuator = 0;
-		antenna = 0;
-	} else {
-		preselector = packet.get();
-		attenuator = packet.get();
-		antenna = packet.get();
+/**
+ * TX frequency gets tied to RX one when they are equal in packet, but is never untied by it.
+ *
+ * @throws IllegalArgumentException if packet can't be parsed.
+ */
+public synchronized void fillFromPacket(ByteBuffer packet) throws IllegalArgumentException {
+	ConfigSnapshot parsed = ConfigSnapshot.fromPacket(packet);
+	if (!parsed.isTiedTxToRxFreq() && (state == null || state.isTiedTxToRxFreq())) {
+		parsed = parsed.toBuilder().tiedTxToRxFreq(true).build();
 	}
+	state = parsed;
 }
 
 public byte getTxMode() {
-	return txControl;
-}
-
-public void setTxMode(byte mode) {
-	switch (mode) {
-		case TX_MODE_EXTENDED_IO:
-		case TX_MODE_HW_CONTNIOUS_WAVE:
-			if (firmwareVersion == 0) {
-				throw new IllegalStateException("Specified mode is not supported by HiQSDR firmware v1.0");
-			}
-		case TX_MODE_KEYED_CONTINIOUS_WAVE:
-		case TX_MODE_RECEIVED_PTT:
-			txControl = mode;
-			break;
-		default:
-			throw new IllegalArgumentException("Unknown TX mode " + mode + '.');
-	}
+	return state.getTxMode();
+}
 
-	needToFillPacket.set(true);
+public synchronized void setTxMode(byte mode) {
+	state = state.toBuilder().txMode(mode).build();
 }
 
 public synchronized void setRxFrequency(long frequency) {
-	rxTuneFrequency = frequency;
-	rxTunePhase = frequencyToTunePhase(frequency);
-
-	needToFillPacket.set(true);
+	state = state.toBuilder().rxFrequency(frequency).build();
 }
 
-public synchronized long getRxFrequency() {
-	return rxTuneFrequency;
+public long getRxFrequency() {
+	return state.getRxFrequency();
 }
 
 public synchronized void setTxFrequency(long frequency) {
-	txTuneFrequency = frequency;
-	txTunePhase = frequencyToTunePhase(frequency);
-
-	needToFillPacket.set(true);
+	state = state.toBuilder().txFrequency(frequency).build();
 }
 
-
-public synchronized long getTxFrequency() {
-	return txTuneFrequency;
+public long getTxFrequency() {
+	return state.getTxFrequency();
 }
 
-public void setTiedTxToRxFreq(boolean tie) {
-	tieTX2RXFreq = tie;
-	needToFillPacket.set(true);
+public synchronized void setTiedTxToRxFreq(boolean tie) {
+	state = state.toBuilder().tiedTxToRxFreq(tie).build();
 }
 
 public boolean isTiedTxToRxFreq() {
-	return tieTX2RXFreq;
+	return state.isTiedTxToRxFreq();
 }
 
-public void setSampleRate(int sampleRate) throws IllegalArgumentException {
+public int getSampleRate() {
+	return state.getSampleRate();
+}
+
+public synchronized void setSampleRate(int sampleRate) throws IllegalArgumentException {
 	// lazy
-	if (this.sampleRate == sampleRate) {
+	if (state.getSampleRate() == sampleRate) {
 		return;
 	}
-
-	if (sampleRate <= 0) {
-		throw new IllegalArgumentException("Sample rate must be positive number and one of supported values.");
-	}
-
-	final byte code = sampleRate2Code(sampleRate);
-	if (code < 0) {
-		throw new IllegalArgumentException("Specified sample rate (" + sampleRate + " is not supported");
-	}
-
-	this.sampleRate = sampleRate;
-	rxControl = code;
-	needToFillPacket.set(true);
-
+	state = state.toBuilder().sampleRate(sampleRate).build();
 }
 
 
 /**
- * Writes configuration in binary form to the specified buffer.
+ * Writes configuration in binary form to the specified buffer, packet is not re-serialized.
  *
  * @param buffer
- * @throws IOException
  */
-public synchronized void writeOut(ByteBuffer buffer) {
-	fillCtrlPacket();
-	buffer.put(ctrlCmdBuf);
-	ctrlCmdBuf.flip(); // for future usage
+public void writeOut(ByteBuffer buffer) {
+	final ConfigSnapshot s = state;
+	s.writeTo(buffer);
+	sent = s;
 }
 
 /**
- * Writes configuration in binary form to the specified inputChannel.
+ * Writes configuration in binary form to the specified inputChannel, packet is not re-serialized.
  *
  * @param channel
  * @throws IOException
  */
-public synchronized void writeOut(WritableByteChannel channel) throws IOException {
-	fillCtrlPacket();
-	channel.write(ctrlCmdBuf);
-	ctrlCmdBuf.flip(); // for future usage
+public void writeOut(WritableByteChannel channel) throws IOException {
+	final ConfigSnapshot s = state;
+	channel.write(s.packet());
+	sent = s;
 }
 
 /**
- * Serializes representation to HiQSDR config protocol.
+ * @deprecated packet is encoded once when state changes, nothing is left to do here.
  */
+@Deprecated
 protected void fillCtrlPacket() {
-
-	if (ctrlCmdBuf.remaining() != CFG_PACKET_SIZE || needToFillPacket.getAndSet(false)) {
-		ctrlCmdBuf.clear();
-
-		ctrlCmdBuf
-				.put(MAGIC_S) // 'S'
-				.put(MAGIC_t) // 't'
-
-				.putInt((int) (rxTunePhase))
-
-				.putInt((int) (tieTX2RXFreq ? rxTunePhase : txTunePhase))
-
-				.put(txPowerLevel)
-
-				.put(txControl)
-
-				.put(rxControl)
-
-				.put(firmwareVersion);
-
-		if (firmwareVersion < 1) {
-			ctrlCmdBuf
-					.put((byte) 0)
-					.put((byte) 0)
-					.put((byte) 0);
-		} else {
-			ctrlCmdBuf
-					.put(preselector)
-
-					.put(attenuator)
-
-					.put(antenna);
-		}
-
-		// reserved
-		ctrlCmdBuf
-				.put((byte) 0)
-				.put((byte) 0)
-				.put((byte) 0)
-				.put((byte) 0)
-				.put((byte) 0);
-
-		ctrlCmdBuf.flip();
-	}
 }
 
-
 /**
  * Checks if received packet equals to sent packet (is device config consistent with representation)
  *
  * @return true if received packet matches sent packet, false otherwise
  */
-public boolean isConsistent() {
-	return cmdPacket.equals(ctrlCmdBuf);
+public synchronized boolean isConsistent() {
+	final ConfigSnapshot s = sent;
+	// compare whole packet regardless of position left by reading
+	return s != null && s.matches((ByteBuffer) cmdPacket.duplicate().position(0));
 }
 
 @Override
 public String toString() {
-	StringBuilder sb = new StringBuilder("HiQSDRconfig: [");
-	sb.append("rxFreq: ").append(rxTuneFrequency);
-	sb.append(", txFreq: ").append(txTuneFrequency);
-	sb.append(", tieTxToRx: ").append(tieTX2RXFreq);
-	sb.append(", txPowerLevel: ").append(txPowerLevel);
-	sb.append(", txMode: ").append(Integer.toBinaryString(txControl));
-	sb.append(", rxMode: ").append(Integer.toBinaryString(rxControl));
-	sb.append(", firmwareVersion: ").append(firmwareVersion);
-	if (firmwareVersion >= 1) {
-		sb.append(", preselector: ").append(preselector);
-		sb.append(", attenuator: ").append(attenuator);
-		sb.append(", antenna: ").append(antenna);
-	}
-	sb.append(']');
-	return sb.toString();
+	return state.toString();
 }
 
 }
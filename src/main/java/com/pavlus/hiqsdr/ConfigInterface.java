@@ -1,71 +1,277 @@
 package com.pavlus.hiqsdr;
 
 import org.reactivestreams.Processor;
-import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by pavlus on 16.02.17.
  */
 
+/**
+ * Writes {@link Config}s it's fed with to device and emits configuration device reports back.
+ * <p>
+ * {@link #onNext(Config)} only remembers config and returns, so bursts of updates coalesce:
+ * when write is allowed again only the latest state is sent, writes are spaced
+ * by at least minimal interval firmware copes with. Device is asked for its configuration
+ * with {@link Protocol#REQUEST_CONFIG_CMD} periodically and shortly after updates settle.
+ * <p>
+ * Every report device sends is emitted as a copy, its {@link Config#isConsistent()} tells
+ * whether device applied what was written last. Reports nobody requested are skipped.
+ * <p>
+ * Channel is served by {@link EventLoopGroup} of the device, or by own thread.
+ */
 public class ConfigInterface implements Processor<Config, Config>, Closeable {
 
-protected Collection<Subscriber<? super Config>> subscribers;
-protected Collection<Subscription> subscriptions;
+public static final long DEFAULT_MIN_WRITE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+public static final long DEFAULT_READBACK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+private final static ByteBuffer REQUEST_CONFIG_CMD = Protocol.REQUEST_CONFIG_CMD.asReadOnlyBuffer();
+
+protected Collection<ConfigInterfaceSubscription> subscribers = new CopyOnWriteArrayList<>();
+protected Collection<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+private final DatagramChannel channel;
+private final long minWriteInterval;
+private final long readbackInterval;
+private final EventLoopGroup ownLoop;
+private final EventLoopGroup.Registration registration;
+private final AtomicReference<Config> latest = new AtomicReference<>();
+// mirror of device state, owned by loop thread
+private final Config device = new Config();
+private volatile boolean closed;
+private volatile long writes;
+private volatile long readbacks;
+
+/**
+ * @param loop             loops serving the channel, or {@code null} to serve it by own thread.
+ * @param minWriteInterval minimal time between two writes, also delay of read back after last write.
+ * @param readbackInterval how often device is asked for configuration.
+ */
+ConfigInterface(InetAddress address, int cmdPort, EventLoopGroup loop, long minWriteInterval,
+                long readbackInterval, TimeUnit unit) throws IOException {
+	this.minWriteInterval = unit.toNanos(minWriteInterval);
+	this.readbackInterval = unit.toNanos(readbackInterval);
+	if (this.minWriteInterval < 0 || this.readbackInterval <= 0) {
+		throw new IllegalArgumentException("Intervals must be positive.");
+	}
+	channel = DatagramChannel.open();
+	channel.connect(new InetSocketAddress(address, cmdPort));
+	ownLoop = loop == null ? new EventLoopGroup(1, new NamedThreadFactory("hiqsdr-config")) : null;
+	registration = (loop == null ? ownLoop : loop).register(channel, new LoopHandler());
+}
 
 @Override
 public void subscribe(final Subscriber<? super Config> s) {
-	subscribers.add(s);
-	s.onSubscribe(new ConfigInterfaceSubscription(s));
+	ConfigInterfaceSubscription subscription = new ConfigInterfaceSubscription(s);
+	subscribers.add(subscription);
+	s.onSubscribe(subscription);
 }
 
 @Override
 public void onSubscribe(final Subscription s) {
 	subscriptions.add(s);
+	s.request(Long.MAX_VALUE);
 }
 
+/**
+ * Schedules write of config, never blocks. Config replaces one still waiting to be written.
+ */
 @Override
 public void onNext(final Config config) {
-	throw new UnsupportedOperationException("Not implemented yet.");
+	if (!closed && latest.getAndSet(config) == null) {
+		registration.wakeup();
+	}
 }
 
 @Override
 public void onError(final Throwable t) {
-	throw new UnsupportedOperationException("Not implemented yet.");
+	finish(t);
 }
 
+/**
+ * No more updates, device state is still reported until {@link #close()}.
+ */
 @Override
 public void onComplete() {
-	throw new UnsupportedOperationException("Not implemented yet.");
 }
 
 @Override
 public void close() throws IOException {
-	throw new UnsupportedOperationException("Not implemented yet.");
+	finish(null);
+}
+
+public long getWrites() {
+	return writes;
+}
+
+public long getReadbacks() {
+	return readbacks;
+}
+
+private void finish(final Throwable error) {
+	synchronized (this) {
+		if (closed) {
+			return;
+		}
+		closed = true;
+	}
+	for (Subscription s : subscriptions) {
+		s.cancel();
+	}
+	try {
+		channel.close();
+	} catch (IOException e) {
+		e.printStackTrace();
+	}
+	if (ownLoop != null) {
+		ownLoop.close();
+	}
+	for (ConfigInterfaceSubscription s : subscribers) {
+		subscribers.remove(s);
+		if (error == null) {
+			s.subscriber.onComplete();
+		} else {
+			s.subscriber.onError(error);
+		}
+	}
+}
+
+private void emit(final Config report) {
+	for (ConfigInterfaceSubscription s : subscribers) {
+		s.offer(report);
+	}
+}
+
+private final class LoopHandler implements EventLoopGroup.Handler {
+	private long nextWrite = System.nanoTime();
+	private long nextReadback = nextWrite;
+	private long confirmAt;
+	private boolean confirm;
+
+	@Override
+	public void onReadable() throws IOException {
+		for (int i = 0; i < EventLoopGroup.MAX_READS_PER_WAKEUP; ++i) {
+			final boolean read;
+			try {
+				read = device.fillFromChannel(channel);
+			} catch (IllegalArgumentException e) {
+				continue; // not a configuration packet
+			}
+			if (!read) {
+				return;
+			}
+			++readbacks;
+			confirm = false;
+			emit(new Config(device));
+		}
+	}
+
+	@Override
+	public boolean hasDeadline() {
+		return true;
+	}
+
+	@Override
+	public long deadline() {
+		long deadline = nextReadback;
+		if (latest.get() != null && nextWrite - deadline < 0) {
+			deadline = nextWrite;
+		}
+		if (confirm && confirmAt - deadline < 0) {
+			deadline = confirmAt;
+		}
+		return deadline;
+	}
+
+	@Override
+	public void onDeadline(final long now) throws IOException {
+		if (nextWrite - now <= 0) {
+			final Config config = latest.getAndSet(null);
+			if (config != null) {
+				write(config);
+				nextWrite = now + minWriteInterval;
+				confirmAt = nextWrite;
+				confirm = true;
+				return;
+			}
+		}
+		if ((confirm && confirmAt - now <= 0) || nextReadback - now <= 0) {
+			synchronized (REQUEST_CONFIG_CMD) {
+				REQUEST_CONFIG_CMD.position(0);
+				channel.write(REQUEST_CONFIG_CMD);
+			}
+			confirm = false;
+			nextReadback = now + readbackInterval;
+		}
+	}
+
+	/**
+	 * Sends current snapshot of config through device mirror, so mirror remembers what was sent.
+	 */
+	private void write(final Config config) throws IOException {
+		device.set(config.snapshot());
+		device.writeOut(channel);
+		++writes;
+	}
+
+	@Override
+	public void onError(final Throwable error) {
+		finish(error);
+	}
+
+	@Override
+	public void onClosed() {
+		if (!closed) {
+			finish(new IOException("Event loop was closed."));
+		}
+	}
 }
 
-private class ConfigInterfaceSubscription implements Subscription{
-	Subscriber<? super Config> subscriber;
-	Publisher<Config> publisher;
+protected class ConfigInterfaceSubscription implements Subscription {
+	final Subscriber<? super Config> subscriber;
+	final AtomicLong demand = new AtomicLong();
 
 	ConfigInterfaceSubscription(Subscriber<? super Config> s) {
 		this.subscriber = s;
-		this.publisher = ConfigInterface.this;
+	}
+
+	void offer(final Config report) {
+		long current;
+		do {
+			current = demand.get();
+			if (current <= 0) {
+				return;
+			}
+		} while (current != Long.MAX_VALUE && !demand.compareAndSet(current, current - 1));
+		subscriber.onNext(report);
 	}
 
 	@Override
 	public void request(final long n) {
-		throw new UnsupportedOperationException("Not implemented yet.");
+		if (n <= 0) {
+			return;
+		}
+		long current;
+		do {
+			current = demand.get();
+		} while (!demand.compareAndSet(current, RXDispatcher.addDemand(current, n)));
 	}
 
 	@Override
 	public void cancel() {
-		throw new UnsupportedOperationException("Not implemented yet.");
+		subscribers.remove(this);
 	}
 }
 }
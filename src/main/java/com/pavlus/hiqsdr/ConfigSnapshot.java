@@ -0,0 +1,355 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static com.pavlus.hiqsdr.Protocol.*;
+
+/**
+ * Immutable state of HiQSDR configuration together with its encoded packet.
+ * <p>
+ * Packet is encoded once when snapshot is built, so it can be written out any number of times
+ * from any thread. Changes are made by {@link #toBuilder()}, which produces new snapshot.
+ */
+public final class ConfigSnapshot {
+
+private final byte txPowerLevel;
+private final byte txControl;
+private final byte rxControl;
+private final byte firmwareVersion;
+private final byte preselector;
+private final byte attenuator;
+private final byte antenna;
+private final long rxTunePhase;
+private final long txTunePhase;
+private final int sampleRate;
+private final long rxTuneFrequency;
+private final long txTuneFrequency;
+private final boolean tieTX2RXFreq;
+private final byte[] bytes;
+private final ByteBuffer packet;
+
+private ConfigSnapshot(Builder b) {
+	txPowerLevel = b.txPowerLevel;
+	txControl = b.txControl;
+	rxControl = b.rxControl;
+	firmwareVersion = b.firmwareVersion;
+	preselector = b.preselector;
+	attenuator = b.attenuator;
+	antenna = b.antenna;
+	rxTunePhase = b.rxTunePhase;
+	txTunePhase = b.txTunePhase;
+	sampleRate = b.sampleRate;
+	rxTuneFrequency = b.rxTuneFrequency;
+	txTuneFrequency = b.txTuneFrequency;
+	tieTX2RXFreq = b.tieTX2RXFreq;
+	bytes = encode();
+	packet = ByteBuffer.wrap(bytes).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+}
+
+/**
+ * @return builder of configuration with latest supported firmware capability.
+ */
+public static Builder builder() {
+	return new Builder();
+}
+
+/**
+ * Parses configuration packet, consuming it.
+ *
+ * @throws IllegalArgumentException if packet can't be parsed.
+ */
+public static ConfigSnapshot fromPacket(ByteBuffer packet) {
+	packet.order(ByteOrder.LITTLE_ENDIAN);
+	if (packet.remaining() < CFG_PACKET_SIZE - 8) { // fw v1.0 packets may end right after version
+		throw new IllegalArgumentException("Malformed packet");
+	}
+	// check header magic
+	byte S = packet.get();
+	byte t = packet.get();
+	if (S != MAGIC_S || t != MAGIC_t) {
+		throw new IllegalArgumentException("Malformed packet");
+	}
+	Builder b = new Builder();
+	b.rxTunePhase = packet.getInt();
+	b.rxTuneFrequency = tunePhaseToFrequency(b.rxTunePhase);
+	b.txTunePhase = packet.getInt();
+	b.txTuneFrequency = tunePhaseToFrequency(b.txTunePhase);
+	b.tieTX2RXFreq = b.rxTuneFrequency == b.txTuneFrequency;
+	b.txPowerLevel = packet.get();
+	b.txControl = packet.get();
+	b.rxControl = packet.get();
+	b.sampleRate = code2SampleRate(b.rxControl);
+	b.firmwareVersion = packet.get();
+	if (b.firmwareVersion >= 1 && packet.remaining() >= 3) {
+		b.preselector = packet.get();
+		b.attenuator = packet.get();
+		b.antenna = packet.get();
+	}
+	return b.build();
+}
+
+public Builder toBuilder() {
+	return new Builder(this);
+}
+
+/**
+ * @return read-only view of encoded packet, positioned at its start.
+ */
+public ByteBuffer packet() {
+	return packet.duplicate();
+}
+
+/**
+ * Puts encoded packet into buffer without allocating.
+ */
+public void writeTo(ByteBuffer buffer) {
+	buffer.put(bytes);
+}
+
+/**
+ * @return whether packet holds exactly the encoding of this snapshot.
+ */
+public boolean matches(ByteBuffer packet) {
+	if (packet.remaining() != bytes.length) {
+		return false;
+	}
+	final int start = packet.position();
+	for (int i = 0; i < bytes.length; ++i) {
+		if (packet.get(start + i) != bytes[i]) {
+			return false;
+		}
+	}
+	return true;
+}
+
+public int getTxPowerLevel() {
+	return txPowerLevel & 0xff;
+}
+
+public byte getFirmwareVersion() {
+	return firmwareVersion;
+}
+
+public byte getAntenna() {
+	return antenna;
+}
+
+public byte getPreselector() {
+	return preselector;
+}
+
+public byte getAttenuator() {
+	return attenuator;
+}
+
+public byte getTxMode() {
+	return txControl;
+}
+
+public long getRxFrequency() {
+	return rxTuneFrequency;
+}
+
+public long getTxFrequency() {
+	return txTuneFrequency;
+}
+
+public boolean isTiedTxToRxFreq() {
+	return tieTX2RXFreq;
+}
+
+public int getSampleRate() {
+	return sampleRate;
+}
+
+long getRxTunePhase() {
+	return rxTunePhase;
+}
+
+private byte[] encode() {
+	ByteBuffer buf = ByteBuffer.allocate(CFG_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	buf
+			.put(MAGIC_S) // 'S'
+			.put(MAGIC_t) // 't'
+			.putInt((int) rxTunePhase)
+			.putInt((int) (tieTX2RXFreq ? rxTunePhase : txTunePhase))
+			.put(txPowerLevel)
+			.put(txControl)
+			.put(rxControl)
+			.put(firmwareVersion);
+	if (firmwareVersion >= 1) {
+		buf.put(preselector).put(attenuator).put(antenna);
+	}
+	// rest is reserved and stays zero
+	return buf.array();
+}
+
+@Override
+public boolean equals(Object o) {
+	if (this == o) {
+		return true;
+	}
+	if (!(o instanceof ConfigSnapshot)) {
+		return false;
+	}
+	ConfigSnapshot other = (ConfigSnapshot) o;
+	return tieTX2RXFreq == other.tieTX2RXFreq && txTuneFrequency == other.txTuneFrequency
+	       && Arrays.equals(bytes, other.bytes);
+}
+
+@Override
+public int hashCode() {
+	return Arrays.hashCode(bytes);
+}
+
+@Override
+public String toString() {
+	StringBuilder sb = new StringBuilder("HiQSDRconfig: [");
+	sb.append("rxFreq: ").append(rxTuneFrequency);
+	sb.append(", txFreq: ").append(txTuneFrequency);
+	sb.append(", tieTxToRx: ").append(tieTX2RXFreq);
+	sb.append(", txPowerLevel: ").append(txPowerLevel);
+	sb.append(", txMode: ").append(Integer.toBinaryString(txControl));
+	sb.append(", rxMode: ").append(Integer.toBinaryString(rxControl));
+	sb.append(", firmwareVersion: ").append(firmwareVersion);
+	if (firmwareVersion >= 1) {
+		sb.append(", preselector: ").append(preselector);
+		sb.append(", attenuator: ").append(attenuator);
+		sb.append(", antenna: ").append(antenna);
+	}
+	sb.append(']');
+	return sb.toString();
+}
+
+/**
+ * Mutable, not thread-safe, builder of {@link ConfigSnapshot}. Setters validate values like {@link Config} does.
+ */
+public static final class Builder {
+	private byte txPowerLevel;
+	private byte txControl;
+	private byte rxControl;
+	private byte firmwareVersion = 0x02;
+	private byte preselector;
+	private byte attenuator;
+	private byte antenna;
+	private long rxTunePhase;
+	private long txTunePhase;
+	private int sampleRate;
+	private long rxTuneFrequency;
+	private long txTuneFrequency;
+	private boolean tieTX2RXFreq = true;
+
+	private Builder() {
+	}
+
+	private Builder(ConfigSnapshot s) {
+		txPowerLevel = s.txPowerLevel;
+		txControl = s.txControl;
+		rxControl = s.rxControl;
+		firmwareVersion = s.firmwareVersion;
+		preselector = s.preselector;
+		attenuator = s.attenuator;
+		antenna = s.antenna;
+		rxTunePhase = s.rxTunePhase;
+		txTunePhase = s.txTunePhase;
+		sampleRate = s.sampleRate;
+		rxTuneFrequency = s.rxTuneFrequency;
+		txTuneFrequency = s.txTuneFrequency;
+		tieTX2RXFreq = s.tieTX2RXFreq;
+	}
+
+	/**
+	 * @param powerLevel in range 0..255.
+	 * @throws IllegalArgumentException
+	 */
+	public Builder txPowerLevel(int powerLevel) {
+		if (powerLevel > 255 || powerLevel < 0) {
+			throw new IllegalArgumentException("TxPowerLevel must be in range 0-255.");
+		}
+		txPowerLevel = (byte) (powerLevel & 0xff);
+		return this;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 */
+	public Builder firmwareVersion(byte fwv) {
+		if (fwv > 2 || fwv < 0) {
+			throw new IllegalArgumentException("Supported firmware versions: 0, 1, 2, but \"" + fwv + "\" specified.");
+		}
+		firmwareVersion = fwv;
+		return this;
+	}
+
+	/**
+	 * @throws IllegalStateException if firmware doesn't support antenna selection.
+	 */
+	public Builder antenna(byte ant) {
+		if (firmwareVersion == 0) {
+			throw new IllegalStateException("Antenna selection is not supported by HiQSDR fw v1.0");
+		}
+		antenna = ant;
+		return this;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if mode is unknown.
+	 * @throws IllegalStateException    if firmware doesn't support the mode.
+	 */
+	public Builder txMode(byte mode) {
+		switch (mode) {
+			case TX_MODE_EXTENDED_IO:
+			case TX_MODE_HW_CONTNIOUS_WAVE:
+				if (firmwareVersion == 0) {
+					throw new IllegalStateException("Specified mode is not supported by HiQSDR firmware v1.0");
+				}
+			case TX_MODE_KEYED_CONTINIOUS_WAVE:
+			case TX_MODE_RECEIVED_PTT:
+				txControl = mode;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown TX mode " + mode + '.');
+		}
+		return this;
+	}
+
+	public Builder rxFrequency(long frequency) {
+		rxTuneFrequency = frequency;
+		rxTunePhase = frequencyToTunePhase(frequency);
+		return this;
+	}
+
+	public Builder txFrequency(long frequency) {
+		txTuneFrequency = frequency;
+		txTunePhase = frequencyToTunePhase(frequency);
+		return this;
+	}
+
+	public Builder tiedTxToRxFreq(boolean tie) {
+		tieTX2RXFreq = tie;
+		return this;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if rate is not one of {@link Protocol#getSupportedSampleRates()}.
+	 */
+	public Builder sampleRate(int rate) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Sample rate must be positive number and one of supported values.");
+		}
+		final byte code = sampleRate2Code(rate);
+		if (code < 0) {
+			throw new IllegalArgumentException("Specified sample rate (" + rate + " is not supported");
+		}
+		sampleRate = rate;
+		rxControl = code;
+		return this;
+	}
+
+	public ConfigSnapshot build() {
+		return new ConfigSnapshot(this);
+	}
+}
+}
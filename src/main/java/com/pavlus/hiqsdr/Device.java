@@ -5,6 +5,10 @@ import org.reactivestreams.Processor;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by pavlus on 10.06.16.
@@ -18,24 +22,132 @@ protected volatile Config config;
 protected String ipAddress;
 
 protected InetAddress remoteAddr;
+protected final List<RXProcessor> receivers = new CopyOnWriteArrayList<>();
+protected final List<TXProcessor> transmitters = new CopyOnWriteArrayList<>();
+protected final EventLoopGroup eventLoop;
 
 public Device(InetAddress address) {
+	this(address, null);
+}
+
+/**
+ * @param eventLoop loops shared by devices to serve their channels, or {@code null} for thread per receiver.
+ */
+public Device(InetAddress address, EventLoopGroup eventLoop) {
 	this.remoteAddr = address;
+	this.eventLoop = eventLoop;
 }
 
 @Override
 public SwitchablePooledProcessor<ByteBuffer> getRX(final int rxPort) throws IOException {
-	return new RXProcessor(remoteAddr, rxPort);
+	return getRX(rxPort, new RXOptions());
 }
 
+/**
+ * Receiver is served by device's event loop, unless options set another one.
+ */
 @Override
-public Processor<ByteBuffer, ByteBuffer> getTX(final int txPort) {
-	throw new UnsupportedOperationException();
+public SwitchablePooledProcessor<ByteBuffer> getRX(final int rxPort, final RXOptions options) throws IOException {
+	RXOptions opts = options;
+	if (eventLoop != null && options.eventLoop == null) {
+		opts = new RXOptions(options).eventLoop(eventLoop);
+	}
+	return track(new RXProcessor(remoteAddr, rxPort, opts));
+}
+
+/**
+ * @return snapshot of counters for every receiver created by this device and not finished yet,
+ * told apart by {@link RXMetrics#getAddress()}.
+ */
+public List<RXMetrics> getRXMetrics() {
+	List<RXMetrics> metrics = new ArrayList<>(receivers.size());
+	for (RXProcessor rx : receivers) {
+		metrics.add(rx.getMetrics());
+	}
+	return metrics;
+}
+
+/**
+ * Receiver is forgotten as soon as it finishes, so that its buffers can be collected.
+ */
+private RXProcessor track(final RXProcessor rx) {
+	receivers.add(rx);
+	rx.onFinish(new Runnable() {
+		@Override
+		public void run() {
+			receivers.remove(rx);
+		}
+	});
+	return rx;
 }
 
 @Override
-public ConfigInterface getConfigInterface(final int cmdPort) {
-	throw new UnsupportedOperationException();
+public Processor<ByteBuffer, ByteBuffer> getTX(final int txPort) throws IOException {
+	final TXProcessor tx = new TXProcessor(remoteAddr, txPort, TXProcessor.DEFAULT_JITTER_PACKETS);
+	transmitters.add(tx);
+	tx.onFinish(new Runnable() {
+		@Override
+		public void run() {
+			transmitters.remove(tx);
+		}
+	});
+	return tx;
+}
+
+/**
+ * @return snapshot of counters for every transmitter created by this device and not finished yet,
+ * told apart by {@link TXMetrics#getAddress()}.
+ */
+public List<TXMetrics> getTXMetrics() {
+	List<TXMetrics> metrics = new ArrayList<>(transmitters.size());
+	for (TXProcessor tx : transmitters) {
+		metrics.add(tx.getMetrics());
+	}
+	return metrics;
+}
+
+@Override
+public ConfigInterface getConfigInterface(final int cmdPort) throws IOException {
+	return getConfigInterface(cmdPort, ConfigInterface.DEFAULT_MIN_WRITE_INTERVAL,
+	                          ConfigInterface.DEFAULT_READBACK_INTERVAL, TimeUnit.NANOSECONDS);
+}
+
+/**
+ * @param minWriteInterval minimal time between two writes firmware copes with.
+ * @param readbackInterval how often device is asked for its configuration.
+ */
+public ConfigInterface getConfigInterface(final int cmdPort, final long minWriteInterval,
+                                          final long readbackInterval, final TimeUnit unit) throws IOException {
+	return new ConfigInterface(remoteAddr, cmdPort, eventLoop, minWriteInterval, readbackInterval, unit);
+}
+
+/**
+ * Scanner hops at most as often as {@link ConfigInterface#DEFAULT_MIN_WRITE_INTERVAL},
+ * {@link FrequencyScanner#DEFAULT_LEAD_PACKETS} before dwell ends.
+ *
+ * @param rx   receiver of this device to capture from.
+ * @param base settings other than RX frequency.
+ * @see FrequencyScanner#range(long, long, long)
+ */
+public FrequencyScanner getScanner(final SwitchablePooledProcessor<ByteBuffer> rx, final int cmdPort, final Config base,
+                                   final long[] frequencies, final int dwellPackets, final int settlePackets)
+		throws IOException {
+	return getScanner(rx, cmdPort, base, frequencies, dwellPackets, settlePackets,
+	                  Math.min(FrequencyScanner.DEFAULT_LEAD_PACKETS, dwellPackets - 1),
+	                  ConfigInterface.DEFAULT_MIN_WRITE_INTERVAL, TimeUnit.NANOSECONDS);
+}
+
+/**
+ * @param leadPackets    packets in flight from device to receiver, next hop is sent this many packets before
+ *                       dwell ends.
+ * @param minHopInterval minimal time between two hops, 0 to hop as fast as dwells complete.
+ */
+public FrequencyScanner getScanner(final SwitchablePooledProcessor<ByteBuffer> rx, final int cmdPort, final Config base,
+                                   final long[] frequencies, final int dwellPackets, final int settlePackets,
+                                   final int leadPackets, final long minHopInterval, final TimeUnit unit)
+		throws IOException {
+	return new FrequencyScanner(rx, remoteAddr, cmdPort, base, frequencies, dwellPackets, settlePackets,
+	                            leadPackets, minHopInterval, unit);
 }
 
 @Override
@@ -23,17 +23,24 @@ public interface DeviceControl extends Disposable {
  */
 SwitchablePooledProcessor<ByteBuffer> getRX(int rxPort) throws IOException;
 
+/**
+ * @param rxPort  UDP port for connection at HiQSDR device.
+ * @param options receiver tuning, see {@link RXOptions}.
+ * @return {@link SwitchablePooledProcessor} which emits sampled packets from HiQSDR.
+ */
+SwitchablePooledProcessor<ByteBuffer> getRX(int rxPort, RXOptions options) throws IOException;
+
 /**
  * @param txPort -- UDP port for connection at HiQSDR device.
  * @return {@link Processor} which consumes {@link ByteBuffer}s and returns used buffers to subscriber.
  */
-Processor<ByteBuffer, ByteBuffer> getTX(int txPort);
+Processor<ByteBuffer, ByteBuffer> getTX(int txPort) throws IOException;
 
 /**
  * @param cmdPort UDP port for connection at HiQSDR device.
  * @return {@link ConfigInterface} which observes {@link Config} updates from user
  * and notifies if receives Config from HiQSDR.
  */
-ConfigInterface getConfigInterface(int cmdPort);
+ConfigInterface getConfigInterface(int cmdPort) throws IOException;
 
 }
@@ -0,0 +1,330 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds devices answering {@link Protocol#REQUEST_CONFIG_CMD} among many addresses at once.
+ * <p>
+ * Every subscriber starts own round of probing on first request: probes are sent to all targets
+ * from one non-blocking channel, in bursts so other channels of the same {@link EventLoopGroup} aren't starved,
+ * and resent to silent targets a few times within timeout, as datagrams may get lost.
+ * Every device is emitted once, as soon as its answer arrives, and stream completes when timeout expires.
+ * Answers from addresses not probed directly, e.g. to broadcast probes, are accepted too.
+ */
+public final class DeviceDiscovery implements Publisher<DiscoveredDevice> {
+
+public static final int DEFAULT_ATTEMPTS = 3;
+static final int MAX_SENDS_PER_WAKEUP = 64;
+// when socket can't take more probes
+private static final long SEND_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+private final List<InetSocketAddress> targets;
+private final long timeoutNanos;
+private final int attempts;
+private final EventLoopGroup eventLoop;
+
+/**
+ * Serves probing with own thread, see {@link #DeviceDiscovery(Collection, long, TimeUnit, int, EventLoopGroup)}.
+ */
+public DeviceDiscovery(Collection<InetSocketAddress> targets, long timeout, TimeUnit unit) {
+	this(targets, timeout, unit, DEFAULT_ATTEMPTS, null);
+}
+
+/**
+ * @param targets   command ports to probe, see {@link #range(InetAddress, InetAddress, int)} and {@link #broadcast(int)}.
+ * @param timeout   time to wait for answers, counted from the first probe.
+ * @param attempts  number of probes sent to every silent target, evenly spread over timeout.
+ * @param eventLoop loops serving the channel, or {@code null} to serve it by own thread.
+ */
+public DeviceDiscovery(Collection<InetSocketAddress> targets, long timeout, TimeUnit unit, int attempts,
+                       EventLoopGroup eventLoop) {
+	if (targets.isEmpty()) {
+		throw new IllegalArgumentException("Nothing to probe.");
+	}
+	if (timeout <= 0 || attempts <= 0) {
+		throw new IllegalArgumentException("Timeout and attempts must be positive.");
+	}
+	this.targets = new ArrayList<>(targets);
+	timeoutNanos = unit.toNanos(timeout);
+	this.attempts = attempts;
+	this.eventLoop = eventLoop;
+}
+
+/**
+ * @return port on every IPv4 address from {@code first} to {@code last} inclusive.
+ */
+public static List<InetSocketAddress> range(InetAddress first, InetAddress last, int port) {
+	if (!(first instanceof Inet4Address) || !(last instanceof Inet4Address)) {
+		throw new IllegalArgumentException("Only IPv4 ranges are supported.");
+	}
+	final long from = toLong(first);
+	final long to = toLong(last);
+	if (to < from || to - from >= 1 << 16) {
+		throw new IllegalArgumentException("Range must be ascending and hold at most 65536 addresses.");
+	}
+	final List<InetSocketAddress> list = new ArrayList<>((int) (to - from + 1));
+	final byte[] bytes = new byte[4];
+	for (long a = from; a <= to; ++a) {
+		bytes[0] = (byte) (a >>> 24);
+		bytes[1] = (byte) (a >>> 16);
+		bytes[2] = (byte) (a >>> 8);
+		bytes[3] = (byte) a;
+		try {
+			list.add(new InetSocketAddress(InetAddress.getByAddress(bytes), port));
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e); // 4 bytes are always valid
+		}
+	}
+	return list;
+}
+
+/**
+ * @return port on limited broadcast address, reaching devices of local network.
+ */
+public static List<InetSocketAddress> broadcast(int port) {
+	return Collections.singletonList(new InetSocketAddress("255.255.255.255", port));
+}
+
+private static long toLong(final InetAddress address) {
+	final byte[] b = address.getAddress();
+	return (b[0] & 0xffL) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+}
+
+@Override
+public void subscribe(final Subscriber<? super DiscoveredDevice> s) {
+	s.onSubscribe(new Probe(s));
+}
+
+/**
+ * One round of probing, its channel is served by loop thread.
+ */
+private final class Probe implements Subscription, EventLoopGroup.Handler {
+	final Subscriber<? super DiscoveredDevice> subscriber;
+	final Queue<DiscoveredDevice> found = new ConcurrentLinkedQueue<>();
+	final AtomicLong demand = new AtomicLong();
+	final AtomicInteger wip = new AtomicInteger();
+	volatile boolean cancelled;
+	volatile boolean done;
+	Throwable terminal;
+	boolean signalled; // accessed by draining thread
+	private boolean started;
+	private DatagramChannel channel;
+	private EventLoopGroup ownLoop;
+
+	// owned by loop thread
+	final ByteBuffer request = Protocol.REQUEST_CONFIG_CMD.duplicate();
+	final ByteBuffer answer = ByteBuffer.allocate(Protocol.CFG_PACKET_SIZE + 1);
+	// time of the last probe sent to target, entries of answered targets hold -1
+	final Map<SocketAddress, Long> probed = new HashMap<>();
+	long begin;
+	long lastSent;
+	long deadline;
+	int attempt;
+	int nextTarget;
+
+	Probe(final Subscriber<? super DiscoveredDevice> subscriber) {
+		this.subscriber = subscriber;
+	}
+
+	@Override
+	public void request(final long n) {
+		if (n <= 0) {
+			return;
+		}
+		long current;
+		do {
+			current = demand.get();
+		} while (!demand.compareAndSet(current, RXDispatcher.addDemand(current, n)));
+		start();
+		drain();
+	}
+
+	@Override
+	public void cancel() {
+		cancelled = true;
+		close();
+	}
+
+	private synchronized void start() {
+		if (started || cancelled) {
+			return;
+		}
+		started = true;
+		try {
+			channel = DatagramChannel.open();
+			channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+			// every target may answer at once
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, Math.max(1 << 16, targets.size() * 64));
+			begin = System.nanoTime();
+			deadline = begin;
+			if (eventLoop == null) {
+				ownLoop = new EventLoopGroup(1, new NamedThreadFactory("hiqsdr-discovery"));
+			}
+			(eventLoop == null ? ownLoop : eventLoop).register(channel, this);
+		} catch (IOException e) {
+			finish(e);
+		}
+	}
+
+	private void finish(final Throwable error) {
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			terminal = error;
+			done = true;
+		}
+		close();
+		drain();
+	}
+
+	private synchronized void close() {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (ownLoop != null) {
+			ownLoop.close();
+		}
+	}
+
+	@Override
+	public void onReadable() throws IOException {
+		for (int i = 0; i < EventLoopGroup.MAX_READS_PER_WAKEUP; ++i) {
+			answer.clear();
+			final SocketAddress from = channel.receive(answer);
+			if (from == null) {
+				return;
+			}
+			final long now = System.nanoTime();
+			final Long sent = probed.get(from);
+			if (sent != null && sent < 0) {
+				continue; // answer to repeated probe
+			}
+			answer.flip();
+			final Config config;
+			try {
+				config = new Config(answer);
+			} catch (IllegalArgumentException e) {
+				continue; // not a configuration packet
+			}
+			probed.put(from, -1L);
+			found.offer(new DiscoveredDevice((InetSocketAddress) from, config, now - (sent != null ? sent : lastSent)));
+			drain();
+		}
+	}
+
+	@Override
+	public boolean hasDeadline() {
+		return true;
+	}
+
+	@Override
+	public long deadline() {
+		return deadline;
+	}
+
+	@Override
+	public void onDeadline(final long now) throws IOException {
+		if (now - begin - timeoutNanos >= 0) {
+			finish(null);
+			return;
+		}
+		if (nextTarget < targets.size()) {
+			for (int sends = 0; sends < MAX_SENDS_PER_WAKEUP && nextTarget < targets.size(); ++nextTarget) {
+				final InetSocketAddress target = targets.get(nextTarget);
+				final Long sent = probed.get(target);
+				if (sent != null && sent < 0) {
+					continue;
+				}
+				request.position(0);
+				if (channel.send(request, target) == 0) {
+					deadline = now + SEND_RETRY_NANOS;
+					return;
+				}
+				probed.put(target, now);
+				lastSent = now;
+				++sends;
+			}
+			if (nextTarget < targets.size()) {
+				deadline = now;
+				return;
+			}
+		}
+		final long nextAttempt = begin + timeoutNanos / attempts * (attempt + 1);
+		if (attempt + 1 < attempts && now - nextAttempt >= 0) {
+			++attempt;
+			nextTarget = 0;
+			deadline = now;
+		} else {
+			deadline = attempt + 1 < attempts ? nextAttempt : begin + timeoutNanos;
+		}
+	}
+
+	@Override
+	public void onError(final Throwable error) {
+		finish(error);
+	}
+
+	@Override
+	public void onClosed() {
+		if (!done && !cancelled) {
+			finish(new IOException("Event loop was closed."));
+		}
+	}
+
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			while (!cancelled && demand.get() > 0) {
+				final DiscoveredDevice device = found.poll();
+				if (device == null) {
+					break;
+				}
+				if (demand.get() != Long.MAX_VALUE) {
+					demand.decrementAndGet();
+				}
+				subscriber.onNext(device);
+			}
+			if (done && !signalled && !cancelled && found.isEmpty()) {
+				signalled = true;
+				if (terminal == null) {
+					subscriber.onComplete();
+				} else {
+					subscriber.onError(terminal);
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+}
+}
@@ -0,0 +1,450 @@
+package com.pavlus.hiqsdr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.pavlus.hiqsdr.Protocol.CFG_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.CMD_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_HEADER_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+
+/**
+ * HiQSDR stand-in for load and soak testing, speaking {@link Protocol} over local UDP ports.
+ * <p>
+ * Receiver port answers {@code rr} by streaming synthetic I/Q to whoever sent it and stops on {@code ss}.
+ * Command port answers {@code qq} with current configuration packet, accepts configuration packets
+ * and echoes them back; sample rate of stream follows configuration.
+ * Stream can run faster than real hardware and be impaired by packet loss, reordering and corruption
+ * (truncated datagrams). Settings may be changed while running.
+ * <p>
+ * Runs on own thread after {@link #start()}, or standalone, see {@link #main(String[])}.
+ */
+public final class DeviceEmulator implements Runnable, Closeable {
+
+public static final int DEFAULT_RX_PORT = 0xBC77;
+public static final int DEFAULT_CMD_PORT = 0xBC78;
+
+public enum Signal {
+	/**
+	 * Complex sine at offset from center frequency.
+	 */
+	TONE,
+	/**
+	 * Uniform white noise.
+	 */
+	NOISE,
+	/**
+	 * Complex sine sweeping from {@code -offset} to {@code +offset} once a second.
+	 */
+	CHIRP
+}
+
+private static final int TABLE_BITS = 12;
+private static final float[] SINE = new float[1 << TABLE_BITS];
+private static final int MAX_BURST = 64; // packets sent between checks for commands
+
+static {
+	for (int i = 0; i < SINE.length; ++i) {
+		SINE[i] = (float) Math.sin(2 * Math.PI * i / SINE.length);
+	}
+}
+
+private final DatagramChannel rxChannel;
+private final DatagramChannel cmdChannel;
+private final Selector selector;
+private final Config config = new Config();
+private final ByteBuffer configPacket = ByteBuffer.allocate(CFG_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+private final ByteBuffer command = ByteBuffer.allocate(CFG_PACKET_SIZE + 1);
+private final ByteBuffer packet = ByteBuffer.allocateDirect(RX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+private final ByteBuffer delayed = ByteBuffer.allocateDirect(RX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+private final Random random = new Random();
+private Thread thread;
+private volatile boolean closed;
+
+private volatile Signal signal = Signal.TONE;
+private volatile double offset = 10_000;
+private volatile double amplitude = 0.5;
+private volatile double noise = 0.01;
+private volatile double speed = 1;
+private volatile double loss;
+private volatile double reorder;
+private volatile double corruption;
+
+// streaming state, owned by emulator thread
+private SocketAddress target;
+private volatile int sampleRate;
+private long base;
+private long sent;
+private int sequence;
+private int phase;
+private int chirpStep;
+private boolean hasDelayed;
+private volatile boolean rebaseRequested;
+private volatile long sentPackets;
+
+/**
+ * Binds both ports on all interfaces, 0 picks free port.
+ */
+public DeviceEmulator(int rxPort, int cmdPort) throws IOException {
+	this(new InetSocketAddress(rxPort), new InetSocketAddress(cmdPort));
+}
+
+public DeviceEmulator(InetSocketAddress rxAddress, InetSocketAddress cmdAddress) throws IOException {
+	rxChannel = DatagramChannel.open().bind(rxAddress);
+	cmdChannel = DatagramChannel.open().bind(cmdAddress);
+	rxChannel.configureBlocking(false);
+	cmdChannel.configureBlocking(false);
+	selector = Selector.open();
+	rxChannel.register(selector, SelectionKey.OP_READ);
+	cmdChannel.register(selector, SelectionKey.OP_READ);
+	config.setSampleRate(Protocol.MIN_SAMPLE_RATE);
+	config.setRxFrequency(7_000_000);
+	config.writeOut(configPacket);
+	configPacket.flip();
+	sampleRate = config.getSampleRate();
+}
+
+public int getRxPort() {
+	return rxChannel.socket().getLocalPort();
+}
+
+public int getCmdPort() {
+	return cmdChannel.socket().getLocalPort();
+}
+
+public long getSentPackets() {
+	return sentPackets;
+}
+
+/**
+ * @param offset    tone frequency or half of chirp span, Hz.
+ * @param amplitude peak amplitude, 1 is full scale.
+ * @param noise     amplitude of noise added to tone and chirp.
+ */
+public DeviceEmulator signal(Signal signal, double offset, double amplitude, double noise) {
+	this.signal = signal;
+	this.offset = offset;
+	this.amplitude = amplitude;
+	this.noise = noise;
+	return this;
+}
+
+/**
+ * @param speed stream speed relative to configured sample rate, 0 for as fast as possible.
+ */
+public DeviceEmulator speed(double speed) {
+	if (speed < 0) {
+		throw new IllegalArgumentException("Speed must not be negative.");
+	}
+	this.speed = speed;
+	requestRebase();
+	return this;
+}
+
+/**
+ * Sets probabilities of packet being lost, swapped with the next one, or truncated.
+ */
+public DeviceEmulator impairments(double loss, double reorder, double corruption) {
+	this.loss = loss;
+	this.reorder = reorder;
+	this.corruption = corruption;
+	return this;
+}
+
+/**
+ * Changes stream rate as if configuration with specified rate was received.
+ *
+ * @throws IllegalArgumentException if rate is not one of {@link Protocol#getSupportedSampleRates()}.
+ */
+public synchronized DeviceEmulator sampleRate(int rate) {
+	config.setSampleRate(rate);
+	configPacket.clear();
+	config.writeOut(configPacket);
+	configPacket.flip();
+	sampleRate = rate;
+	requestRebase();
+	return this;
+}
+
+public synchronized DeviceEmulator start() {
+	if (thread == null) {
+		thread = new NamedThreadFactory("hiqsdr-emulator").newThread(this);
+		thread.start();
+	}
+	return this;
+}
+
+@Override
+public void close() throws IOException {
+	closed = true;
+	selector.wakeup();
+	Thread t = thread;
+	if (t != null && t != Thread.currentThread()) {
+		try {
+			t.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	selector.close();
+	rxChannel.close();
+	cmdChannel.close();
+}
+
+@Override
+public void run() {
+	try {
+		while (!closed) {
+			if (target == null) {
+				selector.select();
+			} else {
+				final long wait = nextDue() - System.nanoTime();
+				if (wait > 0) {
+					selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+				} else {
+					selector.selectNow();
+				}
+			}
+			handleCommands();
+			if (rebaseRequested) {
+				rebaseRequested = false;
+				rebase();
+			}
+			if (target != null) {
+				stream();
+			}
+		}
+	} catch (IOException e) {
+		if (!closed) {
+			e.printStackTrace();
+		}
+	}
+}
+
+private void handleCommands() throws IOException {
+	Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+	while (keys.hasNext()) {
+		SelectionKey key = keys.next();
+		keys.remove();
+		DatagramChannel channel = (DatagramChannel) key.channel();
+		SocketAddress from;
+		command.clear();
+		while ((from = channel.receive(command)) != null) {
+			command.flip();
+			if (channel == rxChannel) {
+				onRxCommand(from);
+			} else {
+				onConfigCommand(channel, from);
+			}
+			command.clear();
+		}
+	}
+}
+
+private void onRxCommand(final SocketAddress from) {
+	if (command.remaining() != CMD_PACKET_SIZE) {
+		return;
+	}
+	if (command.get(0) == 'r' && command.get(1) == 'r') {
+		target = from;
+		hasDelayed = false;
+		rebase();
+	} else if (command.get(0) == 's' && command.get(1) == 's') {
+		target = null;
+	}
+}
+
+private void onConfigCommand(final DatagramChannel channel, final SocketAddress from) throws IOException {
+	if (command.remaining() == CMD_PACKET_SIZE && command.get(0) == 'q' && command.get(1) == 'q') {
+		reply(channel, from);
+	} else if (command.remaining() == CFG_PACKET_SIZE) {
+		synchronized (this) {
+			try {
+				config.fillFromPacket(command.duplicate());
+			} catch (IllegalArgumentException e) {
+				return;
+			}
+			configPacket.clear();
+			configPacket.put(command);
+			configPacket.flip();
+			if (config.getSampleRate() != sampleRate) {
+				sampleRate = config.getSampleRate();
+				rebase();
+			}
+		}
+		reply(channel, from);
+	}
+}
+
+private synchronized void reply(final DatagramChannel channel, final SocketAddress to) throws IOException {
+	channel.send(configPacket.duplicate(), to);
+}
+
+private void requestRebase() {
+	rebaseRequested = true;
+	selector.wakeup();
+}
+
+private void rebase() {
+	base = System.nanoTime();
+	sent = 0;
+}
+
+private long nextDue() {
+	final double s = speed;
+	if (s == 0) {
+		return base;
+	}
+	return base + (long) (sent * RX_SAMPLES_PER_PACKET * 1e9 / sampleRate / s);
+}
+
+private void stream() throws IOException {
+	final long now = System.nanoTime();
+	for (int n = 0; n < MAX_BURST && nextDue() - now <= 0; ++n) {
+		fill(packet);
+		++sent;
+		final double dice = random.nextDouble();
+		if (dice < loss) {
+			continue;
+		}
+		if (dice < loss + corruption) {
+			packet.limit(RX_HEADER_SIZE + random.nextInt(RX_PACKET_SIZE - RX_HEADER_SIZE));
+			send(packet);
+			continue;
+		}
+		if (!hasDelayed && dice < loss + corruption + reorder) {
+			delayed.clear();
+			delayed.put(packet);
+			delayed.flip();
+			hasDelayed = true;
+			continue;
+		}
+		send(packet);
+		if (hasDelayed) {
+			hasDelayed = false;
+			send(delayed);
+		}
+	}
+}
+
+private void send(final ByteBuffer datagram) throws IOException {
+	datagram.rewind();
+	rxChannel.send(datagram, target);
+	++sentPackets;
+}
+
+private void fill(final ByteBuffer buffer) {
+	buffer.clear();
+	buffer.put((byte) sequence++);
+	buffer.put((byte) 0);
+	final Signal type = signal;
+	final float scale = (float) (amplitude * 0x7fffff);
+	final float noiseScale = (float) (2 * (type == Signal.NOISE ? amplitude : noise) * 0x7fffff);
+	final int rate = sampleRate;
+	final int step = (int) (offset / rate * 4294967296.0);
+	final int chirpDelta = (int) (2.0 * step / rate); // sweep across 2*offset in a second
+	final int shift = 32 - TABLE_BITS;
+	final int quarter = SINE.length / 4;
+	for (int i = 0; i < RX_SAMPLES_PER_PACKET; ++i) {
+		float re = 0;
+		float im = 0;
+		if (type != Signal.NOISE) {
+			final int index = phase >>> shift;
+			re = SINE[(index + quarter) & (SINE.length - 1)] * scale;
+			im = SINE[index] * scale;
+			if (type == Signal.CHIRP) {
+				chirpStep += chirpDelta;
+				if (chirpStep > step || chirpStep < -step) {
+					chirpStep = -step;
+				}
+				phase += chirpStep;
+			} else {
+				phase += step;
+			}
+		}
+		if (noiseScale != 0) {
+			re += (random.nextFloat() - 0.5f) * noiseScale;
+			im += (random.nextFloat() - 0.5f) * noiseScale;
+		}
+		put24(buffer, re);
+		put24(buffer, im);
+	}
+	buffer.flip();
+}
+
+private static void put24(final ByteBuffer buffer, final float value) {
+	final int v = Math.max(-0x800000, Math.min(0x7fffff, (int) value));
+	buffer.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+}
+
+/**
+ * Runs emulator until killed.
+ * <p>
+ * Arguments: {@code [--rx-port N] [--cmd-port N] [--signal tone|noise|chirp] [--offset Hz] [--rate R]
+ * [--speed X] [--loss P] [--reorder P] [--corrupt P]}.
+ */
+public static void main(String[] args) throws IOException, InterruptedException {
+	int rxPort = DEFAULT_RX_PORT;
+	int cmdPort = DEFAULT_CMD_PORT;
+	Signal signal = Signal.TONE;
+	double offset = 10_000;
+	int rate = Protocol.MIN_SAMPLE_RATE;
+	double speed = 1;
+	double loss = 0;
+	double reorder = 0;
+	double corrupt = 0;
+	for (int i = 0; i + 1 < args.length; i += 2) {
+		final String value = args[i + 1];
+		switch (args[i]) {
+			case "--rx-port":
+				rxPort = Integer.parseInt(value);
+				break;
+			case "--cmd-port":
+				cmdPort = Integer.parseInt(value);
+				break;
+			case "--signal":
+				signal = Signal.valueOf(value.toUpperCase());
+				break;
+			case "--offset":
+				offset = Double.parseDouble(value);
+				break;
+			case "--rate":
+				rate = Integer.parseInt(value);
+				break;
+			case "--speed":
+				speed = Double.parseDouble(value);
+				break;
+			case "--loss":
+				loss = Double.parseDouble(value);
+				break;
+			case "--reorder":
+				reorder = Double.parseDouble(value);
+				break;
+			case "--corrupt":
+				corrupt = Double.parseDouble(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+	}
+	DeviceEmulator emulator = new DeviceEmulator(rxPort, cmdPort)
+			.signal(signal, offset, 0.5, 0.01)
+			.sampleRate(rate)
+			.speed(speed)
+			.impairments(loss, reorder, corrupt)
+			.start();
+	System.out.println("HiQSDR emulator: rx port " + emulator.getRxPort() + ", command port " + emulator.getCmdPort());
+	emulator.thread.join();
+}
+}
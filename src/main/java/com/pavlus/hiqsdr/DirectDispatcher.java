@@ -0,0 +1,187 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls subscribers one by one on receiving thread.
+ * <p>
+ * Subscribers are kept in copy-on-write array, so it's safe to add and remove them while receiving.
+ * Every subscriber has own bounded queue, which receiving thread fills and which is drained on receiving thread
+ * while subscriber has demand, or on thread calling {@link Subscription#request(long)} when it catches up.
+ */
+final class DirectDispatcher extends RXDispatcher {
+
+private static final DirectSubscription[] EMPTY = new DirectSubscription[0];
+private static final long BLOCK_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+private volatile DirectSubscription[] subscriptions = EMPTY;
+
+DirectDispatcher(final BufferPool pool, final Runnable onDemand, final RXOptions.OverflowPolicy overflowPolicy,
+                 final int queueSize) {
+	super(pool, onDemand, overflowPolicy, queueSize);
+}
+
+@Override
+Subscription add(final Subscriber<? super ByteBuffer> subscriber) {
+	DirectSubscription s = new DirectSubscription(subscriber, overflowPolicy(subscriber), queueSize(subscriber));
+	synchronized (this) {
+		DirectSubscription[] current = subscriptions;
+		DirectSubscription[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = s;
+		subscriptions = updated;
+	}
+	return s;
+}
+
+@Override
+void publish(final ByteBuffer data, final long arrival) {
+	final DirectSubscription[] current = subscriptions;
+	pool.retain(data, current.length);
+	for (DirectSubscription s : current) {
+		s.offer(data, arrival);
+	}
+}
+
+@Override
+void terminate(final Throwable error) {
+	DirectSubscription[] current;
+	synchronized (this) {
+		current = subscriptions;
+		subscriptions = EMPTY;
+	}
+	for (DirectSubscription s : current) {
+		s.terminate(error);
+	}
+}
+
+@Override
+int size() {
+	return subscriptions.length;
+}
+
+@Override
+RXMetrics.SubscriberMetrics[] metrics() {
+	final DirectSubscription[] current = subscriptions;
+	final RXMetrics.SubscriberMetrics[] metrics = new RXMetrics.SubscriberMetrics[current.length];
+	for (int i = 0; i < current.length; ++i) {
+		final DirectSubscription s = current[i];
+		metrics[i] = new RXMetrics.SubscriberMetrics(s.subscriber, s.policy, s.queue.size(), s.dropped,
+		                                             s.latency.snapshot());
+	}
+	return metrics;
+}
+
+private synchronized void remove(final DirectSubscription s) {
+	DirectSubscription[] current = subscriptions;
+	for (int i = 0; i < current.length; ++i) {
+		if (current[i] == s) {
+			DirectSubscription[] updated = new DirectSubscription[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, i);
+			System.arraycopy(current, i + 1, updated, i, updated.length - i);
+			subscriptions = updated;
+			return;
+		}
+	}
+}
+
+private final class DirectSubscription implements Subscription {
+	final Subscriber<? super ByteBuffer> subscriber;
+	final RXOptions.OverflowPolicy policy;
+	final OverflowQueue queue;
+	final AtomicLong demand = new AtomicLong();
+	final AtomicInteger wip = new AtomicInteger();
+	final LatencyRecorder latency = new LatencyRecorder(); // written by draining thread
+	volatile long dropped; // written by receiving thread
+	volatile boolean cancelled;
+	volatile boolean done;
+	Throwable terminal;
+	boolean signalled; // accessed by draining thread
+
+	DirectSubscription(final Subscriber<? super ByteBuffer> subscriber, final RXOptions.OverflowPolicy policy,
+	                   final int queueSize) {
+		this.subscriber = subscriber;
+		this.policy = policy;
+		queue = new OverflowQueue(pool, queueSize);
+	}
+
+	/**
+	 * Takes over one reference of buffer.
+	 */
+	void offer(final ByteBuffer data, final long arrival) {
+		if (policy == RXOptions.OverflowPolicy.BLOCK) {
+			try {
+				while (!queue.awaitSpace(BLOCK_WAIT_NANOS) && !cancelled && !done) {
+					// subscriber is slower than receiver, keep it waiting
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		final int lost = queue.offer(data, arrival, policy);
+		if (lost > 0) {
+			dropped += lost;
+		}
+		drain();
+	}
+
+	void terminate(final Throwable error) {
+		terminal = error;
+		done = true;
+		drain();
+	}
+
+	@Override
+	public void request(final long n) {
+		if (n <= 0) {
+			return;
+		}
+		long current;
+		do {
+			current = demand.get();
+		} while (!demand.compareAndSet(current, addDemand(current, n)));
+		drain();
+		demanded();
+	}
+
+	@Override
+	public void cancel() {
+		cancelled = true;
+		remove(this);
+		queue.close();
+	}
+
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			while (!cancelled && demand.get() > 0) {
+				final ByteBuffer data = queue.poll();
+				if (data == null) {
+					break;
+				}
+				final long arrival = queue.polledArrival();
+				if (demand.get() != Long.MAX_VALUE) {
+					demand.decrementAndGet();
+				}
+				subscriber.onNext(data);
+				latency.record(System.nanoTime() - arrival);
+			}
+			if (done && !signalled && !cancelled && queue.size() == 0) {
+				signalled = true;
+				// packets offered by publish running concurrently with terminate go straight back to the pool
+				queue.close();
+				signal(subscriber, terminal);
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+}
+}
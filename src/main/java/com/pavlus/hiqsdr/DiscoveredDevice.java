@@ -0,0 +1,57 @@
+package com.pavlus.hiqsdr;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Device which answered probe of {@link DeviceDiscovery}.
+ */
+public final class DiscoveredDevice {
+
+private final InetSocketAddress address;
+private final Config config;
+private final long latencyNanos;
+
+DiscoveredDevice(InetSocketAddress address, Config config, long latencyNanos) {
+	this.address = address;
+	this.config = config;
+	this.latencyNanos = latencyNanos;
+}
+
+/**
+ * @return address and command port device answered from.
+ */
+public InetSocketAddress getAddress() {
+	return address;
+}
+
+/**
+ * @return configuration device reported, owned by caller.
+ */
+public Config getConfig() {
+	return config;
+}
+
+public byte getFirmwareVersion() {
+	return config.getFirmwareVersion();
+}
+
+/**
+ * @return time from the last probe sent to device until its answer arrived.
+ */
+public long getLatency(TimeUnit unit) {
+	return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+}
+
+/**
+ * @param eventLoop loops shared by devices to serve their channels, or {@code null} for thread per receiver.
+ */
+public Device createDevice(EventLoopGroup eventLoop) {
+	return new Device(address.getAddress(), eventLoop);
+}
+
+@Override
+public String toString() {
+	return address + " fw " + config.getFirmwareVersion() + ", " + latencyNanos / 1000 + " us";
+}
+}
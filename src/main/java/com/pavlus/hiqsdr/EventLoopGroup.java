@@ -0,0 +1,252 @@
+package com.pavlus.hiqsdr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed set of selector threads serving channels of many devices.
+ * <p>
+ * Each channel is bound to the loop which had the fewest channels at registration and stays there,
+ * so handler is always called from the same thread. Loop reads a limited number of datagrams
+ * from a channel per wakeup, so one busy receiver can't starve others on the same loop.
+ * <p>
+ * Pass group to {@link RXOptions#eventLoop(EventLoopGroup)} or {@link Device#Device(java.net.InetAddress, EventLoopGroup)}.
+ */
+public final class EventLoopGroup implements Closeable {
+
+/**
+ * Callbacks of registered channel, all called on its loop thread.
+ */
+interface Handler {
+	/**
+	 * Channel has datagrams to read, handler should read at most {@link #MAX_READS_PER_WAKEUP} of them.
+	 */
+	void onReadable() throws IOException;
+
+	/**
+	 * @return whether handler waits for {@link #deadline()}.
+	 */
+	boolean hasDeadline();
+
+	/**
+	 * @return {@link System#nanoTime()} when {@link #onDeadline(long)} should be called.
+	 */
+	long deadline();
+
+	void onDeadline(long now) throws IOException;
+
+	/**
+	 * Handler threw, channel will be forgotten.
+	 */
+	void onError(Throwable error);
+
+	/**
+	 * Channel was closed and is not served anymore.
+	 */
+	void onClosed();
+}
+
+/**
+ * Loop channel was bound to.
+ */
+interface Registration {
+	/**
+	 * Makes loop reconsider deadlines of its handlers, e.g. after other thread gave handler some work.
+	 */
+	void wakeup();
+}
+
+static final int MAX_READS_PER_WAKEUP = 64;
+
+private final Loop[] loops;
+private volatile boolean closed;
+
+/**
+ * @param threads number of loop threads, a couple is enough for dozens of receivers.
+ */
+public EventLoopGroup(int threads) throws IOException {
+	this(threads, new NamedThreadFactory("hiqsdr-loop"));
+}
+
+public EventLoopGroup(int threads, ThreadFactory threadFactory) throws IOException {
+	if (threads <= 0) {
+		throw new IllegalArgumentException("Event loop group needs at least one thread.");
+	}
+	loops = new Loop[threads];
+	for (int i = 0; i < threads; ++i) {
+		loops[i] = new Loop();
+	}
+	for (Loop loop : loops) {
+		threadFactory.newThread(loop).start();
+	}
+}
+
+/**
+ * @return number of channels served by all loops.
+ */
+public int getChannelCount() {
+	int count = 0;
+	for (Loop loop : loops) {
+		count += loop.load;
+	}
+	return count;
+}
+
+/**
+ * Stops all loops, handlers of channels still registered get {@link Handler#onClosed()}.
+ */
+@Override
+public void close() {
+	closed = true;
+	for (Loop loop : loops) {
+		loop.selector.wakeup();
+	}
+}
+
+/**
+ * Binds non-blocking channel to least loaded loop.
+ */
+Registration register(final SelectableChannel channel, final Handler handler) throws IOException {
+	if (closed) {
+		throw new IOException("Event loop group is closed.");
+	}
+	channel.configureBlocking(false);
+	Loop target = loops[0];
+	for (Loop loop : loops) {
+		if (loop.load < target.load) {
+			target = loop;
+		}
+	}
+	target.register(channel, handler);
+	return target;
+}
+
+private final class Loop implements Runnable, Registration {
+	final Selector selector;
+	final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	// owned by loop thread
+	final List<SelectionKey> keys = new ArrayList<>();
+	volatile int load;
+
+	Loop() throws IOException {
+		selector = Selector.open();
+	}
+
+	void register(final SelectableChannel channel, final Handler handler) {
+		synchronized (this) {
+			++load;
+		}
+		tasks.offer(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					keys.add(channel.register(selector, SelectionKey.OP_READ, handler));
+				} catch (ClosedChannelException e) {
+					synchronized (Loop.this) {
+						--load;
+					}
+					handler.onClosed();
+				}
+			}
+		});
+		selector.wakeup();
+	}
+
+	@Override
+	public void wakeup() {
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!closed) {
+				select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+				while (selected.hasNext()) {
+					SelectionKey key = selected.next();
+					selected.remove();
+					if (key.isValid()) {
+						Handler handler = (Handler) key.attachment();
+						try {
+							handler.onReadable();
+						} catch (Throwable e) {
+							key.cancel();
+							handler.onError(e);
+						}
+					}
+				}
+				final long now = System.nanoTime();
+				for (int i = keys.size() - 1; i >= 0; --i) {
+					SelectionKey key = keys.get(i);
+					Handler handler = (Handler) key.attachment();
+					if (!key.isValid()) {
+						forget(i);
+					} else if (handler.hasDeadline() && handler.deadline() - now <= 0) {
+						try {
+							handler.onDeadline(now);
+						} catch (Throwable e) {
+							key.cancel();
+							handler.onError(e);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (int i = keys.size() - 1; i >= 0; --i) {
+				keys.get(i).cancel();
+				forget(i);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void select() throws IOException {
+		long wait = Long.MAX_VALUE;
+		final long now = System.nanoTime();
+		for (SelectionKey key : keys) {
+			Handler handler = (Handler) key.attachment();
+			if (handler.hasDeadline()) {
+				wait = Math.min(wait, handler.deadline() - now);
+			}
+		}
+		if (!tasks.isEmpty() || wait <= 0) {
+			selector.selectNow();
+		} else if (wait == Long.MAX_VALUE) {
+			selector.select();
+		} else {
+			// round up, select(0) would wait forever
+			selector.select(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+		}
+	}
+
+	private void forget(final int index) {
+		Handler handler = (Handler) keys.remove(index).attachment();
+		synchronized (this) {
+			--load;
+		}
+		handler.onClosed();
+	}
+}
+}
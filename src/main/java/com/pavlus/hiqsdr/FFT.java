@@ -0,0 +1,89 @@
+package com.pavlus.hiqsdr;
+
+/**
+ * In-place radix-2 complex FFT over interleaved re, im floats.
+ * <p>
+ * Twiddle factors and bit-reversal permutation are computed once per size,
+ * instance holds no mutable state, so it can be shared by threads. Transforms are not normalized.
+ */
+final class FFT {
+
+private final int size;
+private final int[] reversed;
+private final float[] cos;
+private final float[] sin;
+
+/**
+ * @param size number of complex points, power of two.
+ */
+FFT(final int size) {
+	if (size < 2 || Integer.bitCount(size) != 1) {
+		throw new IllegalArgumentException("FFT size must be power of two, but " + size + " specified.");
+	}
+	this.size = size;
+	reversed = new int[size];
+	final int bits = Integer.numberOfTrailingZeros(size);
+	for (int i = 0; i < size; ++i) {
+		reversed[i] = Integer.reverse(i) >>> (32 - bits);
+	}
+	cos = new float[size / 2];
+	sin = new float[size / 2];
+	for (int i = 0; i < size / 2; ++i) {
+		final double angle = 2 * Math.PI * i / size;
+		cos[i] = (float) Math.cos(angle);
+		sin[i] = (float) Math.sin(angle);
+	}
+}
+
+int size() {
+	return size;
+}
+
+/**
+ * X[k] = sum x[n] e^(-j 2 pi k n / N)
+ *
+ * @param data {@code 2 * size} interleaved values.
+ */
+void forward(final float[] data) {
+	transform(data, -1);
+}
+
+/**
+ * x[n] = sum X[k] e^(+j 2 pi k n / N), without 1/N.
+ *
+ * @param data {@code 2 * size} interleaved values.
+ */
+void inverse(final float[] data) {
+	transform(data, 1);
+}
+
+private void transform(final float[] data, final int sign) {
+	for (int i = 0; i < size; ++i) {
+		final int j = reversed[i];
+		if (j > i) {
+			float t = data[2 * i];
+			data[2 * i] = data[2 * j];
+			data[2 * j] = t;
+			t = data[2 * i + 1];
+			data[2 * i + 1] = data[2 * j + 1];
+			data[2 * j + 1] = t;
+		}
+	}
+	for (int half = 1, stride = size / 2; half < size; half <<= 1, stride >>= 1) {
+		for (int start = 0; start < size; start += half << 1) {
+			for (int k = 0, t = 0; k < half; ++k, t += stride) {
+				final float wr = cos[t];
+				final float wi = sign * sin[t];
+				final int a = 2 * (start + k);
+				final int b = a + 2 * half;
+				final float br = data[b] * wr - data[b + 1] * wi;
+				final float bi = data[b] * wi + data[b + 1] * wr;
+				data[b] = data[a] - br;
+				data[b + 1] = data[a + 1] - bi;
+				data[a] += br;
+				data[a + 1] += bi;
+			}
+		}
+	}
+}
+}
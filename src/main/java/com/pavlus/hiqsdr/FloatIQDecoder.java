@@ -0,0 +1,45 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * {@link IQDecoder} emitting interleaved I, Q values scaled to [-1, 1).
+ */
+public final class FloatIQDecoder extends IQDecoder<FloatBuffer> {
+
+private static final float SCALE = 1f / (1 << 23);
+private final float[][] arrays;
+private final FloatBuffer[] blocks;
+
+public FloatIQDecoder(SwitchablePooledProcessor<ByteBuffer> source) {
+	this(source, DEFAULT_POOL_SIZE);
+}
+
+public FloatIQDecoder(SwitchablePooledProcessor<ByteBuffer> source, int poolSize) {
+	super(source, poolSize);
+	arrays = new float[poolSize][];
+	blocks = new FloatBuffer[poolSize];
+}
+
+@Override
+protected FloatBuffer decode(final ByteBuffer block, final int packets, final boolean bigEndian, final int slot) {
+	final int values = packets * VALUES_PER_PACKET;
+	float[] out = arrays[slot];
+	if (out == null || out.length < values) {
+		out = arrays[slot] = new float[values];
+		blocks[slot] = FloatBuffer.wrap(out);
+	}
+	int o = 0;
+	for (int p = 0; p < packets; ++p) {
+		int index = firstWord(p);
+		for (int i = 0; i < VALUES_PER_PACKET; ++i, index += 3) {
+			out[o++] = (word(block, index, bigEndian) >> 8) * SCALE;
+		}
+	}
+	FloatBuffer result = blocks[slot];
+	result.clear();
+	result.limit(values);
+	return result;
+}
+}
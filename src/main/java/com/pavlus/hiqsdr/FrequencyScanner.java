@@ -0,0 +1,287 @@
+package com.pavlus.hiqsdr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+
+/**
+ * Stage which sweeps receiver over list of frequencies and emits {@link Dwell}s captured at each of them.
+ * <p>
+ * Configuration packet of every step is built from base {@link Config} when scanner is created,
+ * so hop is a single write of prepared datagram to command port, done by receiving thread without waiting
+ * for device to confirm it. Next hop is sent {@code leadPackets} before current dwell ends: packets arriving
+ * after that were sampled before retune reached device, they're still in flight and complete current dwell.
+ * First {@code settlePackets} packets after dwell were sampled while synthesizer settled,
+ * they're dropped before capture starts.
+ * <p>
+ * Hops are spaced by at least minimal interval. When hop has to wait for it, current dwell completes without it,
+ * and packets arriving until hop is sent, as well as lead and settle packets following it, are dropped too.
+ * Scanner owns command port while it runs, {@link ConfigInterface} writes would be overridden by next hop.
+ * Sweeping continues round and round until {@link #close()}.
+ */
+public final class FrequencyScanner extends PooledStage<ByteBuffer, FrequencyScanner.Dwell> implements Closeable {
+
+/**
+ * Packets captured at one frequency.
+ * <p>
+ * Dwell is owned by scanner and is refilled once next dwell completes, so subscriber has to copy data it keeps longer.
+ */
+public static final class Dwell {
+	private final ByteBuffer block;
+	private long frequency;
+	private int step;
+	private long sweep;
+	private long tunedAt;
+
+	Dwell(final int packets) {
+		block = ByteBuffer.allocateDirect(packets * RX_PACKET_SIZE);
+	}
+
+	void start(final long frequency, final int step, final long sweep, final long tunedAt) {
+		this.frequency = frequency;
+		this.step = step;
+		this.sweep = sweep;
+		this.tunedAt = tunedAt;
+		block.clear();
+	}
+
+	/**
+	 * @return frequency receiver was tuned to, in Hz, after rounding to tuning step of device.
+	 */
+	public long getFrequency() {
+		return frequency;
+	}
+
+	/**
+	 * @return index of frequency in scan list.
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * @return number of full passes over scan list done before this dwell.
+	 */
+	public long getSweep() {
+		return sweep;
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} when retune was sent.
+	 */
+	public long getTunedAt() {
+		return tunedAt;
+	}
+
+	/**
+	 * @return captured packets in {@link RXBlock} layout, don't modify it.
+	 */
+	public ByteBuffer getBlock() {
+		return block;
+	}
+
+	@Override
+	public String toString() {
+		return "Dwell{frequency=" + frequency + ", step=" + step + ", sweep=" + sweep
+		       + ", packets=" + RXBlock.packetCount(block) + '}';
+	}
+}
+
+/**
+ * Packets in flight from device to receiver assumed by {@link Device#getScanner(SwitchablePooledProcessor, int, Config,
+ * long[], int, int)}.
+ */
+public static final int DEFAULT_LEAD_PACKETS = 1;
+
+private final DatagramChannel channel;
+private final long[] frequencies;
+private final ByteBuffer[] packets;
+private final int settlePackets;
+private final int leadBytes;
+private final int leadPackets;
+private final long minHopInterval;
+
+// owned by receiving thread
+private Dwell capturing;
+private Dwell ready;
+private int step = -1;
+private long sweep = -1;
+private boolean hopPending = true; // capture waits for hop
+private boolean retuned; // hop for next dwell was sent while capturing current one
+private long tunedAt;
+private int settleLeft;
+private long nextHop = System.nanoTime();
+
+private volatile long hops;
+private volatile long sweeps;
+private volatile long discarded;
+
+/**
+ * @param source         receiver to capture from.
+ * @param base           settings other than RX frequency, e.g. sample rate, taken once.
+ * @param frequencies    frequencies to visit in order, see {@link #range(long, long, long)}.
+ * @param dwellPackets   packets captured at each frequency.
+ * @param settlePackets  packets dropped after each dwell.
+ * @param leadPackets    packets before end of dwell to send next hop at, less than {@code dwellPackets}.
+ * @param minHopInterval minimal time between two hops, 0 to hop as fast as dwells complete.
+ */
+FrequencyScanner(final SwitchablePooledProcessor<ByteBuffer> source, final InetAddress address, final int cmdPort,
+                 final Config base, final long[] frequencies, final int dwellPackets, final int settlePackets,
+                 final int leadPackets, final long minHopInterval, final TimeUnit unit) throws IOException {
+	super(source);
+	if (frequencies.length == 0) {
+		throw new IllegalArgumentException("Nothing to scan.");
+	}
+	if (dwellPackets <= 0 || settlePackets < 0 || minHopInterval < 0) {
+		throw new IllegalArgumentException("Dwell must be positive, settle and hop interval non-negative.");
+	}
+	if (leadPackets < 0 || leadPackets >= dwellPackets) {
+		throw new IllegalArgumentException("Lead must be non-negative and shorter than dwell.");
+	}
+	this.frequencies = frequencies.clone();
+	this.settlePackets = settlePackets;
+	this.leadPackets = leadPackets;
+	leadBytes = leadPackets * RX_PACKET_SIZE;
+	this.minHopInterval = unit.toNanos(minHopInterval);
+	final ConfigSnapshot snapshot = base.snapshot();
+	packets = new ByteBuffer[this.frequencies.length];
+	for (int i = 0; i < packets.length; ++i) {
+		final long f = this.frequencies[i];
+		if (f < Protocol.MIN_FREQUENCY || f > Protocol.MAX_FREQUENCY) {
+			throw new IllegalArgumentException("Frequency " + f + " is out of range.");
+		}
+		packets[i] = ByteBuffer.allocateDirect(Protocol.CFG_PACKET_SIZE);
+		snapshot.toBuilder().rxFrequency(f).build().writeTo(packets[i]);
+		packets[i].flip();
+		this.frequencies[i] = Protocol.tunePhaseToFrequency(Protocol.frequencyToTunePhase(f));
+	}
+	capturing = new Dwell(dwellPackets);
+	ready = new Dwell(dwellPackets);
+	channel = DatagramChannel.open();
+	channel.connect(new InetSocketAddress(address, cmdPort));
+}
+
+/**
+ * @return frequencies from {@code start} to {@code stop} inclusive, {@code step} apart.
+ */
+public static long[] range(final long start, final long stop, final long step) {
+	if (step <= 0 || stop < start) {
+		throw new IllegalArgumentException("Range must be ascending with positive step.");
+	}
+	final long count = (stop - start) / step + 1;
+	if (count > Integer.MAX_VALUE) {
+		throw new IllegalArgumentException("Range is too long.");
+	}
+	final long[] range = new long[(int) count];
+	for (int i = 0; i < range.length; ++i) {
+		range[i] = start + i * step;
+	}
+	return range;
+}
+
+public long getHops() {
+	return hops;
+}
+
+/**
+ * @return completed passes over scan list.
+ */
+public long getSweeps() {
+	return sweeps;
+}
+
+/**
+ * @return packets dropped while settling or waiting for hop.
+ */
+public long getDiscarded() {
+	return discarded;
+}
+
+@Override
+protected void process(final ByteBuffer block) {
+	final int count = RXBlock.packetCount(block);
+	for (int i = 0; i < count; ++i) {
+		if ((hopPending && !hop()) || settleLeft > 0) {
+			if (!hopPending) {
+				--settleLeft;
+			}
+			++discarded;
+			continue;
+		}
+		final ByteBuffer dwell = capturing.block;
+		final int pos = dwell.position();
+		Buffers.copy(block, RXBlock.packetOffset(i), dwell, pos, RX_PACKET_SIZE);
+		dwell.position(pos + RX_PACKET_SIZE);
+		if (!retuned && dwell.remaining() <= leadBytes) {
+			hop(); // next retune is on its way while the rest of this dwell is in flight
+		}
+		if (!dwell.hasRemaining()) {
+			final Dwell complete = capturing;
+			capturing = ready;
+			ready = complete;
+			complete.block.flip();
+			if (retuned) {
+				retuned = false;
+				capturing.start(frequencies[step], step, sweep, tunedAt);
+				settleLeft = settlePackets;
+			} else {
+				hopPending = true;
+			}
+			emit(complete);
+		}
+	}
+}
+
+/**
+ * Sends retune to next frequency, capture of it starts once current dwell completes
+ * or, if capture waits for hop, after lead and settle packets.
+ *
+ * @return whether hop was sent, false if it has to wait for minimal interval.
+ */
+private boolean hop() {
+	final long now = System.nanoTime();
+	if (now - nextHop < 0) {
+		return false;
+	}
+	int next = step + 1;
+	if (next == frequencies.length) {
+		next = 0;
+	}
+	final ByteBuffer packet = packets[next];
+	packet.rewind();
+	try {
+		channel.write(packet);
+	} catch (IOException e) {
+		onError(e);
+		return false;
+	}
+	if (next == 0 && ++sweep > 0) {
+		++sweeps;
+	}
+	step = next;
+	++hops;
+	tunedAt = now;
+	nextHop = now + minHopInterval;
+	if (hopPending) {
+		hopPending = false;
+		settleLeft = leadPackets + settlePackets;
+		capturing.start(frequencies[next], next, sweep, now);
+	} else {
+		retuned = true;
+	}
+	return true;
+}
+
+@Override
+public void close() throws IOException {
+	disconnect();
+	channel.close();
+	onComplete();
+}
+}
@@ -0,0 +1,231 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.pavlus.hiqsdr.Protocol.RX_HEADER_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_PAYLOAD_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static com.pavlus.hiqsdr.Protocol.RX_SEQUENCE_OFFSET;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_OFFSET;
+
+/**
+ * Subscriber keeping the last seconds of received packets, so data preceding an event can be saved
+ * once the event is detected downstream.
+ * <p>
+ * Payloads are copied into one direct buffer allocated up front and used as circular history,
+ * a quarter longer than requested so capture of the oldest packets isn't overtaken by receiver right away,
+ * headers are kept aside, and every buffer is returned to its source right after the copy,
+ * so nothing is allocated while receiving.
+ * {@link #trigger(double, double)} snapshots window around the current moment into {@link HistoryCapture},
+ * which replays it to its own subscribers without disturbing live stream; captures may overlap freely.
+ * Capture follows history as it's written, so post-trigger part may be of any length
+ * as long as capture's subscribers keep up with receiver.
+ */
+public final class HistoryBuffer implements Subscriber<ByteBuffer>, Closeable {
+
+// part of ring never offered to new triggers, so capture starting at the oldest packet
+// has time to get going before it's overwritten
+private static final int MIN_SLACK_PACKETS = 64;
+private static final int SLACK_FRACTION = 4;
+// file captures are written in blocks of this many packets
+private static final int FILE_BATCH_PACKETS = 64;
+
+private final SwitchablePooledProcessor<ByteBuffer> source;
+private final Config config;
+private final int capacity;
+private final int historyPackets;
+private final ByteBuffer payloads;
+private final byte[] sequences;
+private final byte[] statuses;
+private volatile long written; // packets stored so far, written by receiving thread only
+// packets receiving thread started to store, bumped before slot is overwritten
+private final AtomicLong claimed = new AtomicLong();
+// written by readers between copy and check, so reads of copy can't be moved past the check
+private volatile long copyFence;
+private volatile Subscription subscription;
+private volatile boolean closed;
+
+/**
+ * @param source  receiver to keep history of.
+ * @param config  configuration of receiver, its sample rate determines how many packets make {@code seconds}.
+ * @param seconds length of history.
+ * @throws IllegalArgumentException if history doesn't fit into 2 GiB.
+ */
+public HistoryBuffer(SwitchablePooledProcessor<ByteBuffer> source, Config config, double seconds) {
+	if (!(seconds > 0)) {
+		throw new IllegalArgumentException("History length must be positive.");
+	}
+	final long packets = (long) Math.ceil(seconds * config.getSampleRate() / RX_SAMPLES_PER_PACKET);
+	final long slack = Math.max(MIN_SLACK_PACKETS, packets / SLACK_FRACTION);
+	if ((packets + slack) * RX_PAYLOAD_SIZE > Integer.MAX_VALUE) {
+		throw new IllegalArgumentException("History of " + seconds + " s doesn't fit into 2 GiB.");
+	}
+	this.source = source;
+	this.config = config;
+	historyPackets = (int) packets;
+	capacity = (int) (packets + slack);
+	payloads = ByteBuffer.allocateDirect(capacity * RX_PAYLOAD_SIZE);
+	sequences = new byte[capacity];
+	statuses = new byte[capacity];
+}
+
+/**
+ * Subscribes to the source.
+ */
+public HistoryBuffer start() {
+	source.subscribe(this);
+	return this;
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	subscription = s;
+	s.request(Long.MAX_VALUE);
+}
+
+@Override
+public void onNext(final ByteBuffer block) {
+	try {
+		if (!closed) {
+			store(block);
+		}
+	} finally {
+		source.onNext(block);
+	}
+}
+
+@Override
+public void onError(final Throwable t) {
+	closed = true;
+}
+
+@Override
+public void onComplete() {
+	closed = true;
+}
+
+/**
+ * Stops keeping history, running captures finish with what was stored so far.
+ */
+@Override
+public void close() throws IOException {
+	closed = true;
+	final Subscription s = subscription;
+	if (s != null) {
+		s.cancel();
+	}
+}
+
+/**
+ * @return packets history holds when it's full.
+ */
+public int getHistoryPackets() {
+	return historyPackets;
+}
+
+/**
+ * @return packets stored since start.
+ */
+public long getStoredPackets() {
+	return written;
+}
+
+/**
+ * Captures window from {@code preSeconds} before now to {@code postSeconds} after it,
+ * delivered without dropping packets while history allows it.
+ */
+public HistoryCapture trigger(double preSeconds, double postSeconds) {
+	return trigger(preSeconds, postSeconds, new RXOptions().overflow(RXOptions.OverflowPolicy.BLOCK, 0));
+}
+
+/**
+ * Captures window from {@code preSeconds} before now to {@code postSeconds} after it.
+ * Pre-trigger part is limited by available history.
+ *
+ * @param options pool, dispatch and batching of capture, like for receiver.
+ */
+public HistoryCapture trigger(double preSeconds, double postSeconds, RXOptions options) {
+	if (preSeconds < 0 || postSeconds < 0) {
+		throw new IllegalArgumentException("Window bounds must not be negative.");
+	}
+	final double packetsPerSecond = config.getSampleRate() / (double) RX_SAMPLES_PER_PACKET;
+	final long now = written;
+	final long pre = Math.min((long) Math.ceil(preSeconds * packetsPerSecond), Math.min(now, historyPackets));
+	final long post = (long) Math.ceil(postSeconds * packetsPerSecond);
+	return new HistoryCapture(this, now - pre, now + post, options);
+}
+
+/**
+ * Captures window like {@link #trigger(double, double)} and records it with {@link IQRecorder},
+ * so it can be played by {@link ReplayProcessor}. Recording is complete once capture {@link HistoryCapture#isDone() is done}.
+ *
+ * @param directory where segment is created.
+ * @param name      prefix of segment files.
+ */
+public HistoryCapture trigger(double preSeconds, double postSeconds, File directory, String name) {
+	final HistoryCapture capture = trigger(preSeconds, postSeconds, new RXOptions()
+			.batch(FILE_BATCH_PACKETS, 0, TimeUnit.NANOSECONDS)
+			.overflow(RXOptions.OverflowPolicy.BLOCK, 0));
+	final long bytes = Math.max(1, capture.getPackets()) * RX_PAYLOAD_SIZE;
+	new IQRecorder(capture, directory, name, config, Math.min(bytes, Integer.MAX_VALUE), 0, TimeUnit.SECONDS).start();
+	return capture;
+}
+
+private void store(final ByteBuffer block) {
+	final int packets = RXBlock.packetCount(block);
+	long w = written;
+	for (int p = 0; p < packets; ++p, ++w) {
+		final int slot = (int) (w % capacity);
+		final int header = RXBlock.packetOffset(p);
+		// read-modify-write keeps stores to slot after the claim
+		claimed.incrementAndGet();
+		sequences[slot] = block.get(header + RX_SEQUENCE_OFFSET);
+		statuses[slot] = block.get(header + RX_STATUS_OFFSET);
+		Buffers.copy(block, RXBlock.payloadOffset(p), payloads, slot * RX_PAYLOAD_SIZE, RX_PAYLOAD_SIZE);
+		written = w + 1;
+	}
+}
+
+long written() {
+	return written;
+}
+
+boolean isClosed() {
+	return closed;
+}
+
+/**
+ * @return the oldest packet which can still be copied safely.
+ */
+long oldest() {
+	return Math.max(0, written - capacity + 1);
+}
+
+/**
+ * Copies packet with header into {@code dst} at {@code index}. Copy may be torn by receiving thread
+ * overwriting the slot meanwhile, so it's valid only if {@link #intact(long)} holds afterwards.
+ */
+void copy(final long packet, final ByteBuffer dst, final int index) {
+	final int slot = (int) (packet % capacity);
+	dst.put(index + RX_SEQUENCE_OFFSET, sequences[slot]);
+	dst.put(index + RX_STATUS_OFFSET, statuses[slot]);
+	Buffers.copy(payloads, slot * RX_PAYLOAD_SIZE, dst, index + RX_HEADER_SIZE, RX_PAYLOAD_SIZE);
+}
+
+/**
+ * @return false if receiving thread may have started to overwrite the packet.
+ */
+boolean intact(final long packet) {
+	copyFence = packet;
+	// slot of packet is reused by packet + capacity, which is claimed before it's written
+	return claimed.get() - packet <= capacity;
+}
+}
@@ -0,0 +1,245 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+
+/**
+ * Window of {@link HistoryBuffer} triggered at some moment, emitted as blocks shaped exactly like receiver does,
+ * with original headers, so gaps and filled packets are seen downstream as they were received.
+ * <p>
+ * Emission starts when first subscriber requests data and runs as fast as subscribers return buffers,
+ * waiting for packets after trigger as they arrive. If capture falls behind by whole history,
+ * overwritten packets are skipped and counted in {@link #getOverwrittenPackets()}.
+ * {@link #switchOff()} pauses emission, {@link #switchOn()} resumes it.
+ */
+public final class HistoryCapture implements SwitchablePooledProcessor<ByteBuffer>, Runnable, Closeable {
+
+private static final long POOL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+private final HistoryBuffer history;
+private final long first;
+private final long end;
+private final BufferPool pool;
+private final RXDispatcher dispatcher;
+private final Collection<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+private final int batchSize;
+private final CountDownLatch finished = new CountDownLatch(1);
+private volatile boolean paused;
+private volatile boolean done;
+private Disposable scheduledWorker;
+private volatile long emittedPackets;
+private volatile long overwrittenPackets;
+
+HistoryCapture(final HistoryBuffer history, final long first, final long end, final RXOptions options) {
+	final RXOptions opts = new RXOptions(options);
+	this.history = history;
+	this.first = first;
+	this.end = end;
+	batchSize = opts.batchPackets * RX_PACKET_SIZE;
+	pool = opts.createPool(batchSize);
+	dispatcher = opts.createDispatcher(pool, new Runnable() {
+		@Override
+		public void run() {
+			start();
+		}
+	});
+}
+
+/**
+ * @return packets in window, fewer are emitted if history is closed or overwritten before window ends.
+ */
+public long getPackets() {
+	return end - first;
+}
+
+public long getEmittedPackets() {
+	return emittedPackets;
+}
+
+public long getOverwrittenPackets() {
+	return overwrittenPackets;
+}
+
+/**
+ * @return true when whole window was emitted and subscribers were completed.
+ */
+public boolean isDone() {
+	return finished.getCount() == 0;
+}
+
+/**
+ * Waits until capture {@link #isDone() is done}.
+ *
+ * @return false if timeout elapsed first.
+ */
+public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+	return finished.await(timeout, unit);
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOn() {
+	paused = false;
+	return this;
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOff() {
+	paused = true;
+	return this;
+}
+
+@Override
+public void subscribe(final Subscriber<? super ByteBuffer> s) {
+	s.onSubscribe(dispatcher.add(s));
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	subscriptions.add(s);
+}
+
+/**
+ * Returns buffer previously emitted by this capture, or adds new one in {@link RXOptions.BufferSource#UPSTREAM} mode.
+ */
+@Override
+public void onNext(final ByteBuffer byteBuffer) {
+	pool.release(byteBuffer);
+}
+
+@Override
+public void onError(final Throwable t) {
+	if (finish(t)) {
+		t.printStackTrace();
+	}
+}
+
+@Override
+public void onComplete() {
+	finish(null);
+}
+
+@Override
+public void close() throws IOException {
+	finish(new IllegalStateException("close() called before Publisher finished!"));
+}
+
+@Override
+public void run() {
+	long next = first;
+	ByteBuffer block = null;
+	while (!done) {
+		if (paused) {
+			LockSupport.parkNanos(this, PARK_NANOS);
+			continue;
+		}
+		final long available = Math.min(history.written(), end);
+		if (next >= available) {
+			if (next >= end || history.isClosed()) {
+				break;
+			}
+			if (block != null && block.position() > 0) {
+				// don't keep subscribers waiting for a full block while history trickles in
+				publishNext(block);
+				block = null;
+			}
+			LockSupport.parkNanos(this, PARK_NANOS);
+			continue;
+		}
+		if (next < history.oldest()) {
+			overwrittenPackets += history.oldest() - next;
+			next = history.oldest();
+			continue;
+		}
+		if (block == null) {
+			block = nextBlock();
+			if (block == null) {
+				break;
+			}
+		}
+		final int pos = block.position();
+		history.copy(next, block, pos);
+		if (!history.intact(next)) {
+			continue;
+		}
+		block.position(pos + RX_PACKET_SIZE);
+		++next;
+		++emittedPackets;
+		if (block.position() + RX_PACKET_SIZE > block.limit()) {
+			publishNext(block);
+			block = null;
+		}
+	}
+	if (block != null) {
+		if (block.position() > 0 && !done) {
+			publishNext(block);
+		} else {
+			pool.release(block);
+		}
+	}
+	onComplete();
+}
+
+/**
+ * Waits for free buffer.
+ *
+ * @return buffer limited to block size, or null if capture was finished meanwhile.
+ */
+private ByteBuffer nextBlock() {
+	ByteBuffer buff;
+	while ((buff = pool.acquire()) == null) {
+		for (Subscription s : subscriptions) {
+			s.request(1);
+		}
+		if (done) {
+			return null;
+		}
+		LockSupport.parkNanos(this, POOL_WAIT_NANOS);
+	}
+	buff.limit(Math.min(buff.capacity(), batchSize));
+	return buff;
+}
+
+private void publishNext(final ByteBuffer block) {
+	block.flip();
+	if (!done) {
+		dispatcher.publish(block, System.nanoTime());
+	}
+	pool.release(block);
+}
+
+private synchronized void start() {
+	if (scheduledWorker == null && !done) {
+		scheduledWorker = Schedulers.io().scheduleDirect(this);
+	}
+}
+
+private boolean finish(final Throwable error) {
+	synchronized (this) {
+		if (done) {
+			return false;
+		}
+		done = true;
+	}
+	dispatcher.terminate(error);
+	for (Subscription s : subscriptions) {
+		s.cancel();
+	}
+	finished.countDown();
+	return true;
+}
+}
@@ -0,0 +1,367 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import static com.pavlus.hiqsdr.Protocol.RX_HEADER_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static com.pavlus.hiqsdr.Protocol.RX_SEQUENCE_OFFSET;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_OFFSET;
+
+/**
+ * Lossless coder of receiver packets, decoded packets are byte-identical to encoded ones, headers included.
+ * <p>
+ * Packets are coded in frames which don't depend on each other, so decoding can start at any frame.
+ * Frame starts with {@value #HEADER_SIZE}-byte header: magic {@code 'I', 'Q'}, version, number of packets
+ * and little-endian int length of whole frame, followed by packet headers and bit stream,
+ * and ends with little-endian CRC-32 of everything before it.
+ * In the stream every packet is coded as two partitions, I and Q samples, each with fixed predictor
+ * of order 0 to 2 picked by smallest residual and Rice-coded residuals, or verbatim 24-bit samples
+ * when they don't compress. Predictors run across packets of frame and start from silence in each frame.
+ * <p>
+ * Instance holds scratch space, so it's meant to be used by one thread at a time.
+ */
+public final class IQCodec {
+
+public static final int HEADER_SIZE = 8;
+static final int TRAILER_SIZE = 4;
+static final byte MAGIC_I = 'I';
+static final byte MAGIC_Q = 'Q';
+static final byte VERSION = 1;
+private static final int VERBATIM = 3;
+private static final int MAX_RICE_PARAMETER = 26;
+// quotients this large are followed by raw residual instead
+private static final int ESCAPE = 24;
+private static final int ESCAPE_BITS = 27;
+private static final int SAMPLE_BITS = 24;
+
+private final int[] re = new int[RX_SAMPLES_PER_PACKET];
+private final int[] im = new int[RX_SAMPLES_PER_PACKET];
+private byte[] scratch = new byte[0];
+private final CRC32 crc = new CRC32();
+// predictor history of I and Q, x[n-1] and x[n-2]
+private final int[] history = new int[4];
+
+// bit writer
+private byte[] out;
+private int outPos;
+private long acc;
+private int accBits;
+
+// bit reader
+private byte[] in;
+private int inPos;
+private int inEnd;
+private long window;
+private int windowBits;
+
+/**
+ * @return most bytes frame of {@code packets} can take.
+ */
+public static int maxFrameSize(int packets) {
+	// every sample may take escape code, plus partition headers
+	final long bits = (long) packets * 2 * (7 + RX_SAMPLES_PER_PACKET * (ESCAPE + ESCAPE_BITS));
+	return (int) (HEADER_SIZE + 2L * packets + bits / 8 + 1 + TRAILER_SIZE);
+}
+
+/**
+ * @return length of frame starting at {@code index}, header included.
+ * @throws IllegalArgumentException if there is no valid frame header.
+ */
+public static int frameLength(ByteBuffer buffer, int index) {
+	checkHeader(buffer, index);
+	final int length = (buffer.get(index + 4) & 0xff) | (buffer.get(index + 5) & 0xff) << 8
+	                   | (buffer.get(index + 6) & 0xff) << 16 | (buffer.get(index + 7) & 0xff) << 24;
+	if (length < HEADER_SIZE + TRAILER_SIZE || length > maxFrameSize(framePackets(buffer, index))) {
+		throw new IllegalArgumentException("Bad frame length " + length + " at " + index + '.');
+	}
+	return length;
+}
+
+/**
+ * @return number of packets in frame starting at {@code index}.
+ * @throws IllegalArgumentException if there is no valid frame header.
+ */
+public static int framePackets(ByteBuffer buffer, int index) {
+	checkHeader(buffer, index);
+	return buffer.get(index + 3) & 0xff;
+}
+
+private static void checkHeader(final ByteBuffer buffer, final int index) {
+	if (index + HEADER_SIZE > buffer.limit() || buffer.get(index) != MAGIC_I || buffer.get(index + 1) != MAGIC_Q
+	    || buffer.get(index + 2) != VERSION) {
+		throw new IllegalArgumentException("No frame header at " + index + '.');
+	}
+}
+
+/**
+ * Codes packets {@code [first, first + count)} of receiver block into one frame.
+ *
+ * @param count  from 1 to 255 packets.
+ * @param dst    array with at least {@link #maxFrameSize(int)} bytes after {@code offset}.
+ * @return length of frame.
+ */
+public int encode(ByteBuffer block, int first, int count, byte[] dst, int offset) {
+	if (count <= 0 || count > 255) {
+		throw new IllegalArgumentException("Frame holds from 1 to 255 packets.");
+	}
+	final boolean bigEndian = block.order() == ByteOrder.BIG_ENDIAN;
+	dst[offset] = MAGIC_I;
+	dst[offset + 1] = MAGIC_Q;
+	dst[offset + 2] = VERSION;
+	dst[offset + 3] = (byte) count;
+	int pos = offset + HEADER_SIZE;
+	for (int p = first; p < first + count; ++p) {
+		final int header = RXBlock.packetOffset(p);
+		dst[pos++] = block.get(header + RX_SEQUENCE_OFFSET);
+		dst[pos++] = block.get(header + RX_STATUS_OFFSET);
+	}
+	out = dst;
+	outPos = pos;
+	acc = 0;
+	accBits = 0;
+	history[0] = history[1] = history[2] = history[3] = 0;
+	for (int p = first; p < first + count; ++p) {
+		int index = IQDecoder.firstWord(p);
+		for (int i = 0; i < RX_SAMPLES_PER_PACKET; ++i, index += 6) {
+			re[i] = IQDecoder.word(block, index, bigEndian) >> 8;
+			im[i] = IQDecoder.word(block, index + 3, bigEndian) >> 8;
+		}
+		encodePartition(re, 0);
+		encodePartition(im, 2);
+	}
+	if (accBits > 0) {
+		out[outPos++] = (byte) (acc << (8 - accBits));
+	}
+	final int length = outPos + TRAILER_SIZE - offset;
+	putInt(dst, offset + 4, length);
+	crc.reset();
+	crc.update(dst, offset, outPos - offset);
+	putInt(dst, outPos, (int) crc.getValue());
+	out = null;
+	return length;
+}
+
+private static void putInt(final byte[] dst, final int offset, final int value) {
+	dst[offset] = (byte) value;
+	dst[offset + 1] = (byte) (value >>> 8);
+	dst[offset + 2] = (byte) (value >>> 16);
+	dst[offset + 3] = (byte) (value >>> 24);
+}
+
+private static int getInt(final byte[] src, final int offset) {
+	return (src[offset] & 0xff) | (src[offset + 1] & 0xff) << 8 | (src[offset + 2] & 0xff) << 16
+	       | (src[offset + 3] & 0xff) << 24;
+}
+
+private void encodePartition(final int[] x, final int h) {
+	final int n = x.length;
+	int a = history[h];
+	int b = history[h + 1];
+	long s0 = 0;
+	long s1 = 0;
+	long s2 = 0;
+	for (int i = 0; i < n; ++i) {
+		final int v = x[i];
+		s0 += Math.abs(v);
+		s1 += Math.abs(v - a);
+		s2 += Math.abs(v - 2 * a + b);
+		b = a;
+		a = v;
+	}
+	int order = 0;
+	long sum = s0;
+	if (s1 < sum) {
+		order = 1;
+		sum = s1;
+	}
+	if (s2 < sum) {
+		order = 2;
+		sum = s2;
+	}
+	// mean of zigzag residuals is about twice mean of absolute ones
+	final long mean = 2 * sum / n;
+	final int k = mean == 0 ? 0 : Math.min(MAX_RICE_PARAMETER, 63 - Long.numberOfLeadingZeros(mean));
+	if ((long) n * (k + 1) + ((2 * sum) >>> k) >= (long) n * SAMPLE_BITS) {
+		order = VERBATIM;
+	}
+	write(order, 2);
+	a = history[h];
+	b = history[h + 1];
+	if (order == VERBATIM) {
+		for (int i = 0; i < n; ++i) {
+			write(x[i] & 0xffffff, SAMPLE_BITS);
+		}
+	} else {
+		write(k, 5);
+		for (int i = 0; i < n; ++i) {
+			final int v = x[i];
+			final int e = v - predict(order, a, b);
+			rice((e << 1) ^ (e >> 31), k);
+			b = a;
+			a = v;
+		}
+	}
+	history[h] = x[n - 1];
+	history[h + 1] = x[n - 2];
+}
+
+private static int predict(final int order, final int a, final int b) {
+	switch (order) {
+		case 0:
+			return 0;
+		case 1:
+			return a;
+		default:
+			return 2 * a - b;
+	}
+}
+
+private void rice(final int u, final int k) {
+	final int q = u >>> k;
+	if (q < ESCAPE) {
+		write(((1 << q) - 1) << 1, q + 1);
+		write(u & ((1 << k) - 1), k);
+	} else {
+		write((1 << ESCAPE) - 1, ESCAPE);
+		write(u, ESCAPE_BITS);
+	}
+}
+
+private void write(final int value, final int bits) {
+	acc = (acc << bits) | (value & ((1L << bits) - 1));
+	accBits += bits;
+	while (accBits >= 8) {
+		accBits -= 8;
+		out[outPos++] = (byte) (acc >>> accBits);
+	}
+}
+
+/**
+ * Decodes frame starting at {@code index} into receiver packets written from {@code dstIndex}.
+ *
+ * @return number of packets decoded.
+ * @throws IllegalArgumentException if frame is malformed.
+ */
+public int decode(ByteBuffer src, int index, ByteBuffer dst, int dstIndex) {
+	final int length = frameLength(src, index);
+	final int count = framePackets(src, index);
+	if (length > src.limit() - index) {
+		throw new IllegalArgumentException("Frame at " + index + " is truncated.");
+	}
+	if (dstIndex + count * RX_PACKET_SIZE > dst.limit()) {
+		throw new IllegalArgumentException("Frame of " + count + " packets doesn't fit into destination.");
+	}
+	final int start;
+	if (src.hasArray()) {
+		in = src.array();
+		start = src.arrayOffset() + index;
+	} else {
+		if (scratch.length < length) {
+			scratch = new byte[length];
+		}
+		for (int i = 0; i < length; ++i) {
+			scratch[i] = src.get(index + i);
+		}
+		in = scratch;
+		start = 0;
+	}
+	final int end = start + length - TRAILER_SIZE;
+	crc.reset();
+	crc.update(in, start, end - start);
+	if ((int) crc.getValue() != getInt(in, end)) {
+		in = null;
+		throw new IllegalArgumentException("Frame at " + index + " is corrupted.");
+	}
+	int pos = start + HEADER_SIZE;
+	for (int p = 0; p < count; ++p) {
+		dst.put(dstIndex + p * RX_PACKET_SIZE + RX_SEQUENCE_OFFSET, in[pos++]);
+		dst.put(dstIndex + p * RX_PACKET_SIZE + RX_STATUS_OFFSET, in[pos++]);
+	}
+	inPos = pos;
+	inEnd = end;
+	window = 0;
+	windowBits = 0;
+	history[0] = history[1] = history[2] = history[3] = 0;
+	for (int p = 0; p < count; ++p) {
+		decodePartition(re, 0);
+		decodePartition(im, 2);
+		int payload = dstIndex + p * RX_PACKET_SIZE + RX_HEADER_SIZE;
+		for (int i = 0; i < RX_SAMPLES_PER_PACKET; ++i) {
+			put24(dst, payload, re[i]);
+			put24(dst, payload + 3, im[i]);
+			payload += 6;
+		}
+	}
+	if (inPos > inEnd && windowBits < (inPos - inEnd) * 8) {
+		throw new IllegalArgumentException("Frame at " + index + " is corrupted.");
+	}
+	in = null;
+	return count;
+}
+
+private static void put24(final ByteBuffer dst, final int index, final int value) {
+	dst.put(index, (byte) value);
+	dst.put(index + 1, (byte) (value >> 8));
+	dst.put(index + 2, (byte) (value >> 16));
+}
+
+private void decodePartition(final int[] x, final int h) {
+	final int n = x.length;
+	refill();
+	final int order = read(2);
+	if (order == VERBATIM) {
+		for (int i = 0; i < n; ++i) {
+			refill();
+			x[i] = read(SAMPLE_BITS) << 8 >> 8;
+		}
+	} else {
+		final int k = read(5);
+		int a = history[h];
+		int b = history[h + 1];
+		for (int i = 0; i < n; ++i) {
+			refill();
+			int q = Long.numberOfLeadingZeros(~window);
+			final int u;
+			if (q >= ESCAPE) {
+				read(ESCAPE);
+				u = read(ESCAPE_BITS);
+			} else {
+				read(q + 1);
+				u = q << k | read(k);
+			}
+			final int v = ((u >>> 1) ^ -(u & 1)) + predict(order, a, b);
+			x[i] = v;
+			b = a;
+			a = v;
+		}
+	}
+	history[h] = x[n - 1];
+	history[h + 1] = x[n - 2];
+}
+
+/**
+ * Tops window up to at least 57 bits, longest code is {@value #ESCAPE} + {@value #ESCAPE_BITS} bits.
+ * Past the end of frame zeros are shifted in, overrun is detected when frame is finished.
+ */
+private void refill() {
+	while (windowBits <= 56) {
+		final long next = inPos < inEnd ? in[inPos] & 0xff : 0;
+		++inPos;
+		window |= next << (56 - windowBits);
+		windowBits += 8;
+	}
+}
+
+private int read(final int bits) {
+	if (bits == 0) {
+		return 0;
+	}
+	final int value = (int) (window >>> (64 - bits));
+	window <<= bits;
+	windowBits -= bits;
+	return value;
+}
+}
@@ -0,0 +1,235 @@
+package com.pavlus.hiqsdr;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+
+/**
+ * Stage compressing receiver stream with {@link IQCodec}, emitting blocks of whole frames
+ * of fixed number of packets, which {@link IQDecompressor} turns back into identical packets.
+ * <p>
+ * Packets are collected until frame is full, frames completed by one input block are coded in parallel
+ * on {@link ForkJoinPool}, so batch receiver blocks, see {@link RXOptions#batch(int, long, java.util.concurrent.TimeUnit)},
+ * spread over cores while single frames are coded on receiving thread.
+ * Frame left incomplete is flushed when stream completes or stage is closed.
+ * <p>
+ * Output blocks are heap buffers taken round-robin from pool like {@link IQDecoder} blocks,
+ * so they stay intact until {@code poolSize - 1} more blocks are emitted.
+ * Subscribers must request {@link Long#MAX_VALUE}: block emitted while subscriber has no demand
+ * is lost for it together with its frames, which shows only in {@link #getMissed(org.reactivestreams.Subscriber)}.
+ */
+public final class IQCompressor extends PooledStage<ByteBuffer, ByteBuffer> implements Closeable {
+
+public static final int DEFAULT_FRAME_PACKETS = 16;
+
+private final int framePackets;
+private final int poolSize;
+private final boolean ownPool;
+private final ForkJoinPool pool;
+private final Batch batch = new Batch();
+// held while frames are collected or coded, by receiving thread or by close()
+private final Object processing = new Object();
+private Frame[] frames;
+private int filled; // frames complete, frames[filled] is being collected
+private final byte[][] arrays;
+private final ByteBuffer[] blocks;
+private int next;
+private boolean flushed;
+
+private volatile long inputPackets;
+private volatile long outputBytes;
+
+/**
+ * Uses {@link #DEFAULT_FRAME_PACKETS} and own pool of all processors.
+ */
+public IQCompressor(SwitchablePooledProcessor<ByteBuffer> source) {
+	this(source, DEFAULT_FRAME_PACKETS, IQDecoder.DEFAULT_POOL_SIZE, null);
+}
+
+/**
+ * @param framePackets packets in frame, from 1 to 255. Longer frames compress a bit better, shorter ones allow finer seeking.
+ * @param poolSize     number of output blocks reused round-robin.
+ * @param pool         pool doing the work, or {@code null} to create one closed by {@link #close()}.
+ */
+public IQCompressor(SwitchablePooledProcessor<ByteBuffer> source, int framePackets, int poolSize, ForkJoinPool pool) {
+	super(source);
+	if (framePackets <= 0 || framePackets > 255 || poolSize <= 0) {
+		throw new IllegalArgumentException("Frame must hold from 1 to 255 packets and pool size must be positive.");
+	}
+	this.framePackets = framePackets;
+	this.poolSize = poolSize;
+	ownPool = pool == null;
+	this.pool = ownPool ? new ForkJoinPool() : pool;
+	frames = new Frame[] {new Frame()};
+	arrays = new byte[poolSize][];
+	blocks = new ByteBuffer[poolSize];
+}
+
+public int getFramePackets() {
+	return framePackets;
+}
+
+public long getInputPackets() {
+	return inputPackets;
+}
+
+public long getOutputBytes() {
+	return outputBytes;
+}
+
+/**
+ * @return size of input relative to output so far.
+ */
+public double getRatio() {
+	final long output = outputBytes;
+	return output == 0 ? 0 : inputPackets * (double) RX_PACKET_SIZE / output;
+}
+
+@Override
+protected void process(final ByteBuffer block) {
+	synchronized (processing) {
+		if (!flushed) {
+			collect(block);
+		}
+	}
+}
+
+private void collect(final ByteBuffer block) {
+	final int packets = RXBlock.packetCount(block);
+	for (int p = 0; p < packets; ++p) {
+		final Frame f = frames[filled];
+		Buffers.copy(block, RXBlock.packetOffset(p), f.packets, f.count * RX_PACKET_SIZE, RX_PACKET_SIZE);
+		if (++f.count == framePackets) {
+			if (++filled == frames.length) {
+				frames = Arrays.copyOf(frames, filled + 1);
+				frames[filled] = new Frame();
+			}
+		}
+	}
+	inputPackets += packets;
+	if (filled > 0) {
+		encode(filled);
+		publish(filled);
+		// incomplete frame goes first
+		final Frame collecting = frames[filled];
+		frames[filled] = frames[0];
+		frames[0] = collecting;
+		filled = 0;
+	}
+}
+
+@Override
+public void onComplete() {
+	flush();
+	super.onComplete();
+}
+
+/**
+ * Disconnects from source, flushes incomplete frame once block being coded, if any, is done
+ * and completes subscribers.
+ */
+@Override
+public void close() {
+	disconnect();
+	onComplete();
+	if (ownPool) {
+		pool.shutdown();
+	}
+}
+
+private void flush() {
+	synchronized (processing) {
+		if (!flushed) {
+			flushed = true;
+			flushIncomplete();
+		}
+	}
+}
+
+private void flushIncomplete() {
+	final Frame f = frames[filled];
+	if (f.count > 0 && hasSubscribers()) {
+		if (filled > 0) {
+			frames[filled] = frames[0];
+			frames[0] = f;
+		}
+		encode(1);
+		publish(1);
+	}
+}
+
+private void encode(final int count) {
+	for (int i = 0; i < count; ++i) {
+		frames[i].reinitialize();
+	}
+	if (count == 1) {
+		frames[0].compute();
+	} else {
+		batch.reinitialize();
+		batch.count = count;
+		pool.invoke(batch);
+	}
+}
+
+private void publish(final int count) {
+	int size = 0;
+	for (int i = 0; i < count; ++i) {
+		size += frames[i].length;
+	}
+	byte[] array = arrays[next];
+	if (array == null || array.length < size) {
+		array = arrays[next] = new byte[size];
+		blocks[next] = ByteBuffer.wrap(array);
+	}
+	final ByteBuffer out = blocks[next];
+	next = next + 1 == poolSize ? 0 : next + 1;
+	int pos = 0;
+	for (int i = 0; i < count; ++i) {
+		final Frame f = frames[i];
+		System.arraycopy(f.encoded, 0, array, pos, f.length);
+		pos += f.length;
+		f.count = 0;
+	}
+	outputBytes += size;
+	out.clear();
+	out.limit(size);
+	emit(out);
+}
+
+private final class Batch extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	int count;
+
+	@Override
+	protected void compute() {
+		for (int i = 1; i < count; ++i) {
+			frames[i].fork();
+		}
+		frames[0].compute();
+		for (int i = 1; i < count; ++i) {
+			frames[i].join();
+		}
+	}
+}
+
+/**
+ * Packets of one frame and their code.
+ */
+private final class Frame extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	final ByteBuffer packets = ByteBuffer.allocateDirect(framePackets * RX_PACKET_SIZE);
+	final byte[] encoded = new byte[IQCodec.maxFrameSize(framePackets)];
+	final IQCodec codec = new IQCodec();
+	int count;
+	int length;
+
+	@Override
+	protected void compute() {
+		length = codec.encode(packets, 0, count, encoded, 0);
+	}
+}
+}
@@ -0,0 +1,75 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Stage which strips packet headers and unpacks 24-bit I/Q samples of {@link RXBlock}s
+ * into interleaved I, Q values.
+ * <p>
+ * Decoded blocks are taken round-robin from pool of {@code poolSize} preallocated ones,
+ * so emitted block stays intact until {@code poolSize - 1} more blocks are emitted.
+ * Nothing is allocated per packet, pool only grows when longer batch arrives.
+ * <p>
+ * Every sample is read with one absolute {@link ByteBuffer#getInt(int)} starting
+ * one byte before it, which is always inside the block since packet header precedes payload,
+ * so shared input buffer's position is never touched.
+ *
+ * @param <B> type of decoded blocks
+ * @see FloatIQDecoder
+ * @see ShortIQDecoder
+ * @see IntIQDecoder
+ */
+public abstract class IQDecoder<B extends Buffer> extends PooledStage<ByteBuffer, B> {
+
+/**
+ * Number of I and Q values in one decoded packet.
+ */
+public static final int VALUES_PER_PACKET = Protocol.RX_SAMPLES_PER_PACKET * 2;
+static final int DEFAULT_POOL_SIZE = 4;
+
+protected final int poolSize;
+private int next;
+
+protected IQDecoder(SwitchablePooledProcessor<ByteBuffer> source, int poolSize) {
+	super(source);
+	if (poolSize <= 0) {
+		throw new IllegalArgumentException("Pool size must be positive.");
+	}
+	this.poolSize = poolSize;
+}
+
+@Override
+protected void process(final ByteBuffer block) {
+	final int packets = RXBlock.packetCount(block);
+	if (packets == 0 || !hasSubscribers()) {
+		return;
+	}
+	final int slot = next;
+	next = slot + 1 == poolSize ? 0 : slot + 1;
+	emit(decode(block, packets, block.order() == ByteOrder.BIG_ENDIAN, slot));
+}
+
+/**
+ * Decodes all packets of block into pooled block number {@code slot}.
+ *
+ * @param bigEndian whether {@link ByteBuffer#getInt(int)} of block returns bytes in reversed order.
+ */
+protected abstract B decode(ByteBuffer block, int packets, boolean bigEndian, int slot);
+
+/**
+ * @return index to read first sample word of packet from with {@link #word(ByteBuffer, int, boolean)}.
+ */
+static int firstWord(int packet) {
+	return RXBlock.payloadOffset(packet) - 1;
+}
+
+/**
+ * @return 24-bit sample stored at {@code index + 1} in upper bits of int, lowest byte is garbage.
+ */
+static int word(ByteBuffer block, int index, boolean bigEndian) {
+	final int w = block.getInt(index);
+	return bigEndian ? Integer.reverseBytes(w) : w;
+}
+}
@@ -0,0 +1,75 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+
+/**
+ * Stage decoding blocks of {@link IQCodec} frames, e.g. emitted by {@link IQCompressor} or read from file,
+ * into blocks laid out like receiver ones, see {@link RXBlock}.
+ * <p>
+ * Input block must hold whole frames between its position and limit, frame boundaries can be found
+ * with {@link IQCodec#frameLength(ByteBuffer, int)}. Malformed frame ends decoding of its block
+ * and is counted in {@link #getCorruptBlocks()}.
+ * <p>
+ * Output blocks are taken round-robin from pool like {@link IQDecoder} blocks,
+ * so they stay intact until {@code poolSize - 1} more blocks are emitted.
+ */
+public final class IQDecompressor extends PooledStage<ByteBuffer, ByteBuffer> {
+
+private final IQCodec codec = new IQCodec();
+private final int poolSize;
+private final ByteBuffer[] blocks;
+private int next;
+
+private volatile long outputPackets;
+private volatile long corruptBlocks;
+
+public IQDecompressor(SwitchablePooledProcessor<ByteBuffer> source) {
+	this(source, IQDecoder.DEFAULT_POOL_SIZE);
+}
+
+public IQDecompressor(SwitchablePooledProcessor<ByteBuffer> source, int poolSize) {
+	super(source);
+	if (poolSize <= 0) {
+		throw new IllegalArgumentException("Pool size must be positive.");
+	}
+	this.poolSize = poolSize;
+	blocks = new ByteBuffer[poolSize];
+}
+
+public long getOutputPackets() {
+	return outputPackets;
+}
+
+public long getCorruptBlocks() {
+	return corruptBlocks;
+}
+
+@Override
+protected void process(final ByteBuffer block) {
+	final int limit = block.limit();
+	try {
+		int packets = 0;
+		for (int index = block.position(); index < limit; index += IQCodec.frameLength(block, index)) {
+			packets += IQCodec.framePackets(block, index);
+		}
+		ByteBuffer out = blocks[next];
+		if (out == null || out.capacity() < packets * RX_PACKET_SIZE) {
+			out = blocks[next] = ByteBuffer.allocateDirect(packets * RX_PACKET_SIZE);
+		}
+		out.clear();
+		int decoded = 0;
+		for (int index = block.position(); index < limit; index += IQCodec.frameLength(block, index)) {
+			decoded += codec.decode(block, index, out, decoded * RX_PACKET_SIZE);
+		}
+		next = next + 1 == poolSize ? 0 : next + 1;
+		out.limit(decoded * RX_PACKET_SIZE);
+		outputPackets += decoded;
+		emit(out);
+	} catch (IllegalArgumentException e) {
+		// corrupt input is expected from damaged files, counting it is enough
+		++corruptBlocks;
+	}
+}
+}
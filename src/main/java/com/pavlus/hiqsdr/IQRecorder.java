@@ -0,0 +1,302 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PAYLOAD_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static com.pavlus.hiqsdr.Protocol.RX_SEQUENCE_OFFSET;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_FILLED;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_GAP;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_OFFSET;
+
+/**
+ * Subscriber which records received samples into series of memory-mapped files.
+ * <p>
+ * Payloads of packets are copied straight into pre-sized {@link MappedByteBuffer} segment,
+ * so data file {@code name-NNNN.sigmf-data} is plain interleaved 24-bit little-endian I/Q,
+ * and every buffer is returned to its source right after the copy.
+ * Segment is closed and truncated when it's full or older than rotation period,
+ * its SigMF-style {@code name-NNNN.sigmf-meta} sidecar holds center frequency
+ * and sample rate taken from {@link Config} at segment start, start time, number of recorded samples,
+ * and annotations for lost and filled packets. Where data file can't be truncated while it's still mapped,
+ * e.g. on Windows, it keeps its full size and only the recorded samples are replayed.
+ * Numbering continues after the last segment already in directory, so restarted recorder doesn't overwrite it. Packets are counted as lost only after jump of sequence
+ * marked with {@link Protocol#RX_STATUS_GAP}, as receiver marks them, so switching receiver off and on
+ * doesn't show up as loss.
+ * <p>
+ * Recording starts with {@link #start()} and stops with {@link #close()}.
+ */
+public class IQRecorder implements Subscriber<ByteBuffer>, Closeable {
+
+static final String DATA_SUFFIX = ".sigmf-data";
+static final String META_SUFFIX = ".sigmf-meta";
+static final String DATATYPE = "ci24_le";
+
+private final SwitchablePooledProcessor<ByteBuffer> source;
+private final File directory;
+private final String name;
+private final Config config;
+private final int segmentBytes;
+private final long segmentNanos;
+private final SequenceTracker tracker = new SequenceTracker();
+private final SimpleDateFormat isoDate;
+private volatile Subscription subscription;
+private boolean closed;
+
+// current segment
+private FileChannel file;
+private MappedByteBuffer segment;
+private int segmentIndex;
+private long segmentStart;
+private long samples;
+private long filledStart = -1;
+private long frequency;
+private int sampleRate;
+private String startTime;
+private final StringBuilder annotations = new StringBuilder();
+private volatile long droppedPackets;
+private volatile long recordedPackets;
+
+/**
+ * @param source       receiver to record from.
+ * @param directory    where segments are created.
+ * @param name         common prefix of segment files.
+ * @param config       configuration of receiver, read at every segment start.
+ * @param segmentBytes maximal size of data file, at most 2 GiB.
+ * @param rotation     maximal duration of one segment, 0 for no limit.
+ * @param unit         unit of rotation.
+ */
+public IQRecorder(SwitchablePooledProcessor<ByteBuffer> source, File directory, String name, Config config,
+                  long segmentBytes, long rotation, TimeUnit unit) {
+	if (segmentBytes < RX_PAYLOAD_SIZE || segmentBytes > Integer.MAX_VALUE) {
+		throw new IllegalArgumentException("Segment size must be from one packet payload to 2 GiB.");
+	}
+	this.source = source;
+	this.directory = directory;
+	this.name = name;
+	this.config = config;
+	this.segmentBytes = (int) (segmentBytes - segmentBytes % RX_PAYLOAD_SIZE);
+	this.segmentNanos = unit.toNanos(rotation);
+	isoDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+	isoDate.setTimeZone(TimeZone.getTimeZone("UTC"));
+}
+
+/**
+ * Subscribes to the source.
+ */
+public IQRecorder start() {
+	source.subscribe(this);
+	return this;
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	subscription = s;
+	s.request(Long.MAX_VALUE);
+}
+
+@Override
+public void onNext(final ByteBuffer block) {
+	try {
+		synchronized (this) {
+			if (!closed) {
+				write(block);
+			}
+		}
+	} catch (IOException e) {
+		e.printStackTrace();
+		cancel();
+	} finally {
+		source.onNext(block);
+	}
+}
+
+@Override
+public void onError(final Throwable t) {
+	finish();
+}
+
+@Override
+public void onComplete() {
+	finish();
+}
+
+/**
+ * Stops recording and completes current segment.
+ */
+@Override
+public void close() throws IOException {
+	cancel();
+}
+
+public long getRecordedPackets() {
+	return recordedPackets;
+}
+
+public long getDroppedPackets() {
+	return droppedPackets;
+}
+
+private void cancel() {
+	Subscription s = subscription;
+	if (s != null) {
+		s.cancel();
+	}
+	finish();
+}
+
+private synchronized void finish() {
+	if (closed) {
+		return;
+	}
+	closed = true;
+	try {
+		closeSegment();
+	} catch (IOException e) {
+		e.printStackTrace();
+	}
+}
+
+private void write(final ByteBuffer block) throws IOException {
+	final int packets = RXBlock.packetCount(block);
+	for (int p = 0; p < packets; ++p) {
+		final int header = RXBlock.packetOffset(p);
+		if (segment == null || segment.position() == segmentBytes
+		    || (segmentNanos > 0 && System.nanoTime() - segmentStart >= segmentNanos)) {
+			closeSegment();
+			openSegment();
+		}
+		track(block, header);
+		final int pos = segment.position();
+		Buffers.copy(block, RXBlock.payloadOffset(p), segment, pos, RX_PAYLOAD_SIZE);
+		segment.position(pos + RX_PAYLOAD_SIZE);
+		samples += RX_SAMPLES_PER_PACKET;
+		++recordedPackets;
+	}
+}
+
+private void track(final ByteBuffer block, final int header) {
+	final byte status = block.get(header + RX_STATUS_OFFSET);
+	final int missing = tracker.accept(block.get(header + RX_SEQUENCE_OFFSET) & 0xff);
+	// receiver marks packets following loss, unmarked jump follows switching receiver off and on
+	if (missing > 0 && (status & RX_STATUS_GAP) != 0) {
+		droppedPackets += missing;
+		annotate(samples, 0, "dropped", missing);
+	}
+	if ((status & RX_STATUS_FILLED) != 0) {
+		if (filledStart < 0) {
+			filledStart = samples;
+		}
+	} else if (filledStart >= 0) {
+		annotateFilled();
+	}
+}
+
+private void annotateFilled() {
+	annotate(filledStart, samples - filledStart, "filled", (samples - filledStart) / RX_SAMPLES_PER_PACKET);
+	filledStart = -1;
+}
+
+private void annotate(final long start, final long count, final String kind, final long packets) {
+	if (annotations.length() > 0) {
+		annotations.append(",\n");
+	}
+	annotations.append("    {\"core:sample_start\": ").append(start)
+	           .append(", \"core:sample_count\": ").append(count)
+	           .append(", \"core:comment\": \"").append(kind).append(" packets\"")
+	           .append(", \"hiqsdr:").append(kind).append("_packets\": ").append(packets)
+	           .append('}');
+}
+
+private void openSegment() throws IOException {
+	while (segmentFile(DATA_SUFFIX).exists() || segmentFile(META_SUFFIX).exists()) {
+		++segmentIndex;
+	}
+	final File data = segmentFile(DATA_SUFFIX);
+	file = FileChannel.open(data.toPath(), StandardOpenOption.CREATE_NEW,
+	                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+	segment = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+	segmentStart = System.nanoTime();
+	startTime = isoDate.format(new Date());
+	frequency = config.getRxFrequency();
+	sampleRate = config.getSampleRate();
+	samples = 0;
+	filledStart = -1;
+	annotations.setLength(0);
+}
+
+private void closeSegment() throws IOException {
+	if (segment == null) {
+		return;
+	}
+	if (filledStart >= 0) {
+		annotateFilled();
+	}
+	final int written = segment.position();
+	segment.force();
+	segment = null;
+	final FileChannel data = file;
+	file = null;
+	try {
+		writeMetadata();
+	} finally {
+		++segmentIndex;
+		try {
+			data.truncate(written);
+		} catch (IOException e) {
+			// mapping is released only by GC, sidecar tells how much of the file is valid
+			e.printStackTrace();
+		} finally {
+			data.close();
+		}
+	}
+}
+
+private void writeMetadata() throws IOException {
+	try (Writer w = new OutputStreamWriter(new FileOutputStream(segmentFile(META_SUFFIX)), StandardCharsets.UTF_8)) {
+		w.write("{\n");
+		w.write("  \"global\": {\n");
+		w.write("    \"core:datatype\": \"" + DATATYPE + "\",\n");
+		w.write("    \"core:sample_rate\": " + sampleRate + ",\n");
+		w.write("    \"core:version\": \"1.0.0\",\n");
+		w.write("    \"core:recorder\": \"hiqsdr_lib\",\n");
+		w.write("    \"hiqsdr:sample_count\": " + samples + ",\n");
+		w.write("    \"core:extensions\": [{\"name\": \"hiqsdr\", \"version\": \"1.0.0\", \"optional\": true}],\n");
+		w.write("    \"hiqsdr:firmware_version\": " + config.getFirmwareVersion() + "\n");
+		w.write("  },\n");
+		w.write("  \"captures\": [\n");
+		w.write("    {\"core:sample_start\": 0, \"core:frequency\": " + frequency
+		        + ", \"core:datetime\": \"" + startTime + "\"}\n");
+		w.write("  ],\n");
+		w.write("  \"annotations\": [\n");
+		if (annotations.length() > 0) {
+			w.write(annotations.toString());
+			w.write('\n');
+		}
+		w.write("  ]\n");
+		w.write("}\n");
+	}
+}
+
+private File segmentFile(final String suffix) {
+	return new File(directory, String.format(Locale.US, "%s-%04d%s", name, segmentIndex, suffix));
+}
+}
@@ -0,0 +1,44 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * {@link IQDecoder} emitting interleaved I, Q values left-aligned in 32 bits, lowest byte is zero.
+ */
+public final class IntIQDecoder extends IQDecoder<IntBuffer> {
+
+private final int[][] arrays;
+private final IntBuffer[] blocks;
+
+public IntIQDecoder(SwitchablePooledProcessor<ByteBuffer> source) {
+	this(source, DEFAULT_POOL_SIZE);
+}
+
+public IntIQDecoder(SwitchablePooledProcessor<ByteBuffer> source, int poolSize) {
+	super(source, poolSize);
+	arrays = new int[poolSize][];
+	blocks = new IntBuffer[poolSize];
+}
+
+@Override
+protected IntBuffer decode(final ByteBuffer block, final int packets, final boolean bigEndian, final int slot) {
+	final int values = packets * VALUES_PER_PACKET;
+	int[] out = arrays[slot];
+	if (out == null || out.length < values) {
+		out = arrays[slot] = new int[values];
+		blocks[slot] = IntBuffer.wrap(out);
+	}
+	int o = 0;
+	for (int p = 0; p < packets; ++p) {
+		int index = firstWord(p);
+		for (int i = 0; i < VALUES_PER_PACKET; ++i, index += 3) {
+			out[o++] = word(block, index, bigEndian) & 0xffffff00;
+		}
+	}
+	IntBuffer result = blocks[slot];
+	result.clear();
+	result.limit(values);
+	return result;
+}
+}
@@ -0,0 +1,90 @@
+package com.pavlus.hiqsdr;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of latency distribution, in nanoseconds.
+ * <p>
+ * Bucket {@code i} holds latencies from {@code 2^(i-1)} inclusive to {@code 2^i} exclusive,
+ * bucket 0 holds zero latencies, last bucket holds everything above.
+ * Percentiles are reported as upper bound of bucket, so they are precise within factor of 2.
+ */
+public final class LatencyHistogram {
+
+static final int BUCKETS = 40; // up to ~9 minutes
+
+private final long[] counts;
+private final long count;
+private final long total;
+private final long max;
+
+LatencyHistogram(final long[] counts, final long total, final long max) {
+	this.counts = counts;
+	long c = 0;
+	for (long n : counts) {
+		c += n;
+	}
+	this.count = c;
+	this.total = total;
+	this.max = max;
+}
+
+static int bucketOf(final long nanos) {
+	return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+}
+
+/**
+ * @return exclusive upper bound of bucket in nanoseconds.
+ */
+public static long bucketUpperBound(final int bucket) {
+	return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+}
+
+public int getBucketCount() {
+	return counts.length;
+}
+
+public long getCount(final int bucket) {
+	return counts[bucket];
+}
+
+/**
+ * @return number of recorded latencies.
+ */
+public long getCount() {
+	return count;
+}
+
+public long getMax() {
+	return max;
+}
+
+public double getMean() {
+	return count == 0 ? 0 : (double) total / count;
+}
+
+/**
+ * @param percentile from 0 to 100.
+ * @return upper bound of bucket containing given percentile, 0 if nothing was recorded.
+ */
+public long getPercentile(final double percentile) {
+	if (count == 0) {
+		return 0;
+	}
+	final long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+	long seen = 0;
+	for (int i = 0; i < counts.length; ++i) {
+		seen += counts[i];
+		if (seen >= rank && seen > 0) {
+			return Math.min(bucketUpperBound(i), max);
+		}
+	}
+	return max;
+}
+
+@Override
+public String toString() {
+	return "LatencyHistogram{count=" + count + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50)
+	       + ", p99=" + getPercentile(99) + ", max=" + max + ", buckets=" + Arrays.toString(counts) + '}';
+}
+}
@@ -0,0 +1,33 @@
+package com.pavlus.hiqsdr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies into power-of-two buckets.
+ * <p>
+ * Written by single thread with lazy sets, so recording costs no fences, and read by any thread.
+ */
+final class LatencyRecorder {
+
+private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+private final AtomicLong total = new AtomicLong();
+private final AtomicLong max = new AtomicLong();
+
+void record(final long nanos) {
+	final int bucket = LatencyHistogram.bucketOf(nanos);
+	counts.lazySet(bucket, counts.get(bucket) + 1);
+	total.lazySet(total.get() + nanos);
+	if (nanos > max.get()) {
+		max.lazySet(nanos);
+	}
+}
+
+LatencyHistogram snapshot() {
+	final long[] copy = new long[LatencyHistogram.BUCKETS];
+	for (int i = 0; i < copy.length; ++i) {
+		copy[i] = counts.get(i);
+	}
+	return new LatencyHistogram(copy, total.get(), max.get());
+}
+}
@@ -0,0 +1,31 @@
+package com.pavlus.hiqsdr;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named {@code prefix-N}.
+ */
+final class NamedThreadFactory implements ThreadFactory {
+
+private final String prefix;
+private final int priority;
+private final AtomicInteger counter = new AtomicInteger();
+
+NamedThreadFactory(String prefix) {
+	this(prefix, Thread.NORM_PRIORITY);
+}
+
+NamedThreadFactory(String prefix, int priority) {
+	this.prefix = prefix;
+	this.priority = priority;
+}
+
+@Override
+public Thread newThread(final Runnable r) {
+	Thread t = new Thread(r, prefix + '-' + counter.incrementAndGet());
+	t.setDaemon(true);
+	t.setPriority(priority);
+	return t;
+}
+}
@@ -0,0 +1,121 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of buffers waiting for one subscriber of {@link DirectDispatcher}, along with their arrival times.
+ * <p>
+ * Filled by receiving thread and drained by whichever thread delivers to subscriber.
+ * Buffers pushed out by {@link RXOptions.OverflowPolicy} or left in queue when it's closed
+ * are released to the pool right away, so they are reused for new packets.
+ */
+final class OverflowQueue {
+
+private final BufferPool pool;
+private final ByteBuffer[] buffers;
+private final long[] arrivals;
+private int head;
+private int count;
+private boolean closed;
+private long polledArrival;
+
+OverflowQueue(final BufferPool pool, final int capacity) {
+	this.pool = pool;
+	buffers = new ByteBuffer[capacity];
+	arrivals = new long[capacity];
+}
+
+/**
+ * Adds buffer to the tail, making room according to policy when queue is full.
+ * {@link RXOptions.OverflowPolicy#BLOCK} doesn't wait here, it drops arriving buffer instead,
+ * use {@link #awaitSpace(long)} first.
+ *
+ * @return number of buffers dropped.
+ */
+synchronized int offer(final ByteBuffer data, final long arrival, final RXOptions.OverflowPolicy policy) {
+	if (closed) {
+		pool.release(data);
+		return 0;
+	}
+	int dropped = 0;
+	if (count == buffers.length) {
+		switch (policy) {
+			case DROP_OLDEST:
+				pool.release(removeHead());
+				dropped = 1;
+				break;
+			case KEEP_LATEST:
+				dropped = count;
+				while (count > 0) {
+					pool.release(removeHead());
+				}
+				break;
+			default:
+				pool.release(data);
+				return 1;
+		}
+	}
+	final int tail = (head + count) % buffers.length;
+	buffers[tail] = data;
+	arrivals[tail] = arrival;
+	++count;
+	return dropped;
+}
+
+/**
+ * Waits until queue has room or is closed.
+ *
+ * @return false if queue is still full after timeout.
+ */
+synchronized boolean awaitSpace(final long nanos) throws InterruptedException {
+	if (count == buffers.length && !closed) {
+		TimeUnit.NANOSECONDS.timedWait(this, nanos);
+	}
+	return count < buffers.length || closed;
+}
+
+/**
+ * @return head of the queue, or {@code null} if it's empty. Its arrival time is kept for {@link #polledArrival()}.
+ */
+synchronized ByteBuffer poll() {
+	if (count == 0) {
+		return null;
+	}
+	if (count == buffers.length) {
+		notifyAll();
+	}
+	polledArrival = arrivals[head];
+	return removeHead();
+}
+
+/**
+ * @return arrival time of buffer returned by last {@link #poll()}, to be called by the same thread.
+ */
+synchronized long polledArrival() {
+	return polledArrival;
+}
+
+synchronized int size() {
+	return count;
+}
+
+/**
+ * Releases queued buffers, ones offered after that are released immediately.
+ */
+synchronized void close() {
+	closed = true;
+	while (count > 0) {
+		pool.release(removeHead());
+	}
+	notifyAll();
+}
+
+private ByteBuffer removeHead() {
+	final ByteBuffer data = buffers[head];
+	buffers[head] = null;
+	head = head + 1 == buffers.length ? 0 : head + 1;
+	--count;
+	return data;
+}
+}
@@ -0,0 +1,236 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base of processing stages which turn items of pooled upstream into own reusable items.
+ * <p>
+ * Every input is handed back to {@link SwitchablePooledProcessor} it came from right after
+ * {@link #process(Object)} returns, so stage must not keep references to it.
+ * Items emitted by stage are owned by it and get reused, subscribers which need data
+ * later than stage documents have to copy it.
+ * <p>
+ * Stage connects to its source when first subscriber requests data.
+ * Items can't wait for demand, as they are reused, so stage pushes every item to subscribers
+ * which have outstanding demand, and subscribers without demand miss it, see {@link #getMissed(Subscriber)}.
+ * Subscribers which must see every item should request {@link Long#MAX_VALUE}.
+ *
+ * @param <I> type of input items
+ * @param <O> type of emitted items
+ */
+public abstract class PooledStage<I, O> implements Processor<I, O> {
+
+private static final StageSubscription[] EMPTY = new StageSubscription[0];
+
+private final SwitchablePooledProcessor<I> source;
+private volatile StageSubscription[] subscriptions = EMPTY;
+private volatile Subscription upstream;
+private volatile boolean done;
+private boolean connected;
+
+/**
+ * @param source pooled publisher stage subscribes to and returns consumed items to,
+ *               or {@code null} if stage is going to be subscribed manually.
+ */
+protected PooledStage(SwitchablePooledProcessor<I> source) {
+	this.source = source;
+}
+
+/**
+ * Handles one input item, typically calling {@link #emit(Object)}.
+ */
+protected abstract void process(I item);
+
+/**
+ * Passes item to all current subscribers which requested more items.
+ */
+@SuppressWarnings("unchecked")
+protected final void emit(O item) {
+	for (StageSubscription s : subscriptions) {
+		if (s.take()) {
+			((Subscriber<? super O>) s.subscriber).onNext(item);
+		} else {
+			++s.missed;
+		}
+	}
+}
+
+/**
+ * @return items subscriber didn't get because it had no outstanding demand, or 0 if it isn't subscribed.
+ */
+public final long getMissed(final Subscriber<?> subscriber) {
+	for (StageSubscription s : subscriptions) {
+		if (s.subscriber == subscriber) {
+			return s.missed;
+		}
+	}
+	return 0;
+}
+
+protected final boolean hasSubscribers() {
+	return subscriptions.length != 0;
+}
+
+@Override
+public void subscribe(final Subscriber<? super O> s) {
+	StageSubscription subscription = new StageSubscription(this, s);
+	synchronized (this) {
+		StageSubscription[] current = subscriptions;
+		StageSubscription[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = subscription;
+		subscriptions = updated;
+	}
+	s.onSubscribe(subscription);
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	synchronized (this) {
+		if (done) {
+			s.cancel();
+			return;
+		}
+		upstream = s;
+	}
+	s.request(Long.MAX_VALUE);
+}
+
+@Override
+public void onNext(final I item) {
+	try {
+		if (!done) {
+			process(item);
+		}
+	} finally {
+		if (source != null) {
+			source.onNext(item);
+		}
+	}
+}
+
+@Override
+public void onError(final Throwable t) {
+	done = true;
+	for (StageSubscription s : terminate()) {
+		s.subscriber.onError(t);
+	}
+}
+
+@Override
+public void onComplete() {
+	done = true;
+	for (StageSubscription s : terminate()) {
+		s.subscriber.onComplete();
+	}
+}
+
+private synchronized StageSubscription[] terminate() {
+	StageSubscription[] current = subscriptions;
+	subscriptions = EMPTY;
+	return current;
+}
+
+/**
+ * Stops items from upstream, for stages which finish on their own, e.g. when closed.
+ */
+protected final void disconnect() {
+	final Subscription s;
+	synchronized (this) {
+		s = upstream;
+		upstream = null;
+		done = true;
+	}
+	if (s != null) {
+		s.cancel();
+	}
+}
+
+synchronized void connect() {
+	if (!connected && source != null && !done) {
+		connected = true;
+		source.subscribe(this);
+	}
+}
+
+void remove(final StageSubscription s) {
+	Subscription disconnect = null;
+	synchronized (this) {
+		StageSubscription[] current = subscriptions;
+		for (int i = 0; i < current.length; ++i) {
+			if (current[i] == s) {
+				StageSubscription[] updated = new StageSubscription[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, updated.length - i);
+				subscriptions = updated;
+				if (updated.length == 0 && source != null) {
+					disconnect = upstream;
+					upstream = null;
+					connected = false;
+				}
+				break;
+			}
+		}
+	}
+	if (disconnect != null) {
+		disconnect.cancel();
+	}
+}
+
+private static final class StageSubscription implements Subscription {
+	final PooledStage<?, ?> stage;
+	final Subscriber<?> subscriber;
+	final AtomicLong demand = new AtomicLong();
+	volatile boolean cancelled;
+	volatile long missed; // written by emitting thread
+
+	StageSubscription(final PooledStage<?, ?> stage, final Subscriber<?> subscriber) {
+		this.stage = stage;
+		this.subscriber = subscriber;
+	}
+
+	/**
+	 * @return whether subscriber requested one more item, which is counted as delivered.
+	 */
+	boolean take() {
+		long current;
+		do {
+			current = demand.get();
+			if (current == Long.MAX_VALUE) {
+				return true;
+			}
+			if (current == 0) {
+				return false;
+			}
+		} while (!demand.compareAndSet(current, current - 1));
+		return true;
+	}
+
+	@Override
+	public void request(final long n) {
+		if (cancelled) {
+			return;
+		}
+		if (n <= 0) {
+			cancel();
+			subscriber.onError(new IllegalArgumentException("Request must be positive, got " + n + '.'));
+			return;
+		}
+		long current;
+		do {
+			current = demand.get();
+		} while (!demand.compareAndSet(current, RXDispatcher.addDemand(current, n)));
+		stage.connect();
+	}
+
+	@Override
+	public void cancel() {
+		cancelled = true;
+		stage.remove(this);
+	}
+}
+}
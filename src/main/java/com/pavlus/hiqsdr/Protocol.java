@@ -24,6 +24,15 @@ public static final int MAX_SAMPLE_RATE = 960_000; // probably 1_920_000 works t
 public static final int RX_HEADER_SIZE = 2;
 public static final int RX_PAYLOAD_SIZE = 1440;
 static final int RX_PACKET_SIZE = RX_HEADER_SIZE + RX_PAYLOAD_SIZE; // 1442
+// header is 8-bit wrapping packet sequence number followed by status byte
+public static final int RX_SEQUENCE_OFFSET = 0;
+public static final int RX_STATUS_OFFSET = 1;
+// upper status bits are set by receiver: packets were lost right before this one / packet was synthesized to fill a gap
+public static final byte RX_STATUS_GAP = (byte) 0x80;
+public static final byte RX_STATUS_FILLED = 0x40;
+// payload is interleaved I and Q, each is 24 bit signed little-endian integer
+public static final int RX_SAMPLE_SIZE = 6;
+public static final int RX_SAMPLES_PER_PACKET = RX_PAYLOAD_SIZE / RX_SAMPLE_SIZE; // 240
 
 //------------------------------Packet sizes-----------------------------------
 static final int CMD_PACKET_SIZE = 2;
@@ -63,6 +72,12 @@ static int[] SAMPLE_RATES = {
 static byte[] SAMPLE_RATE_CODES = {1, 2, 3, 4, 5, 7, 9, 15, 19, 31, 39}; // decimation-1
 
 public static final int TX_SAMPLE_RATE = 48_000;
+// TX packet is 8-bit sequence number, zero byte, then interleaved I and Q, each is 16 bit signed little-endian integer
+public static final int TX_HEADER_SIZE = 2;
+public static final int TX_SAMPLE_SIZE = 4;
+public static final int TX_SAMPLES_PER_PACKET = 300;
+public static final int TX_PAYLOAD_SIZE = TX_SAMPLES_PER_PACKET * TX_SAMPLE_SIZE; // 1200
+public static final int TX_PACKET_SIZE = TX_HEADER_SIZE + TX_PAYLOAD_SIZE; // 1202
 
 
 
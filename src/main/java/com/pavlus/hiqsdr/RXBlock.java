@@ -0,0 +1,37 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of buffers emitted by receiver.
+ * <p>
+ * Block holds one or more whole packets ({@value Protocol#RX_HEADER_SIZE} + {@value Protocol#RX_PAYLOAD_SIZE} bytes each) back to back,
+ * starting at index 0 and ending at buffer's limit, so it has
+ * {@link #packetCount(ByteBuffer)} packets, i-th of them starting at {@link #packetOffset(int)}.
+ * Without {@link RXOptions#batch(int, long, java.util.concurrent.TimeUnit) batching} every block is a single packet.
+ */
+public final class RXBlock {
+
+private RXBlock() {}
+
+/**
+ * @return number of packets in block.
+ */
+public static int packetCount(ByteBuffer block) {
+	return block.limit() / Protocol.RX_PACKET_SIZE;
+}
+
+/**
+ * @return absolute index of i-th packet's header.
+ */
+public static int packetOffset(int i) {
+	return i * Protocol.RX_PACKET_SIZE;
+}
+
+/**
+ * @return absolute index of i-th packet's samples.
+ */
+public static int payloadOffset(int i) {
+	return i * Protocol.RX_PACKET_SIZE + Protocol.RX_HEADER_SIZE;
+}
+}
@@ -0,0 +1,100 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Delivers received buffers to subscribers of {@link RXProcessor}.
+ * <p>
+ * Subscribers may come and go at any time, {@link #publish(ByteBuffer, long)} is called only from receiving thread.
+ */
+abstract class RXDispatcher {
+
+final BufferPool pool;
+private final Runnable onDemand;
+private final RXOptions.OverflowPolicy overflowPolicy;
+private final int queueSize;
+
+RXDispatcher(final BufferPool pool, final Runnable onDemand, final RXOptions.OverflowPolicy overflowPolicy,
+             final int queueSize) {
+	this.pool = pool;
+	this.onDemand = onDemand;
+	this.overflowPolicy = overflowPolicy;
+	this.queueSize = queueSize;
+}
+
+/**
+ * @return subscription to be passed to {@link Subscriber#onSubscribe(Subscription)}.
+ */
+abstract Subscription add(Subscriber<? super ByteBuffer> subscriber);
+
+/**
+ * Shares buffer with current subscribers, every one of them gets own reference of it.
+ * Reference held by caller is left untouched.
+ *
+ * @param arrival {@link System#nanoTime()} when data was received, latency of delivery is measured from it.
+ */
+abstract void publish(ByteBuffer data, long arrival);
+
+/**
+ * Signals terminal event to all subscribers.
+ *
+ * @param error cause of failure or {@code null} on normal completion.
+ */
+abstract void terminate(Throwable error);
+
+/**
+ * @return number of subscribers data is published to.
+ */
+abstract int size();
+
+/**
+ * @return delivery statistics of current subscribers.
+ */
+abstract RXMetrics.SubscriberMetrics[] metrics();
+
+/**
+ * @return policy chosen by subscriber itself or receiver default.
+ */
+RXOptions.OverflowPolicy overflowPolicy(final Subscriber<?> subscriber) {
+	if (subscriber instanceof RXOptions.BoundedSubscriber) {
+		final RXOptions.OverflowPolicy policy = ((RXOptions.BoundedSubscriber<?>) subscriber).getOverflowPolicy();
+		if (policy != null) {
+			return policy;
+		}
+	}
+	return overflowPolicy;
+}
+
+/**
+ * @return queue size chosen by subscriber itself or receiver default.
+ */
+int queueSize(final Subscriber<?> subscriber) {
+	if (subscriber instanceof RXOptions.BoundedSubscriber) {
+		final int size = ((RXOptions.BoundedSubscriber<?>) subscriber).getQueueSize();
+		if (size > 0) {
+			return size;
+		}
+	}
+	return queueSize;
+}
+
+void demanded() {
+	onDemand.run();
+}
+
+static long addDemand(final long current, final long n) {
+	final long sum = current + n;
+	return sum < 0 ? Long.MAX_VALUE : sum;
+}
+
+static void signal(final Subscriber<? super ByteBuffer> subscriber, final Throwable error) {
+	if (error == null) {
+		subscriber.onComplete();
+	} else {
+		subscriber.onError(error);
+	}
+}
+}
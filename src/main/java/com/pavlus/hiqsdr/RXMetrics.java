@@ -0,0 +1,214 @@
+package com.pavlus.hiqsdr;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time copy of receiver counters, taken by polling {@link Device#getRXMetrics()}.
+ * <p>
+ * Counters are cumulative since receiver was created, rates are computed against earlier snapshot,
+ * see {@link #packetsPerSecond(RXMetrics)}.
+ * Counters are read one by one without stopping receiver, so they may be off by a few packets from each other.
+ */
+public final class RXMetrics {
+
+/**
+ * Delivery statistics of one subscriber.
+ */
+public static final class SubscriberMetrics {
+	private final String name;
+	private final RXOptions.OverflowPolicy overflowPolicy;
+	private final long queueDepth;
+	private final long dropped;
+	private final LatencyHistogram latency;
+
+	SubscriberMetrics(final Object subscriber, final RXOptions.OverflowPolicy overflowPolicy, final long queueDepth,
+	                  final long dropped, final LatencyHistogram latency) {
+		this.name = subscriber.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(subscriber));
+		this.overflowPolicy = overflowPolicy;
+		this.queueDepth = queueDepth;
+		this.dropped = dropped;
+		this.latency = latency;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public RXOptions.OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return blocks published but not yet delivered to this subscriber.
+	 */
+	public long getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return blocks this subscriber didn't get because its queue was full.
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	public long getDelivered() {
+		return latency.getCount();
+	}
+
+	/**
+	 * @return time from arrival of first datagram of block to return from {@code onNext}.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public String toString() {
+		return "SubscriberMetrics{" + name + ", overflowPolicy=" + overflowPolicy + ", queueDepth=" + queueDepth
+		       + ", dropped=" + dropped
+		       + ", latency=" + latency + '}';
+	}
+}
+
+final SocketAddress address;
+long timestamp;
+long packets;
+long bytes;
+long malformed;
+long late;
+long lost;
+long gaps;
+long filled;
+long dropped;
+long poolStarvations;
+int poolCapacity;
+int poolFree;
+List<SubscriberMetrics> subscribers = Collections.emptyList();
+
+RXMetrics(final SocketAddress address) {
+	this.address = address;
+}
+
+/**
+ * @return address and port of device receiver gets packets from, or multicast group it listens to.
+ */
+public SocketAddress getAddress() {
+	return address;
+}
+
+/**
+ * @return {@link System#nanoTime()} when snapshot was taken.
+ */
+public long getTimestamp() {
+	return timestamp;
+}
+
+/**
+ * @return well-formed datagrams received.
+ */
+public long getPackets() {
+	return packets;
+}
+
+/**
+ * @return bytes of well-formed datagrams received.
+ */
+public long getBytes() {
+	return bytes;
+}
+
+/**
+ * @return datagrams of wrong size.
+ */
+public long getMalformed() {
+	return malformed;
+}
+
+/**
+ * @return reordered or duplicated packets dropped for coming too late.
+ */
+public long getLate() {
+	return late;
+}
+
+/**
+ * @return packets missing in sequence, lost in network or in socket buffer.
+ */
+public long getLost() {
+	return lost;
+}
+
+/**
+ * @return number of discontinuities in sequence.
+ */
+public long getGaps() {
+	return gaps;
+}
+
+/**
+ * @return packets synthesized according to {@link RXOptions.GapPolicy}.
+ */
+public long getFilled() {
+	return filled;
+}
+
+/**
+ * @return packets dropped because there was no free buffer.
+ */
+public long getDropped() {
+	return dropped;
+}
+
+/**
+ * @return how many times receiver found pool empty.
+ */
+public long getPoolStarvations() {
+	return poolStarvations;
+}
+
+public int getPoolCapacity() {
+	return poolCapacity;
+}
+
+public int getPoolFree() {
+	return poolFree;
+}
+
+public int getPoolInUse() {
+	return poolCapacity - poolFree;
+}
+
+public List<SubscriberMetrics> getSubscribers() {
+	return subscribers;
+}
+
+public double packetsPerSecond(final RXMetrics previous) {
+	return perSecond(packets - previous.packets, previous);
+}
+
+public double bytesPerSecond(final RXMetrics previous) {
+	return perSecond(bytes - previous.bytes, previous);
+}
+
+private double perSecond(final long delta, final RXMetrics previous) {
+	final long nanos = timestamp - previous.timestamp;
+	return nanos <= 0 ? 0 : delta * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+}
+
+void setSubscribers(final SubscriberMetrics[] subscribers) {
+	this.subscribers = Collections.unmodifiableList(Arrays.asList(subscribers));
+}
+
+@Override
+public String toString() {
+	return "RXMetrics{address=" + address + ", packets=" + packets + ", bytes=" + bytes + ", malformed=" + malformed + ", late=" + late
+	       + ", lost=" + lost + ", gaps=" + gaps + ", filled=" + filled + ", dropped=" + dropped
+	       + ", poolStarvations=" + poolStarvations + ", poolCapacity=" + poolCapacity + ", poolFree=" + poolFree
+	       + ", subscribers=" + subscribers + '}';
+}
+}
@@ -0,0 +1,380 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning options of receiver processor returned by {@link DeviceControl#getRX(int, RXOptions)}.
+ * <p>
+ * Options are copied when processor is created, so one instance can be reused for several receivers.
+ */
+public final class RXOptions {
+
+/**
+ * Where receiver takes buffers for incoming packets from.
+ */
+public enum BufferSource {
+	/**
+	 * Slices of large direct buffers allocated by receiver itself.
+	 */
+	SLABS,
+	/**
+	 * Buffers fed by Publisher receiver is subscribed to, receiver requests more when it runs out of them.
+	 * Each buffer must hold a whole batch, {@code 1442 * batchPackets} bytes, and receiver of datagrams
+	 * needs one spare byte more to notice oversized ones; smaller buffers are ignored.
+	 */
+	UPSTREAM
+}
+
+/**
+ * How received packets are handed to subscribers.
+ */
+public enum Dispatch {
+	/**
+	 * Subscribers are called one after another on receiving thread.
+	 */
+	DIRECT,
+	/**
+	 * Packets are published into ring of slots, every subscriber consumes them on own thread
+	 * no faster than it requested. How far subscriber may lag behind is bounded by ring size.
+	 */
+	RING
+}
+
+/**
+ * What happens to packet arriving when subscriber already has full queue of undelivered ones.
+ * <p>
+ * Every subscriber gets packets no faster than it requested, ones it can't take yet wait in its own bounded queue,
+ * so lagging subscriber holds no more than queue size of buffers and doesn't delay the others,
+ * unless it chose {@link #BLOCK}. Packets lost this way are counted in {@link RXMetrics.SubscriberMetrics#getDropped()}.
+ */
+public enum OverflowPolicy {
+	/**
+	 * Receiving thread waits until subscriber takes packet, so all subscribers of receiver are slowed down
+	 * to its pace and packets are lost in socket buffer instead. For consumers which must see every
+	 * packet they can keep up with on average, e.g. recorders on fast storage.
+	 */
+	BLOCK,
+	/**
+	 * Arriving packet is dropped, subscriber gets contiguous stream up to the moment it fell behind.
+	 * With {@link Dispatch#RING} it works like {@link #DROP_OLDEST}, as ring slots are shared by subscribers.
+	 */
+	DROP_NEWEST,
+	/**
+	 * Oldest queued packet is dropped, subscriber keeps getting the most recent queue of packets.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Whole queue is dropped and subscriber continues from arriving packet, for displays and meters
+	 * which only care about current signal.
+	 */
+	KEEP_LATEST
+}
+
+/**
+ * Subscriber choosing own overflow handling instead of one set by {@link RXOptions#overflow(OverflowPolicy, int)}.
+ */
+public interface BoundedSubscriber<T> extends Subscriber<T> {
+
+	OverflowPolicy getOverflowPolicy();
+
+	/**
+	 * @return most packets waiting for this subscriber, or 0 for one set in receiver options.
+	 */
+	int getQueueSize();
+}
+
+/**
+ * What receiver does when packets are lost.
+ */
+public enum GapPolicy {
+	/**
+	 * Packet following the gap is marked with {@link Protocol#RX_STATUS_GAP}.
+	 */
+	FLAG,
+	/**
+	 * Missing packets are replaced by silence marked with {@link Protocol#RX_STATUS_FILLED}.
+	 */
+	ZERO_FILL,
+	/**
+	 * Missing packets are replaced by copies of last received one marked with {@link Protocol#RX_STATUS_FILLED}.
+	 */
+	REPEAT_LAST
+}
+
+/**
+ * How receiving thread waits for datagrams.
+ */
+public enum WaitStrategy {
+	/**
+	 * Thread sleeps in selector and drains socket when it becomes readable.
+	 */
+	SELECT,
+	/**
+	 * Thread sleeps in blocking read, socket receive buffer is enlarged to ride out hiccups.
+	 * Partial batch is emitted when next datagram arrives after its latency has passed.
+	 */
+	BLOCKING,
+	/**
+	 * Thread polls socket and yields when it's empty, trading CPU for wakeup latency.
+	 */
+	YIELD,
+	/**
+	 * Thread polls socket non-stop, occupying whole core for lowest latency and jitter.
+	 */
+	BUSY_SPIN
+}
+
+/**
+ * Receive buffer for {@link WaitStrategy#BLOCKING} when not set explicitly: 100 ms at highest sample rate.
+ */
+public static final int DEFAULT_BLOCKING_RECEIVE_BUFFER =
+		Protocol.MAX_SAMPLE_RATE / 10 / Protocol.RX_SAMPLES_PER_PACKET * Protocol.RX_PACKET_SIZE;
+
+/**
+ * Subscriber queue size of {@link Dispatch#DIRECT} dispatch when not set explicitly.
+ * {@link Dispatch#RING} uses whole ring by default.
+ */
+public static final int DEFAULT_QUEUE_SIZE = 64;
+
+BufferSource bufferSource = BufferSource.SLABS;
+int packetsPerSlab = 256;
+int initialSlabs = 4;
+int maxSlabs = 64;
+Dispatch dispatch = Dispatch.DIRECT;
+int ringSize = 1024;
+ThreadFactory subscriberThreads;
+OverflowPolicy overflowPolicy; // null until chosen, so that replay can default to blocking
+int queueSize;
+int batchPackets = 1;
+long batchLatency;
+GapPolicy gapPolicy = GapPolicy.FLAG;
+WaitStrategy waitStrategy = WaitStrategy.SELECT;
+ThreadFactory receiveThreads;
+Executor receiveExecutor;
+int receiveBuffer;
+EventLoopGroup eventLoop;
+
+public RXOptions() {}
+
+RXOptions(RXOptions other) {
+	bufferSource = other.bufferSource;
+	packetsPerSlab = other.packetsPerSlab;
+	initialSlabs = other.initialSlabs;
+	maxSlabs = other.maxSlabs;
+	dispatch = other.dispatch;
+	ringSize = other.ringSize;
+	subscriberThreads = other.subscriberThreads;
+	overflowPolicy = other.overflowPolicy;
+	queueSize = other.queueSize;
+	batchPackets = other.batchPackets;
+	batchLatency = other.batchLatency;
+	gapPolicy = other.gapPolicy;
+	waitStrategy = other.waitStrategy;
+	receiveThreads = other.receiveThreads;
+	receiveExecutor = other.receiveExecutor;
+	receiveBuffer = other.receiveBuffer;
+	eventLoop = other.eventLoop;
+}
+
+/**
+ * Selects source of receive buffers, {@link BufferSource#SLABS} by default.
+ */
+public RXOptions bufferSource(BufferSource source) {
+	if (source == null) {
+		throw new IllegalArgumentException("Buffer source must be specified.");
+	}
+	bufferSource = source;
+	return this;
+}
+
+/**
+ * Sets geometry of {@link BufferSource#SLABS} pool.
+ *
+ * @param packetsPerSlab number of buffers carved out of one slab.
+ * @param initialSlabs   slabs allocated up front.
+ * @param maxSlabs       limit of slabs pool may grow to, packets are dropped when all of them are in use.
+ * @throws IllegalArgumentException
+ */
+public RXOptions slabs(int packetsPerSlab, int initialSlabs, int maxSlabs) {
+	if (packetsPerSlab <= 0 || initialSlabs < 0 || maxSlabs < Math.max(1, initialSlabs)) {
+		throw new IllegalArgumentException("Slab pool needs positive slab size and maxSlabs >= initialSlabs.");
+	}
+	this.packetsPerSlab = packetsPerSlab;
+	this.initialSlabs = initialSlabs;
+	this.maxSlabs = maxSlabs;
+	return this;
+}
+
+/**
+ * Selects how packets are delivered to subscribers, {@link Dispatch#DIRECT} by default.
+ */
+public RXOptions dispatch(Dispatch dispatch) {
+	if (dispatch == null) {
+		throw new IllegalArgumentException("Dispatch mode must be specified.");
+	}
+	this.dispatch = dispatch;
+	return this;
+}
+
+/**
+ * Switches to {@link Dispatch#RING} dispatch.
+ *
+ * @param size number of slots, power of 2. Also bounds how far subscriber may lag behind.
+ * @param threadFactory factory for subscriber threads, or {@code null} for default one.
+ * @throws IllegalArgumentException
+ */
+public RXOptions ring(int size, ThreadFactory threadFactory) {
+	if (size <= 0 || Integer.bitCount(size) != 1) {
+		throw new IllegalArgumentException("Ring size must be positive power of 2.");
+	}
+	dispatch = Dispatch.RING;
+	ringSize = size;
+	subscriberThreads = threadFactory;
+	return this;
+}
+
+/**
+ * Sets how subscribers falling behind are treated, unless they are {@link BoundedSubscriber}s.
+ * By default oldest packets are dropped from queue of {@link #DEFAULT_QUEUE_SIZE} packets
+ * or from whole ring, except for {@link ReplayProcessor} which blocks.
+ *
+ * @param queueSize most packets waiting for one subscriber, or 0 for default of dispatch mode.
+ *                  Ring dispatch can't queue more than ring size.
+ * @throws IllegalArgumentException
+ */
+public RXOptions overflow(OverflowPolicy policy, int queueSize) {
+	if (policy == null || queueSize < 0) {
+		throw new IllegalArgumentException("Overflow policy must be specified and queue size must not be negative.");
+	}
+	overflowPolicy = policy;
+	this.queueSize = queueSize;
+	return this;
+}
+
+/**
+ * Makes receiver emit blocks of several packets instead of one buffer per packet, see {@link RXBlock}.
+ * <p>
+ * All datagrams queued in socket are drained at once, block is emitted when it's full,
+ * or when its first packet waited for {@code maxLatency}. With zero latency block is emitted
+ * as soon as socket has nothing more to read.
+ *
+ * @param maxPackets packets in one block, 1 by default.
+ * @param maxLatency how long block may wait for more packets, 0 by default.
+ * @param unit       unit of maxLatency.
+ * @throws IllegalArgumentException
+ */
+public RXOptions batch(int maxPackets, long maxLatency, TimeUnit unit) {
+	if (maxPackets <= 0 || maxLatency < 0) {
+		throw new IllegalArgumentException("Batch needs positive size and non-negative latency.");
+	}
+	batchPackets = maxPackets;
+	batchLatency = unit.toNanos(maxLatency);
+	return this;
+}
+
+/**
+ * Selects how lost packets are handled, {@link GapPolicy#FLAG} by default.
+ * Filling keeps sample count continuous for DSP downstream.
+ */
+public RXOptions gapPolicy(GapPolicy policy) {
+	if (policy == null) {
+		throw new IllegalArgumentException("Gap policy must be specified.");
+	}
+	gapPolicy = policy;
+	return this;
+}
+
+/**
+ * Selects how receiving thread waits for datagrams, {@link WaitStrategy#SELECT} by default.
+ */
+public RXOptions waitStrategy(WaitStrategy strategy) {
+	if (strategy == null) {
+		throw new IllegalArgumentException("Wait strategy must be specified.");
+	}
+	waitStrategy = strategy;
+	return this;
+}
+
+/**
+ * Runs receiving loop on dedicated daemon thread {@code hiqsdr-rx-N} instead of shared io scheduler.
+ *
+ * @param priority priority of the thread, from {@link Thread#MIN_PRIORITY} to {@link Thread#MAX_PRIORITY}.
+ * @throws IllegalArgumentException
+ */
+public RXOptions receiveThread(int priority) {
+	if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) {
+		throw new IllegalArgumentException("Thread priority is out of range.");
+	}
+	return receiveThread(new NamedThreadFactory("hiqsdr-rx", priority));
+}
+
+/**
+ * Runs receiving loop on dedicated thread created by given factory, e.g. one pinning thread to a core.
+ */
+public RXOptions receiveThread(ThreadFactory threadFactory) {
+	receiveThreads = threadFactory;
+	receiveExecutor = null;
+	return this;
+}
+
+/**
+ * Submits receiving loop to given executor. Loop occupies its thread until receiver is finished.
+ */
+public RXOptions receiveExecutor(Executor executor) {
+	receiveExecutor = executor;
+	receiveThreads = null;
+	return this;
+}
+
+/**
+ * Sets {@code SO_RCVBUF} of receiving socket, 0 leaves system default,
+ * except for {@link WaitStrategy#BLOCKING} which uses {@link #DEFAULT_BLOCKING_RECEIVE_BUFFER}.
+ *
+ * @throws IllegalArgumentException
+ */
+public RXOptions receiveBuffer(int bytes) {
+	if (bytes < 0) {
+		throw new IllegalArgumentException("Receive buffer size must not be negative.");
+	}
+	receiveBuffer = bytes;
+	return this;
+}
+
+/**
+ * Serves receiver from shared event loop instead of own thread, wait strategy and receive thread are ignored then.
+ *
+ * @param group loops to use, or {@code null} for own thread.
+ */
+public RXOptions eventLoop(EventLoopGroup group) {
+	eventLoop = group;
+	return this;
+}
+
+RXDispatcher createDispatcher(BufferPool pool, Runnable onDemand) {
+	final OverflowPolicy policy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.DROP_OLDEST;
+	switch (dispatch) {
+		case RING:
+			ThreadFactory threads = subscriberThreads != null
+			                        ? subscriberThreads
+			                        : new NamedThreadFactory("hiqsdr-rx-subscriber");
+			return new RingDispatcher(pool, onDemand, policy, queueSize == 0 ? ringSize : queueSize,
+			                          ringSize, threads);
+		default:
+			return new DirectDispatcher(pool, onDemand, policy,
+			                            queueSize == 0 ? DEFAULT_QUEUE_SIZE : queueSize);
+	}
+}
+
+BufferPool createPool(int bufferSize) {
+	switch (bufferSource) {
+		case UPSTREAM:
+			return new UpstreamBufferPool(bufferSize);
+		default:
+			return new SlabBufferPool(bufferSize, packetsPerSlab, initialSlabs, maxSlabs);
+	}
+}
+}
@@ -6,18 +6,22 @@ import org.reactivestreams.Subscription;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.DatagramChannel;
-import java.util.ArrayDeque;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.Collection;
-import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
 /**
@@ -29,42 +33,122 @@ final class RXProcessor implements SwitchablePooledProcessor<ByteBuffer>, Runnab
 private final static ByteBuffer START_RECEIVING_CMD = Protocol.START_RECEIVING_CMD.asReadOnlyBuffer();
 private final static ByteBuffer STOP_RECEIVING_CMD = Protocol.STOP_RECEIVING_CMD.asReadOnlyBuffer();
 private final DatagramChannel channel;
+// channel itself, or adapter receiving from any sender when channel isn't connected
+private ReadableByteChannel input;
+private final Selector selector;
 // todo: ReferenceQueue for tracking 'lost' buffers?
-private final BlockingQueue<ByteBuffer> pool;
-private final Collection<Subscriber<ByteBuffer>> subscribers;
+private final BufferPool pool;
+private final RXDispatcher dispatcher;
 private final Collection<Subscription> subscriptions;
-private final Map<ByteBuffer, AtomicInteger> bufferUsageCount;
+private final BlockAssembler assembler;
+private final RXOptions.WaitStrategy waitStrategy;
+private final ThreadFactory receiveThreads;
+private final Executor receiveExecutor;
+private final EventLoopGroup eventLoop;
+private final SocketAddress address;
 private volatile boolean done = false;
-private Disposable scheduledWorker;
+private volatile long poolStarvations; // written by receiving thread
+private boolean started;
+private Runnable onFinish; // guarded by this
 
-private RXProcessor() throws IOException {
+private RXProcessor(final RXOptions options, final SocketAddress address) throws IOException {
+	this.address = address;
+	waitStrategy = options.waitStrategy;
+	receiveThreads = options.receiveThreads;
+	receiveExecutor = options.receiveExecutor;
+	eventLoop = options.eventLoop;
 	channel = DatagramChannel.open();
-	pool = new LinkedBlockingQueue<>(); // ???: or make ArrayBlockingQueue with large size?
-	subscribers = new ArrayDeque<>();
-	subscriptions = new ArrayDeque<>();
-	bufferUsageCount = new WeakHashMap<>();
+	input = channel;
+	int receiveBuffer = options.receiveBuffer;
+	if (eventLoop == null && waitStrategy == RXOptions.WaitStrategy.SELECT) {
+		channel.configureBlocking(false);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+	} else {
+		selector = null;
+		if (waitStrategy == RXOptions.WaitStrategy.BLOCKING && eventLoop == null && receiveBuffer == 0) {
+			receiveBuffer = RXOptions.DEFAULT_BLOCKING_RECEIVE_BUFFER;
+		}
+		channel.configureBlocking(waitStrategy == RXOptions.WaitStrategy.BLOCKING && eventLoop == null);
+	}
+	if (receiveBuffer > 0) {
+		channel.socket().setReceiveBufferSize(receiveBuffer);
+	}
+	// spare byte lets oversized datagrams be noticed
+	pool = options.createPool(options.batchPackets * Protocol.RX_PACKET_SIZE + 1);
+	dispatcher = options.createDispatcher(pool, new Runnable() {
+		@Override
+		public void run() {
+			start();
+		}
+	});
+	subscriptions = new CopyOnWriteArrayList<>();
+	assembler = new BlockAssembler(pool, new BlockAssembler.Output() {
+		@Override
+		public void onEmptyPool() {
+			RXProcessor.this.onEmptyPool();
+		}
+
+		@Override
+		public void publish(final ByteBuffer block, final long arrival) {
+			publishNext(block, arrival);
+		}
+	}, options);
 }
 
 RXProcessor(final SocketAddress addr) throws IOException {
-	this();
-	channel.socket().connect(addr);
+	this(addr, new RXOptions());
 }
 
+RXProcessor(final SocketAddress addr, final RXOptions options) throws IOException {
+	this(new RXOptions(options), addr);
+	channel.socket().connect(addr);
+}
 
 RXProcessor(final InetAddress addr, final int port) throws IOException {
-	this();
+	this(addr, port, new RXOptions());
+}
+
+RXProcessor(final InetAddress addr, final int port, final RXOptions options) throws IOException {
+	this(new RXOptions(options), new InetSocketAddress(addr, port));
 	channel.socket().connect(addr, port);
 }
 
+/**
+ * Receives packets sent to multicast group, e.g. by {@link StreamServer}, instead of device.
+ * Such receiver can't switch device on and off, so {@link #switchOn()} and {@link #switchOff()} do nothing.
+ */
+RXProcessor(final InetSocketAddress group, final NetworkInterface networkInterface, final RXOptions options)
+		throws IOException {
+	this(new RXOptions(options), group);
+	channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+	channel.bind(new InetSocketAddress(group.getPort()));
+	channel.join(group.getAddress(), networkInterface);
+	input = new ReadableByteChannel() {
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+			final int position = dst.position();
+			return channel.receive(dst) == null ? 0 : dst.position() - position;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	};
+}
+
 @Override
 public SwitchablePooledProcessor switchOn() {
 	try {
-		synchronized (START_RECEIVING_CMD) {
-			START_RECEIVING_CMD.position(0);
-			channel.write(START_RECEIVING_CMD);
-		}
+		assembler.tracker().resync();
+		send(START_RECEIVING_CMD);
 	} catch (IOException e) {
-		e.printStackTrace();
 		onError(e);
 	}
 	return this;
@@ -73,21 +157,26 @@ public SwitchablePooledProcessor switchOn() {
 @Override
 public SwitchablePooledProcessor switchOff() {
 	try {
-		synchronized (STOP_RECEIVING_CMD) {
-			STOP_RECEIVING_CMD.position(0);
-			channel.write(STOP_RECEIVING_CMD);
-		}
+		send(STOP_RECEIVING_CMD);
 	} catch (IOException e) {
-		e.printStackTrace();
 		onError(e);
 	}
 	return this;
 }
 
+private void send(final ByteBuffer cmd) throws IOException {
+	if (!channel.isConnected()) {
+		return;
+	}
+	synchronized (cmd) {
+		cmd.position(0);
+		channel.write(cmd);
+	}
+}
+
 @Override
-public void subscribe(final Subscriber s) {
-	subscribers.add(s);
-	s.onSubscribe(new RXSubscription(s));
+public void subscribe(final Subscriber<? super ByteBuffer> s) {
+	s.onSubscribe(dispatcher.add(s));
 }
 
 @Override
@@ -95,139 +184,246 @@ public void onSubscribe(final Subscription s) {
 	subscriptions.add(s);
 }
 
+/**
+ * Returns buffer previously emitted by this processor, or adds new one in {@link RXOptions.BufferSource#UPSTREAM} mode.
+ */
 @Override
 public void onNext(final ByteBuffer byteBuffer) {
-	if (bufferUsageCount.get(byteBuffer).decrementAndGet() <= 0) {
-		pool.offer(byteBuffer);
-	}
+	pool.release(byteBuffer);
 }
 
 @Override
 public void onError(final Throwable t) {
-	t.printStackTrace();
-	for (Subscriber<ByteBuffer> s : subscribers) {
-		s.onError(t);
-	}
-	done = true;
-	try {
-		close();
-	} catch (IOException e) {
-		e.printStackTrace();
-		throw new RuntimeException(e);
-	} finally {
-		cleanup();
+	if (finish(t)) {
+		t.printStackTrace();
 	}
 }
 
 @Override
 public void onComplete() {
-	for (Subscriber<ByteBuffer> s : subscribers) {
-		s.onComplete();
+	finish(null);
+}
+
+@Override
+public void close() throws IOException {
+	finish(new IllegalStateException("close() called before Publisher finished!"));
+}
+
+/**
+ * Signals terminal event to subscribers and releases resources, only first call has effect.
+ *
+ * @return false if processor has already finished.
+ */
+private boolean finish(final Throwable error) {
+	final Runnable action;
+	synchronized (this) {
+		if (done) {
+			return false;
+		}
+		done = true;
+		action = onFinish;
 	}
-	done = true;
+	dispatcher.terminate(error);
 	try {
-		close();
+		if (channel.isConnected()) {
+			send(STOP_RECEIVING_CMD);
+		}
+		channel.close();
+		if (selector != null) {
+			selector.close();
+		}
 	} catch (IOException e) {
 		e.printStackTrace();
-		onError(e);
 	} finally {
 		cleanup();
 	}
+	if (action != null) {
+		action.run();
+	}
+	return true;
 }
 
-
-@Override
-public void close() throws IOException {
-	switchOff();
-	channel.close();
-	if (!done) {
-		for (Subscriber<ByteBuffer> s : subscribers) {
-			s.onError(new IllegalStateException("close() called before Publisher finished!"));
+/**
+ * Sets action run once processor finishes, or runs it right away if processor has already finished.
+ */
+void onFinish(final Runnable action) {
+	synchronized (this) {
+		if (!done) {
+			onFinish = action;
+			return;
 		}
 	}
+	action.run();
 }
 
 @Override
 public void run() {
 	try {
-		while (!done) {
-			ByteBuffer buff = getBuffer();
-			int cnt = channel.read(buff);
-			if (cnt == Protocol.RX_PACKET_SIZE) {
-				publishNext(buff);
-			} else {
-				// todo: maybe just skip?
-				throw new IOException("Received corrupted packet."
-				                      + " Size: " + cnt
-				                      + ", but" + Protocol.RX_PACKET_SIZE
-				                      + " expected.");
-			}
+		switch (waitStrategy) {
+			case BLOCKING:
+				receiveBlocking();
+				break;
+			case YIELD:
+			case BUSY_SPIN:
+				receivePolling(waitStrategy == RXOptions.WaitStrategy.YIELD);
+				break;
+			default:
+				receiveSelecting();
 		}
 		onComplete();
-	} catch (IOException e) {
-		e.printStackTrace();
+	} catch (IOException | ClosedSelectorException e) {
 		onError(e);
+	} finally {
+		assembler.release();
 	}
 }
 
-private ByteBuffer getBuffer() {
-	if (pool.isEmpty()) {
-		onEmptyPool();
+/**
+ * Waits for socket to become readable, then drains all queued datagrams into current block without blocking.
+ */
+private void receiveSelecting() throws IOException {
+	while (!done) {
+		if (assembler.hasPending()) {
+			long wait = assembler.deadline() - System.nanoTime();
+			if (wait > 0) {
+				// round up, select(0) would wait forever
+				selector.select(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+			} else {
+				selector.selectNow();
+			}
+		} else {
+			selector.select();
+		}
+		// the only key is left in selected set: adding it back allocates set entry on every wakeup,
+		// while selector waits for readable socket either way
+		while (!done && assembler.read(input)) {
+			// drain socket
+		}
+		assembler.flush(System.nanoTime());
 	}
-	ByteBuffer buff = pool.poll();
-	return buff;
 }
 
-private void publishNext(ByteBuffer data) {
-	if (done) return;
-	AtomicInteger cnt = bufferUsageCount.get(data);
-	for (Subscriber<ByteBuffer> s : subscribers) {
-		cnt.incrementAndGet();
-		s.onNext(data);
+/**
+ * Sleeps in read, closing channel wakes it up.
+ */
+private void receiveBlocking() throws IOException {
+	while (!done) {
+		assembler.read(input);
+		assembler.flush(System.nanoTime());
 	}
 }
 
+private void receivePolling(final boolean yield) throws IOException {
+	while (!done) {
+		if (!assembler.read(input)) {
+			assembler.flush(System.nanoTime());
+			if (yield) {
+				Thread.yield();
+			}
+		}
+	}
+}
+
+private void publishNext(ByteBuffer data, long arrival) {
+	if (!done) {
+		dispatcher.publish(data, arrival);
+	}
+	// receiver keeps own reference until all subscribers got the buffer
+	pool.release(data);
+}
+
 protected void onEmptyPool() {
+	++poolStarvations;
 	for (Subscription s : subscriptions) {
 		s.request(1);
 	}
 }
 
-private void start() {
-	if (scheduledWorker == null && !done) {
-		scheduledWorker = Schedulers.io().scheduleDirect(this);
-	}
+/**
+ * @return counters of this receiver, cheap enough to be polled every second.
+ */
+RXMetrics getMetrics() {
+	final RXMetrics m = new RXMetrics(address);
+	final SequenceTracker tracker = assembler.tracker();
+	m.timestamp = System.nanoTime();
+	m.packets = assembler.packets();
+	m.bytes = assembler.bytes();
+	m.malformed = assembler.malformed();
+	m.late = tracker.late();
+	m.lost = tracker.lost();
+	m.gaps = tracker.gaps();
+	m.filled = assembler.filled();
+	m.dropped = assembler.dropped();
+	m.poolStarvations = poolStarvations;
+	m.poolCapacity = pool.capacity();
+	m.poolFree = pool.available();
+	m.setSubscribers(dispatcher.metrics());
+	return m;
 }
 
-private void unsubscribe(RXSubscription s) {
-	subscribers.remove(s.subscriber);
+private synchronized void start() {
+	if (started || done) {
+		return;
+	}
+	started = true;
+	if (eventLoop != null) {
+		try {
+			eventLoop.register(channel, new LoopHandler());
+		} catch (IOException e) {
+			onError(e);
+		}
+	} else if (receiveExecutor != null) {
+		receiveExecutor.execute(this);
+	} else if (receiveThreads != null) {
+		receiveThreads.newThread(this).start();
+	} else {
+		Schedulers.io().scheduleDirect(this);
+	}
 }
 
 private void cleanup() {
 	for (Subscription s : subscriptions) {
 		s.cancel();
 	}
-	subscribers.clear();
 }
 
-private final class RXSubscription implements Subscription {
-	Subscriber subscriber;
-	RXProcessor publisher;
+/**
+ * Does the work of receiving loop when receiver is served by {@link EventLoopGroup}.
+ */
+private final class LoopHandler implements EventLoopGroup.Handler {
+	@Override
+	public void onReadable() throws IOException {
+		for (int i = 0; i < EventLoopGroup.MAX_READS_PER_WAKEUP && !done && assembler.read(input); ++i) {
+			// drain socket, leaving the rest to next wakeup
+		}
+	}
+
+	@Override
+	public boolean hasDeadline() {
+		return assembler.hasPending();
+	}
+
+	@Override
+	public long deadline() {
+		return assembler.deadline();
+	}
 
-	RXSubscription(Subscriber<ByteBuffer> subscriber) {
-		this.subscriber = subscriber;
-		this.publisher = RXProcessor.this;
+	@Override
+	public void onDeadline(final long now) {
+		assembler.flush(now);
 	}
 
 	@Override
-	public void request(final long n) {
-		if (publisher.done) return;
-		publisher.start();
+	public void onError(final Throwable error) {
+		RXProcessor.this.onError(error);
 	}
 
 	@Override
-	public void cancel() {
-		publisher.unsubscribe(this);
+	public void onClosed() {
+		assembler.release();
+		if (!done) {
+			RXProcessor.this.onError(new IOException("Event loop was closed."));
+		}
 	}
 }
 }
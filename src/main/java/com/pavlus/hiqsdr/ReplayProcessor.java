@@ -0,0 +1,328 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+import static com.pavlus.hiqsdr.Protocol.RX_HEADER_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_PAYLOAD_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_FILLED;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_GAP;
+
+/**
+ * Plays back segments written by {@link IQRecorder}, emitting blocks shaped exactly like receiver does.
+ * <p>
+ * Data files are memory-mapped, headers are synthesized with running sequence numbers,
+ * which skip over packets recorded as dropped, packets following them are marked as gap
+ * and filled packets are marked as such, just like receiver does.
+ * Playback is paced by sample count at recorded sample rate multiplied by {@code speed},
+ * or runs as fast as subscribers return buffers with {@link #UNTHROTTLED} speed.
+ * {@link #switchOff()} pauses playback, {@link #switchOn()} resumes it.
+ * <p>
+ * Buffer pool, dispatch and batching are configured by {@link RXOptions}, like for receiver.
+ * When pool runs dry playback waits instead of dropping packets, and unless options choose another
+ * overflow policy it waits for subscribers falling behind too, see {@link RXOptions.OverflowPolicy#BLOCK}.
+ */
+public final class ReplayProcessor implements SwitchablePooledProcessor<ByteBuffer>, Runnable, Closeable {
+
+public static final double UNTHROTTLED = 0;
+private static final long POOL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+private static final long PAUSE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+private final List<File> segments;
+private final double speed;
+private final int defaultSampleRate;
+private final BufferPool pool;
+private final RXDispatcher dispatcher;
+private final Collection<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+private final int batchSize;
+private volatile boolean paused;
+private volatile boolean done;
+private Disposable scheduledWorker;
+private volatile long emittedPackets;
+private volatile long frequency;
+private volatile int sampleRate;
+
+/**
+ * Plays segments {@code name-0000}, {@code name-0001}, ... found in directory.
+ *
+ * @param speed playback speed relative to real time, or {@link #UNTHROTTLED}.
+ */
+public ReplayProcessor(File directory, String name, double speed, RXOptions options) {
+	this(findSegments(directory, name), speed, 0, options);
+}
+
+/**
+ * @param dataFiles         data files to play one after another.
+ * @param speed             playback speed relative to real time, or {@link #UNTHROTTLED}.
+ * @param defaultSampleRate rate for data files without sidecar.
+ */
+public ReplayProcessor(List<File> dataFiles, double speed, int defaultSampleRate, RXOptions options) {
+	if (dataFiles.isEmpty()) {
+		throw new IllegalArgumentException("Nothing to replay.");
+	}
+	if (speed < 0) {
+		throw new IllegalArgumentException("Speed must be positive or UNTHROTTLED.");
+	}
+	final RXOptions opts = new RXOptions(options);
+	if (opts.overflowPolicy == null) {
+		opts.overflow(RXOptions.OverflowPolicy.BLOCK, opts.queueSize);
+	}
+	segments = new ArrayList<>(dataFiles);
+	this.speed = speed;
+	this.defaultSampleRate = defaultSampleRate;
+	batchSize = opts.batchPackets * RX_PACKET_SIZE;
+	pool = opts.createPool(batchSize);
+	dispatcher = opts.createDispatcher(pool, new Runnable() {
+		@Override
+		public void run() {
+			start();
+		}
+	});
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOn() {
+	paused = false;
+	return this;
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOff() {
+	paused = true;
+	return this;
+}
+
+@Override
+public void subscribe(final Subscriber<? super ByteBuffer> s) {
+	s.onSubscribe(dispatcher.add(s));
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	subscriptions.add(s);
+}
+
+/**
+ * Returns buffer previously emitted by this processor, or adds new one in {@link RXOptions.BufferSource#UPSTREAM} mode.
+ */
+@Override
+public void onNext(final ByteBuffer byteBuffer) {
+	pool.release(byteBuffer);
+}
+
+@Override
+public void onError(final Throwable t) {
+	if (finish(t)) {
+		t.printStackTrace();
+	}
+}
+
+@Override
+public void onComplete() {
+	finish(null);
+}
+
+@Override
+public void close() throws IOException {
+	finish(new IllegalStateException("close() called before Publisher finished!"));
+}
+
+public long getEmittedPackets() {
+	return emittedPackets;
+}
+
+/**
+ * @return center frequency of segment being played, as recorded in its sidecar, or 0 if it's unknown.
+ */
+public long getFrequency() {
+	return frequency;
+}
+
+/**
+ * @return sample rate of segment being played, or 0 before playback starts.
+ */
+public int getSampleRate() {
+	return sampleRate;
+}
+
+@Override
+public void run() {
+	try {
+		long seq = 0;
+		for (File segment : segments) {
+			if (done) {
+				break;
+			}
+			seq = play(segment, seq);
+		}
+		onComplete();
+	} catch (IOException e) {
+		onError(e);
+	}
+}
+
+/**
+ * @return sequence number for the next packet.
+ */
+private long play(final File dataFile, long seq) throws IOException {
+	final SegmentMetadata meta = SegmentMetadata.forDataFile(dataFile);
+	final int sampleRate = meta != null ? meta.sampleRate : defaultSampleRate;
+	if (sampleRate <= 0 && speed != UNTHROTTLED) {
+		throw new IOException("Sample rate of " + dataFile + " is unknown.");
+	}
+	this.sampleRate = sampleRate;
+	frequency = meta != null ? meta.frequency : 0;
+	final double packetNanos = speed == UNTHROTTLED ? 0
+	                           : RX_SAMPLES_PER_PACKET * 1e9 / sampleRate / speed;
+
+	try (FileChannel file = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+		final long size = file.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(dataFile + " is too large to map.");
+		}
+		final MappedByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		int packets = (int) (size / RX_PAYLOAD_SIZE);
+		if (meta != null && meta.samples >= 0) {
+			// data file keeps its mapped size when recorder couldn't truncate it
+			packets = (int) Math.min(packets, meta.samples / RX_SAMPLES_PER_PACKET);
+		}
+		int nextDrop = 0;
+		int nextFill = 0;
+		long fillEnd = -1;
+		boolean gap = false;
+		ByteBuffer block = null;
+		long base = System.nanoTime();
+		for (int p = 0; p < packets && !done; ++p) {
+			if (paused) {
+				final long pausedAt = System.nanoTime();
+				while (paused && !done) {
+					LockSupport.parkNanos(this, PAUSE_PARK_NANOS);
+				}
+				base += System.nanoTime() - pausedAt;
+			}
+			if (packetNanos > 0) {
+				final long wait = base + (long) (p * packetNanos) - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+				}
+			}
+
+			if (meta != null) {
+				while (nextDrop < meta.droppedAt.length && meta.droppedAt[nextDrop] <= p) {
+					seq += meta.droppedCount[nextDrop++];
+					gap = true;
+				}
+				if (nextFill < meta.filledAt.length && meta.filledAt[nextFill] <= p) {
+					fillEnd = meta.filledAt[nextFill] + meta.filledCount[nextFill++];
+				}
+			}
+			if (block == null) {
+				block = nextBlock();
+				if (block == null) {
+					break;
+				}
+			}
+			final int pos = block.position();
+			block.put(pos, (byte) seq++);
+			block.put(pos + 1, (byte) ((p < fillEnd ? RX_STATUS_FILLED : 0) | (gap ? RX_STATUS_GAP : 0)));
+			gap = false;
+			Buffers.copy(data, p * RX_PAYLOAD_SIZE, block, pos + RX_HEADER_SIZE, RX_PAYLOAD_SIZE);
+			block.position(pos + RX_PACKET_SIZE);
+			++emittedPackets;
+			if (block.position() + RX_PACKET_SIZE > block.limit()) {
+				block.flip();
+				publishNext(block);
+				block = null;
+			}
+		}
+		if (block != null) {
+			block.flip();
+			if (block.hasRemaining() && !done) {
+				publishNext(block);
+			} else {
+				pool.release(block);
+			}
+		}
+	}
+	return seq;
+}
+
+/**
+ * Waits for free buffer.
+ *
+ * @return buffer limited to block size, or null if playback was finished meanwhile.
+ */
+private ByteBuffer nextBlock() {
+	ByteBuffer buff;
+	while ((buff = pool.acquire()) == null) {
+		for (Subscription s : subscriptions) {
+			s.request(1);
+		}
+		if (done) {
+			return null;
+		}
+		LockSupport.parkNanos(this, POOL_WAIT_NANOS);
+	}
+	buff.limit(Math.min(buff.capacity(), batchSize));
+	return buff;
+}
+
+private void publishNext(final ByteBuffer block) {
+	if (!done) {
+		dispatcher.publish(block, System.nanoTime());
+	}
+	pool.release(block);
+}
+
+private synchronized void start() {
+	if (scheduledWorker == null && !done) {
+		scheduledWorker = Schedulers.io().scheduleDirect(this);
+	}
+}
+
+private boolean finish(final Throwable error) {
+	synchronized (this) {
+		if (done) {
+			return false;
+		}
+		done = true;
+	}
+	dispatcher.terminate(error);
+	for (Subscription s : subscriptions) {
+		s.cancel();
+	}
+	return true;
+}
+
+private static List<File> findSegments(final File directory, final String name) {
+	List<File> files = new ArrayList<>();
+	for (int i = 0; ; ++i) {
+		File f = new File(directory, String.format(Locale.US, "%s-%04d%s", name, i, IQRecorder.DATA_SUFFIX));
+		if (!f.isFile()) {
+			break;
+		}
+		files.add(f);
+	}
+	return files;
+}
+}
@@ -0,0 +1,335 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+
+/**
+ * Stage converting receiver stream to arbitrary sample rate, emitting interleaved I, Q floats
+ * scaled like {@link FloatIQDecoder} output.
+ * <p>
+ * Conversion runs in three steps, each skipped when ratio doesn't need it:
+ * <ol>
+ * <li>{@value #CIC_STAGES}-stage CIC decimator works on raw 24-bit integers and brings rate
+ * down to 4..8 times output rate at cost of a few additions per sample;</li>
+ * <li>FIR compensating CIC droop decimates by 2, cutting everything above half of its output rate;</li>
+ * <li>polyphase filter resamples by remaining rational ratio {@code L/M}, it also does all the work
+ * when output rate is close to or above input rate.</li>
+ * </ol>
+ * All filter states are kept between blocks, so output is continuous across packets.
+ * Nothing is allocated per block: output blocks are taken round-robin from pool like {@link IQDecoder}
+ * ones and only grow when longer batch arrives.
+ */
+public final class Resampler extends PooledStage<ByteBuffer, FloatBuffer> {
+
+static final int CIC_STAGES = 4;
+/**
+ * Limit of polyphase branches, output rates needing more can't be reached from given input rate.
+ */
+public static final int MAX_PHASES = 4096;
+private static final float SCALE = 1f / (1 << 23);
+// Blackman window transition width is about 5.5 / length of filter
+private static final double BLACKMAN_TRANSITION = 5.5;
+
+private final int inputRate;
+private final int outputRate;
+private final int poolSize;
+
+// CIC, decimation 1 means bypassed
+private final int cicDecimation;
+private final float cicScale;
+private final long[] integrators = new long[2 * CIC_STAGES];
+private final long[] combs = new long[2 * CIC_STAGES];
+private int cicCount;
+
+// compensating FIR, null means bypassed; delay line holds every sample twice so taps never wrap
+private final float[] firTaps;
+private final float[] firLine;
+private int firPosition;
+private boolean firOdd;
+
+// polyphase, taps of phase p are at [p * phaseTaps, (p + 1) * phaseTaps), newest sample first
+private final int interpolation;
+private final int decimation;
+private final int phaseTaps;
+private final float[] phases;
+private final float[] line;
+private int position;
+private int phase;
+
+private final float[][] arrays;
+private final FloatBuffer[] blocks;
+private int next;
+private float[] out;
+private int produced;
+
+/**
+ * @param inputRate  sample rate receiver is configured for.
+ * @param outputRate wanted sample rate.
+ * @throws IllegalArgumentException if ratio needs more than {@link #MAX_PHASES} polyphase branches.
+ */
+public Resampler(SwitchablePooledProcessor<ByteBuffer> source, int inputRate, int outputRate) {
+	this(source, inputRate, outputRate, IQDecoder.DEFAULT_POOL_SIZE);
+}
+
+public Resampler(SwitchablePooledProcessor<ByteBuffer> source, int inputRate, int outputRate, int poolSize) {
+	super(source);
+	if (inputRate <= 0 || outputRate <= 0 || poolSize <= 0) {
+		throw new IllegalArgumentException("Rates and pool size must be positive.");
+	}
+	this.inputRate = inputRate;
+	this.outputRate = outputRate;
+	this.poolSize = poolSize;
+
+	final int r = inputRate / (4 * outputRate);
+	cicDecimation = r >= 2 ? r : 1;
+	// output grows by R^N, it must fit into long along with 24-bit input
+	if (24 + CIC_STAGES * (32 - Integer.numberOfLeadingZeros(cicDecimation - 1)) > 63) {
+		throw new IllegalArgumentException("Output rate " + outputRate + " is too low for input rate " + inputRate + '.');
+	}
+	cicScale = (float) (SCALE / Math.pow(cicDecimation, CIC_STAGES));
+	final double cicRate = inputRate / (double) cicDecimation;
+
+	final int firDecimation = cicRate >= 4 * outputRate ? 2 : 1;
+	if (firDecimation == 2) {
+		firTaps = compensator(cicDecimation, cicRate, outputRate);
+		firLine = new float[4 * firTaps.length];
+	} else {
+		firTaps = null;
+		firLine = null;
+	}
+
+	// remaining ratio out / (in / (R * F)) = L / M
+	final long l = (long) outputRate * cicDecimation * firDecimation;
+	final long m = inputRate;
+	final long gcd = gcd(l, m);
+	if (l / gcd > MAX_PHASES) {
+		throw new IllegalArgumentException("Ratio " + outputRate + '/' + inputRate + " needs too many filter phases.");
+	}
+	interpolation = (int) (l / gcd);
+	decimation = (int) (m / gcd);
+	final double polyRate = cicRate / firDecimation;
+	// transition fifth of narrower rate wide, ending at its Nyquist, so nothing aliases
+	final double band = Math.min(polyRate, outputRate);
+	phaseTaps = Math.max(8, (int) Math.ceil(BLACKMAN_TRANSITION * polyRate / (0.2 * band)));
+	phases = polyphase(interpolation, phaseTaps, 0.4 * band / (polyRate * interpolation));
+	line = new float[4 * phaseTaps];
+
+	arrays = new float[poolSize][];
+	blocks = new FloatBuffer[poolSize];
+}
+
+private static long gcd(long a, long b) {
+	while (b != 0) {
+		final long t = a % b;
+		a = b;
+		b = t;
+	}
+	return a;
+}
+
+/**
+ * Low-pass cut at quarter of CIC output rate, with passband below half of output rate
+ * raised by inverse of CIC response. Designed by sampling desired response and windowing.
+ */
+private static float[] compensator(final int cicDecimation, final double cicRate, final int outputRate) {
+	final double transition = cicRate / 2 - outputRate;
+	int length = (int) Math.ceil(BLACKMAN_TRANSITION * cicRate / transition) | 1;
+	length = Math.max(length, 15);
+	final int grid = 1024;
+	final double pass = 0.5 * outputRate / cicRate;
+	final double[] desired = new double[grid + 1];
+	for (int i = 0; i <= grid; ++i) {
+		final double f = 0.5 * i / grid; // of CIC output rate
+		if (f < 0.25) {
+			desired[i] = f < pass ? 1 / cicResponse(cicDecimation, f) : 1 / cicResponse(cicDecimation, pass);
+		}
+	}
+	final float[] taps = new float[length];
+	final int center = length / 2;
+	double sum = 0;
+	for (int n = 0; n < length; ++n) {
+		final int t = n - center;
+		double h = 0;
+		for (int i = 0; i <= grid; ++i) {
+			final double weight = i == 0 || i == grid ? 0.5 : 1;
+			h += weight * desired[i] * Math.cos(Math.PI * i * t / grid);
+		}
+		h /= grid;
+		final double x = 2 * Math.PI * n / (length - 1);
+		h *= 0.42 - 0.5 * Math.cos(x) + 0.08 * Math.cos(2 * x);
+		taps[n] = (float) h;
+		sum += h;
+	}
+	// unity gain at DC
+	final double dc = 1 / sum;
+	for (int n = 0; n < length; ++n) {
+		taps[n] *= dc;
+	}
+	return taps;
+}
+
+/**
+ * @param f frequency as fraction of CIC output rate.
+ * @return CIC gain normalized to 1 at DC.
+ */
+private static double cicResponse(final int r, final double f) {
+	if (r == 1 || f == 0) {
+		return 1;
+	}
+	return Math.pow(Math.abs(Math.sin(Math.PI * f) / (r * Math.sin(Math.PI * f / r))), CIC_STAGES);
+}
+
+/**
+ * Windowed-sinc prototype at {@code L} times input rate, split into phases with gain {@code L}.
+ */
+private static float[] polyphase(final int phases, final int taps, final double cutoff) {
+	final int length = phases * taps;
+	final float[] out = new float[length];
+	final double[] h = new double[length];
+	double sum = 0;
+	for (int n = 0; n < length; ++n) {
+		final double t = n - (length - 1) / 2.0;
+		final double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+		final double x = 2 * Math.PI * n / (length - 1);
+		h[n] = sinc * (0.42 - 0.5 * Math.cos(x) + 0.08 * Math.cos(2 * x));
+		sum += h[n];
+	}
+	final double gain = phases / sum;
+	for (int p = 0; p < phases; ++p) {
+		for (int k = 0; k < taps; ++k) {
+			out[p * taps + k] = (float) (h[p + k * phases] * gain);
+		}
+	}
+	return out;
+}
+
+public int getInputRate() {
+	return inputRate;
+}
+
+public int getOutputRate() {
+	return outputRate;
+}
+
+@Override
+protected void process(final ByteBuffer block) {
+	final int packets = RXBlock.packetCount(block);
+	if (packets == 0) {
+		return;
+	}
+	prepare(packets * RX_SAMPLES_PER_PACKET);
+	final boolean bigEndian = block.order() == ByteOrder.BIG_ENDIAN;
+	for (int p = 0; p < packets; ++p) {
+		int index = IQDecoder.firstWord(p);
+		for (int i = 0; i < RX_SAMPLES_PER_PACKET; ++i, index += 6) {
+			final int re = IQDecoder.word(block, index, bigEndian) >> 8;
+			final int im = IQDecoder.word(block, index + 3, bigEndian) >> 8;
+			if (cicDecimation == 1) {
+				decimate(re * SCALE, im * SCALE);
+			} else {
+				integrate(re, im);
+			}
+		}
+	}
+	if (produced > 0 && hasSubscribers()) {
+		final FloatBuffer result = blocks[next];
+		next = next + 1 == poolSize ? 0 : next + 1;
+		result.clear();
+		result.limit(2 * produced);
+		emit(result);
+	}
+}
+
+/**
+ * Makes sure output block of current slot fits all samples block of {@code samples} can produce.
+ */
+private void prepare(final int samples) {
+	final long most = (long) samples * interpolation / ((long) decimation * cicDecimation * (firTaps == null ? 1 : 2))
+	                  + interpolation / decimation + 2;
+	final int values = (int) (2 * most);
+	float[] o = arrays[next];
+	if (o == null || o.length < values) {
+		o = arrays[next] = new float[values];
+		blocks[next] = FloatBuffer.wrap(o);
+	}
+	out = o;
+	produced = 0;
+}
+
+private void integrate(final long re, final long im) {
+	final long[] s = integrators;
+	long a = re;
+	long b = im;
+	for (int i = 0; i < CIC_STAGES; ++i) {
+		a = s[2 * i] += a;
+		b = s[2 * i + 1] += b;
+	}
+	if (++cicCount < cicDecimation) {
+		return;
+	}
+	cicCount = 0;
+	final long[] c = combs;
+	for (int i = 0; i < CIC_STAGES; ++i) {
+		final long pa = c[2 * i];
+		final long pb = c[2 * i + 1];
+		c[2 * i] = a;
+		c[2 * i + 1] = b;
+		a -= pa;
+		b -= pb;
+	}
+	decimate(a * cicScale, b * cicScale);
+}
+
+private void decimate(final float re, final float im) {
+	if (firTaps == null) {
+		resample(re, im);
+		return;
+	}
+	final int length = firTaps.length;
+	int p = firPosition - 1;
+	if (p < 0) {
+		p = length - 1;
+	}
+	firPosition = p;
+	firLine[2 * p] = firLine[2 * (p + length)] = re;
+	firLine[2 * p + 1] = firLine[2 * (p + length) + 1] = im;
+	firOdd = !firOdd;
+	if (firOdd) {
+		return;
+	}
+	float a = 0;
+	float b = 0;
+	for (int k = 0, j = 2 * p; k < length; ++k, j += 2) {
+		a += firTaps[k] * firLine[j];
+		b += firTaps[k] * firLine[j + 1];
+	}
+	resample(a, b);
+}
+
+private void resample(final float re, final float im) {
+	int p = position - 1;
+	if (p < 0) {
+		p = phaseTaps - 1;
+	}
+	position = p;
+	line[2 * p] = line[2 * (p + phaseTaps)] = re;
+	line[2 * p + 1] = line[2 * (p + phaseTaps) + 1] = im;
+	final float[] o = out;
+	while (phase < interpolation) {
+		float a = 0;
+		float b = 0;
+		for (int k = 0, t = phase * phaseTaps, j = 2 * p; k < phaseTaps; ++k, ++t, j += 2) {
+			a += phases[t] * line[j];
+			b += phases[t] * line[j + 1];
+		}
+		o[2 * produced] = a;
+		o[2 * produced + 1] = b;
+		++produced;
+		phase += decimation;
+	}
+	phase -= interpolation;
+}
+}
@@ -0,0 +1,286 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, multiple consumers ring of preallocated slots.
+ * <p>
+ * Receiving thread only writes slot and advances published sequence, it never waits for subscribers.
+ * Every subscriber has own thread and cursor, which advances no further than requested by subscriber.
+ * Part of ring between cursor and published sequence is subscriber's queue, bounded by its queue size.
+ * When it's full, producer either waits for subscriber ({@link RXOptions.OverflowPolicy#BLOCK}),
+ * or moves its cursor forward and releases buffers it skipped.
+ * <p>
+ * Slot is claimed by CAS on cursor, so each published reference is either delivered
+ * or released exactly once, no matter who gets to it first.
+ */
+final class RingDispatcher extends RXDispatcher {
+
+private static final RingSubscription[] EMPTY = new RingSubscription[0];
+private static final long DETACHED = Long.MAX_VALUE;
+private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+private final ByteBuffer[] slots;
+private final long[] arrivals;
+private final int mask;
+private final ThreadFactory threadFactory;
+private final AtomicLong published = new AtomicLong();
+private volatile Thread gated; // producer waiting for blocking subscriber
+private final Queue<RingSubscription> pending = new ConcurrentLinkedQueue<>();
+// owned by producer, volatile copy is kept for size()
+private RingSubscription[] active = EMPTY;
+private volatile RingSubscription[] snapshot = EMPTY;
+private volatile boolean cancellations;
+private volatile Throwable terminal;
+private volatile boolean terminated;
+
+RingDispatcher(final BufferPool pool, final Runnable onDemand, final RXOptions.OverflowPolicy overflowPolicy,
+               final int queueSize, final int size, final ThreadFactory threadFactory) {
+	super(pool, onDemand, overflowPolicy, queueSize);
+	if (size <= 0 || Integer.bitCount(size) != 1) {
+		throw new IllegalArgumentException("Ring size must be positive power of 2.");
+	}
+	slots = new ByteBuffer[size];
+	arrivals = new long[size];
+	mask = size - 1;
+	this.threadFactory = threadFactory;
+}
+
+@Override
+Subscription add(final Subscriber<? super ByteBuffer> subscriber) {
+	RingSubscription s = new RingSubscription(subscriber, overflowPolicy(subscriber),
+	                                          Math.min(queueSize(subscriber), slots.length));
+	pending.offer(s);
+	s.thread = threadFactory.newThread(s);
+	s.thread.start();
+	return s;
+}
+
+@Override
+void publish(final ByteBuffer data, final long arrival) {
+	if (!pending.isEmpty() || cancellations) {
+		updateActive();
+	}
+	final RingSubscription[] current = active;
+	final long seq = published.get();
+	for (RingSubscription s : current) {
+		s.makeRoom(seq);
+	}
+	slots[(int) seq & mask] = data;
+	arrivals[(int) seq & mask] = arrival;
+	pool.retain(data, current.length);
+	published.set(seq + 1);
+	for (RingSubscription s : current) {
+		if (s.waiting) {
+			LockSupport.unpark(s.thread);
+		}
+	}
+}
+
+@Override
+void terminate(final Throwable error) {
+	terminal = error;
+	terminated = true;
+	final Thread producer = gated;
+	if (producer != null) {
+		LockSupport.unpark(producer);
+	}
+	for (RingSubscription s : snapshot) {
+		LockSupport.unpark(s.thread);
+	}
+	for (RingSubscription s : pending) {
+		LockSupport.unpark(s.thread);
+	}
+}
+
+@Override
+int size() {
+	return snapshot.length;
+}
+
+@Override
+RXMetrics.SubscriberMetrics[] metrics() {
+	final RingSubscription[] current = snapshot;
+	final long seq = published.get();
+	final RXMetrics.SubscriberMetrics[] metrics = new RXMetrics.SubscriberMetrics[current.length];
+	for (int i = 0; i < current.length; ++i) {
+		final RingSubscription s = current[i];
+		final long depth = seq - s.cursor.get();
+		metrics[i] = new RXMetrics.SubscriberMetrics(s.subscriber, s.policy, Math.max(0, depth), s.dropped,
+		                                             s.latency.snapshot());
+	}
+	return metrics;
+}
+
+private void updateActive() {
+	cancellations = false;
+	final long seq = published.get();
+	RingSubscription[] updated = active;
+	for (RingSubscription s : updated) {
+		if (s.cancelled) {
+			s.skipUntil(seq);
+			s.cursor.set(DETACHED);
+			updated = without(updated, s);
+		}
+	}
+	RingSubscription s;
+	while ((s = pending.poll()) != null) {
+		if (!s.cancelled) {
+			s.cursor.set(seq);
+			updated = Arrays.copyOf(updated, updated.length + 1);
+			updated[updated.length - 1] = s;
+		}
+	}
+	active = updated;
+	snapshot = updated;
+}
+
+private static RingSubscription[] without(final RingSubscription[] array, final RingSubscription s) {
+	for (int i = 0; i < array.length; ++i) {
+		if (array[i] == s) {
+			RingSubscription[] updated = new RingSubscription[array.length - 1];
+			System.arraycopy(array, 0, updated, 0, i);
+			System.arraycopy(array, i + 1, updated, i, updated.length - i);
+			return updated;
+		}
+	}
+	return array;
+}
+
+private final class RingSubscription implements Subscription, Runnable {
+	final Subscriber<? super ByteBuffer> subscriber;
+	final RXOptions.OverflowPolicy policy;
+	final int limit;
+	final AtomicLong cursor = new AtomicLong(DETACHED); // next sequence to deliver
+	final AtomicLong demand = new AtomicLong();
+	volatile boolean waiting;
+	volatile boolean cancelled;
+	volatile long dropped; // written by producer only
+	final LatencyRecorder latency = new LatencyRecorder(); // written by subscriber thread
+	Thread thread;
+
+	RingSubscription(final Subscriber<? super ByteBuffer> subscriber, final RXOptions.OverflowPolicy policy,
+	                 final int limit) {
+		this.subscriber = subscriber;
+		this.policy = policy;
+		this.limit = limit;
+	}
+
+	/**
+	 * Called by producer before publishing {@code seq}, makes sure it fits into queue of this subscriber.
+	 */
+	void makeRoom(final long seq) {
+		if (seq - cursor.get() < limit) {
+			return;
+		}
+		if (policy == RXOptions.OverflowPolicy.BLOCK) {
+			gated = Thread.currentThread();
+			while (seq - cursor.get() >= limit && !cancelled && !terminated) {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+			gated = null;
+		}
+		// blocking subscriber may still be full here if it was cancelled or ring terminated
+		final int skipped = skipUntil(policy == RXOptions.OverflowPolicy.KEEP_LATEST ? seq : seq - limit + 1);
+		if (skipped > 0) {
+			dropped += skipped;
+		}
+	}
+
+	@Override
+	public void request(final long n) {
+		if (n <= 0) {
+			return;
+		}
+		long current;
+		do {
+			current = demand.get();
+		} while (!demand.compareAndSet(current, addDemand(current, n)));
+		LockSupport.unpark(thread);
+		demanded();
+	}
+
+	@Override
+	public void cancel() {
+		cancelled = true;
+		cancellations = true;
+		LockSupport.unpark(thread);
+		final Thread producer = gated;
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!cancelled) {
+			if (deliverNext()) {
+				continue;
+			}
+			if (terminated) {
+				skipUntil(published.get());
+				signal(subscriber, terminal);
+				return;
+			}
+			waiting = true;
+			if (!hasWork()) {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+			waiting = false;
+		}
+	}
+
+	private boolean hasWork() {
+		return cancelled || terminated || (cursor.get() < published.get() && demand.get() > 0);
+	}
+
+	private boolean deliverNext() {
+		final long cur = cursor.get();
+		if (cur >= published.get() || demand.get() <= 0) {
+			return false;
+		}
+		final ByteBuffer data = slots[(int) cur & mask];
+		final long arrival = arrivals[(int) cur & mask];
+		if (cursor.compareAndSet(cur, cur + 1)) {
+			final Thread producer = gated;
+			if (producer != null) {
+				LockSupport.unpark(producer);
+			}
+			if (demand.get() != Long.MAX_VALUE) {
+				demand.decrementAndGet();
+			}
+			subscriber.onNext(data);
+			latency.record(System.nanoTime() - arrival);
+		}
+		return true;
+	}
+
+	/**
+	 * Releases references of undelivered slots preceding {@code seq}.
+	 *
+	 * @return number of skipped slots.
+	 */
+	int skipUntil(final long seq) {
+		int skipped = 0;
+		long cur;
+		while ((cur = cursor.get()) < seq) {
+			final ByteBuffer data = slots[(int) cur & mask];
+			if (cursor.compareAndSet(cur, cur + 1)) {
+				pool.release(data);
+				++skipped;
+			}
+		}
+		return skipped;
+	}
+}
+}
@@ -0,0 +1,93 @@
+package com.pavlus.hiqsdr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fields of {@link IQRecorder} sidecar needed for replaying a segment.
+ * <p>
+ * Sidecar is parsed with patterns matching exactly what recorder writes, it's not a general JSON parser.
+ */
+final class SegmentMetadata {
+
+private static final Pattern SAMPLE_RATE = Pattern.compile("\"core:sample_rate\"\\s*:\\s*([0-9.]+)");
+private static final Pattern SAMPLE_COUNT = Pattern.compile("\"hiqsdr:sample_count\"\\s*:\\s*(\\d+)");
+private static final Pattern FREQUENCY = Pattern.compile("\"core:frequency\"\\s*:\\s*([0-9.]+)");
+private static final Pattern ANNOTATION = Pattern.compile(
+		"\\{[^{}]*\"core:sample_start\"\\s*:\\s*(\\d+)[^{}]*\"hiqsdr:(dropped|filled)_packets\"\\s*:\\s*(\\d+)[^{}]*}");
+
+final int sampleRate;
+final long frequency;
+final long samples; // recorded samples, -1 if not known
+// packet index and number of packets, ordered by index
+final long[] droppedAt;
+final int[] droppedCount;
+final long[] filledAt;
+final int[] filledCount;
+
+private SegmentMetadata(int sampleRate, long frequency, long samples, long[] droppedAt, int[] droppedCount,
+                        long[] filledAt, int[] filledCount) {
+	this.sampleRate = sampleRate;
+	this.frequency = frequency;
+	this.samples = samples;
+	this.droppedAt = droppedAt;
+	this.droppedCount = droppedCount;
+	this.filledAt = filledAt;
+	this.filledCount = filledCount;
+}
+
+/**
+ * @param dataFile segment data file, sidecar is looked up next to it.
+ * @return metadata or {@code null} if there is no sidecar.
+ */
+static SegmentMetadata forDataFile(final File dataFile) throws IOException {
+	String path = dataFile.getPath();
+	if (path.endsWith(IQRecorder.DATA_SUFFIX)) {
+		path = path.substring(0, path.length() - IQRecorder.DATA_SUFFIX.length());
+	}
+	final File meta = new File(path + IQRecorder.META_SUFFIX);
+	if (!meta.isFile()) {
+		return null;
+	}
+	return parse(new String(Files.readAllBytes(meta.toPath()), StandardCharsets.UTF_8));
+}
+
+static SegmentMetadata parse(final String json) {
+	Matcher m = SAMPLE_RATE.matcher(json);
+	if (!m.find()) {
+		throw new IllegalArgumentException("Sample rate is missing in metadata.");
+	}
+	final int sampleRate = (int) Double.parseDouble(m.group(1));
+	m = FREQUENCY.matcher(json);
+	final long frequency = m.find() ? (long) Double.parseDouble(m.group(1)) : 0;
+	m = SAMPLE_COUNT.matcher(json);
+	final long samples = m.find() ? Long.parseLong(m.group(1)) : -1;
+
+	long[] droppedAt = new long[0];
+	int[] droppedCount = new int[0];
+	long[] filledAt = new long[0];
+	int[] filledCount = new int[0];
+	m = ANNOTATION.matcher(json);
+	while (m.find()) {
+		final long packet = Long.parseLong(m.group(1)) / Protocol.RX_SAMPLES_PER_PACKET;
+		final int count = Integer.parseInt(m.group(3));
+		if ("dropped".equals(m.group(2))) {
+			droppedAt = Arrays.copyOf(droppedAt, droppedAt.length + 1);
+			droppedCount = Arrays.copyOf(droppedCount, droppedCount.length + 1);
+			droppedAt[droppedAt.length - 1] = packet;
+			droppedCount[droppedCount.length - 1] = count;
+		} else {
+			filledAt = Arrays.copyOf(filledAt, filledAt.length + 1);
+			filledCount = Arrays.copyOf(filledCount, filledCount.length + 1);
+			filledAt[filledAt.length - 1] = packet;
+			filledCount[filledCount.length - 1] = count;
+		}
+	}
+	return new SegmentMetadata(sampleRate, frequency, samples, droppedAt, droppedCount, filledAt, filledCount);
+}
+}
@@ -0,0 +1,62 @@
+package com.pavlus.hiqsdr;
+
+/**
+ * Follows 8-bit packet sequence numbers, counting lost and late packets.
+ * <p>
+ * Jump forward by less than {@code 256 - REORDER_WINDOW} is taken for loss,
+ * number a little behind expected one is taken for late (reordered or duplicated) packet.
+ * Fed by single thread, counters may be read from any.
+ */
+final class SequenceTracker {
+
+static final int REORDER_WINDOW = 16;
+
+private int expected = -1;
+private volatile boolean resync = true;
+private volatile long lost;
+private volatile long gaps;
+private volatile long late;
+
+/**
+ * @return number of packets lost right before this one, or -1 if packet came too late and has to be dropped.
+ */
+int accept(final int sequence) {
+	if (resync) {
+		resync = false;
+		expected = (sequence + 1) & 0xff;
+		return 0;
+	}
+	final int missing = (sequence - expected) & 0xff;
+	if (missing == 0) {
+		expected = (sequence + 1) & 0xff;
+		return 0;
+	}
+	if (missing >= 256 - REORDER_WINDOW) {
+		++late;
+		return -1;
+	}
+	lost += missing;
+	++gaps;
+	expected = (sequence + 1) & 0xff;
+	return missing;
+}
+
+/**
+ * Makes next packet start new sequence, e.g. after receiver was switched off.
+ */
+void resync() {
+	resync = true;
+}
+
+long lost() {
+	return lost;
+}
+
+long gaps() {
+	return gaps;
+}
+
+long late() {
+	return late;
+}
+}
@@ -0,0 +1,44 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * {@link IQDecoder} emitting interleaved I, Q values truncated to 16 upper bits.
+ */
+public final class ShortIQDecoder extends IQDecoder<ShortBuffer> {
+
+private final short[][] arrays;
+private final ShortBuffer[] blocks;
+
+public ShortIQDecoder(SwitchablePooledProcessor<ByteBuffer> source) {
+	this(source, DEFAULT_POOL_SIZE);
+}
+
+public ShortIQDecoder(SwitchablePooledProcessor<ByteBuffer> source, int poolSize) {
+	super(source, poolSize);
+	arrays = new short[poolSize][];
+	blocks = new ShortBuffer[poolSize];
+}
+
+@Override
+protected ShortBuffer decode(final ByteBuffer block, final int packets, final boolean bigEndian, final int slot) {
+	final int values = packets * VALUES_PER_PACKET;
+	short[] out = arrays[slot];
+	if (out == null || out.length < values) {
+		out = arrays[slot] = new short[values];
+		blocks[slot] = ShortBuffer.wrap(out);
+	}
+	int o = 0;
+	for (int p = 0; p < packets; ++p) {
+		int index = firstWord(p);
+		for (int i = 0; i < VALUES_PER_PACKET; ++i, index += 3) {
+			out[o++] = (short) (word(block, index, bigEndian) >> 16);
+		}
+	}
+	ShortBuffer result = blocks[slot];
+	result.clear();
+	result.limit(values);
+	return result;
+}
+}
@@ -0,0 +1,146 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link BufferPool} of equally sized slices carved out of large direct {@link ByteBuffer} slabs.
+ * <p>
+ * Each slice has a fixed index, reference counts live in one {@link AtomicIntegerArray}
+ * and buffers are mapped back to indices through identity table preallocated for {@code maxSlabs},
+ * so nothing is allocated once slabs are created. New slab is carved only when all slices are in use.
+ */
+final class SlabBufferPool implements BufferPool {
+
+private final int sliceSize;
+private final int slicesPerSlab;
+private final ByteBuffer[] slices;
+private final AtomicIntegerArray refs; // 0 means free
+// open addressing identity table: buffer -> index
+private final ByteBuffer[] keys;
+private final int[] indices;
+private final int mask;
+private volatile int capacity;
+private int cursor; // only a hint where to start looking for free slice
+
+SlabBufferPool(int sliceSize, int slicesPerSlab, int initialSlabs, int maxSlabs) {
+	if (sliceSize <= 0 || slicesPerSlab <= 0 || initialSlabs < 0 || maxSlabs < Math.max(1, initialSlabs)) {
+		throw new IllegalArgumentException("Invalid slab pool geometry.");
+	}
+	this.sliceSize = sliceSize;
+	this.slicesPerSlab = slicesPerSlab;
+	final int maxSlices = slicesPerSlab * maxSlabs;
+	slices = new ByteBuffer[maxSlices];
+	refs = new AtomicIntegerArray(maxSlices);
+	final int tableSize = Integer.highestOneBit(maxSlices * 2 - 1) << 1;
+	keys = new ByteBuffer[tableSize];
+	indices = new int[tableSize];
+	mask = tableSize - 1;
+	for (int i = 0; i < initialSlabs; ++i) {
+		grow();
+	}
+}
+
+@Override
+public ByteBuffer acquire() {
+	do {
+		final int cap = capacity;
+		int i = cursor;
+		for (int n = 0; n < cap; ++n) {
+			if (i >= cap) {
+				i = 0;
+			}
+			if (refs.get(i) == 0 && refs.compareAndSet(i, 0, 1)) {
+				cursor = i + 1;
+				ByteBuffer buffer = slices[i];
+				buffer.clear();
+				return buffer;
+			}
+			++i;
+		}
+	} while (grow());
+	return null;
+}
+
+@Override
+public void retain(final ByteBuffer buffer, final int count) {
+	final int i = indexOf(buffer);
+	if (i < 0) {
+		throw new IllegalArgumentException("Buffer doesn't belong to this pool.");
+	}
+	refs.addAndGet(i, count);
+}
+
+@Override
+public boolean release(final ByteBuffer buffer) {
+	final int i = indexOf(buffer);
+	if (i < 0) {
+		return false;
+	}
+	if (refs.decrementAndGet(i) < 0) {
+		refs.incrementAndGet(i);
+		throw new IllegalStateException("Buffer released more times than it was shared.");
+	}
+	return true;
+}
+
+@Override
+public int available() {
+	final int cap = capacity;
+	int free = 0;
+	for (int i = 0; i < cap; ++i) {
+		if (refs.get(i) == 0) {
+			++free;
+		}
+	}
+	return free;
+}
+
+@Override
+public int capacity() {
+	return capacity;
+}
+
+int sliceSize() {
+	return sliceSize;
+}
+
+private synchronized boolean grow() {
+	final int cap = capacity;
+	if (cap == slices.length) {
+		return false;
+	}
+	ByteBuffer slab = ByteBuffer.allocateDirect(sliceSize * slicesPerSlab);
+	for (int i = 0; i < slicesPerSlab; ++i) {
+		slab.limit((i + 1) * sliceSize).position(i * sliceSize);
+		ByteBuffer slice = slab.slice().order(ByteOrder.LITTLE_ENDIAN);
+		slices[cap + i] = slice;
+		int slot = hash(slice);
+		while (keys[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		indices[slot] = cap + i;
+		keys[slot] = slice;
+	}
+	capacity = cap + slicesPerSlab; // publishes new slices
+	return true;
+}
+
+private int indexOf(final ByteBuffer buffer) {
+	int slot = hash(buffer);
+	ByteBuffer key;
+	while ((key = keys[slot]) != null) {
+		if (key == buffer) {
+			return indices[slot];
+		}
+		slot = (slot + 1) & mask;
+	}
+	return -1;
+}
+
+private int hash(final ByteBuffer buffer) {
+	final int h = System.identityHashCode(buffer);
+	return (h ^ (h >>> 16)) & mask;
+}
+}
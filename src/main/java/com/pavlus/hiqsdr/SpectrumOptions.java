@@ -0,0 +1,123 @@
+package com.pavlus.hiqsdr;
+
+/**
+ * Settings of {@link SpectrumProcessor}.
+ * <p>
+ * Options are copied when processor is created, so one instance can be reused for several processors.
+ */
+public final class SpectrumOptions {
+
+/**
+ * Window applied to samples before transform.
+ */
+public enum Window {
+	RECTANGULAR,
+	HANN,
+	HAMMING,
+	/**
+	 * 4-term Blackman-Harris, ~92 dB sidelobes, for displays with wide dynamic range.
+	 */
+	BLACKMAN_HARRIS
+}
+
+/**
+ * How transforms making one frame are combined.
+ */
+public enum Averaging {
+	/**
+	 * Mean of power, smooths noise floor.
+	 */
+	MEAN,
+	/**
+	 * Maximum of power per bin, keeps short bursts visible.
+	 */
+	PEAK_HOLD
+}
+
+int fftSize = 1024;
+Window window = Window.BLACKMAN_HARRIS;
+double overlap = 0.5;
+Averaging averaging = Averaging.MEAN;
+int averages = 4;
+double frameRate = 25;
+int poolSize = 4;
+
+public SpectrumOptions() {}
+
+SpectrumOptions(SpectrumOptions other) {
+	fftSize = other.fftSize;
+	window = other.window;
+	overlap = other.overlap;
+	averaging = other.averaging;
+	averages = other.averages;
+	frameRate = other.frameRate;
+	poolSize = other.poolSize;
+}
+
+/**
+ * Number of bins, power of two from 16 to 65536, 1024 by default.
+ */
+public SpectrumOptions fftSize(int size) {
+	if (size < 16 || size > 65536 || Integer.bitCount(size) != 1) {
+		throw new IllegalArgumentException("FFT size must be power of two from 16 to 65536.");
+	}
+	fftSize = size;
+	return this;
+}
+
+/**
+ * {@link Window#BLACKMAN_HARRIS} by default.
+ */
+public SpectrumOptions window(Window window) {
+	if (window == null) {
+		throw new IllegalArgumentException("Window must be specified.");
+	}
+	this.window = window;
+	return this;
+}
+
+/**
+ * Part of window shared with the next one, in [0, 1), 0.5 by default.
+ */
+public SpectrumOptions overlap(double overlap) {
+	if (!(overlap >= 0 && overlap < 1)) {
+		throw new IllegalArgumentException("Overlap must be in [0, 1).");
+	}
+	this.overlap = overlap;
+	return this;
+}
+
+/**
+ * @param transforms number of transforms making one frame, {@link Averaging#MEAN} of 4 by default.
+ */
+public SpectrumOptions averaging(Averaging averaging, int transforms) {
+	if (averaging == null || transforms <= 0) {
+		throw new IllegalArgumentException("Averaging must be specified and use at least one transform.");
+	}
+	this.averaging = averaging;
+	averages = transforms;
+	return this;
+}
+
+/**
+ * Most frames emitted per second, 25 by default.
+ */
+public SpectrumOptions frameRate(double framesPerSecond) {
+	if (!(framesPerSecond > 0)) {
+		throw new IllegalArgumentException("Frame rate must be positive.");
+	}
+	frameRate = framesPerSecond;
+	return this;
+}
+
+/**
+ * Number of frames reused round-robin, 4 by default.
+ */
+public SpectrumOptions poolSize(int frames) {
+	if (frames <= 0) {
+		throw new IllegalArgumentException("Pool size must be positive.");
+	}
+	poolSize = frames;
+	return this;
+}
+}
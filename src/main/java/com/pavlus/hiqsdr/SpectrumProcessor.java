@@ -0,0 +1,188 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+
+/**
+ * Stage turning receiver stream into power spectrum frames for displays.
+ * <p>
+ * Frame is {@code float[fftSize]} of power in dB relative to full-scale complex sine, ordered from
+ * {@code -sampleRate/2} at index 0 to just below {@code +sampleRate/2}, center frequency at {@code fftSize/2}.
+ * It combines configured number of windowed transforms, taken {@code fftSize * (1 - overlap)} samples apart
+ * from samples arriving once frame is due, by mean or peak hold. Between frames packets aren't even decoded,
+ * so load depends on frame rate and not on sample rate, and one processor can feed any number of displays.
+ * <p>
+ * Frames are taken round-robin from pool like {@link IQDecoder} blocks, emitted frame stays intact
+ * until {@code poolSize - 1} more frames are emitted.
+ */
+public final class SpectrumProcessor extends PooledStage<ByteBuffer, float[]> {
+
+private static final float SCALE = 1f / (1 << 23);
+// keeps log of empty bins finite
+private static final double FLOOR = 1e-20;
+
+private final int size;
+private final int mask;
+private final int hop;
+private final int averages;
+private final SpectrumOptions.Averaging averaging;
+private final long framePeriod;
+private final FFT fft;
+private final float[] window;
+private final double scale;
+private final float[][] frames;
+
+// owned by receiving thread
+private final float[] samples;
+private final float[] work;
+private final float[] power;
+private boolean collecting;
+private int write;
+private int filled;
+private int sinceTransform;
+private int transforms;
+private long nextFrameAt = System.nanoTime();
+private int next;
+
+private volatile long frameCount;
+
+public SpectrumProcessor(SwitchablePooledProcessor<ByteBuffer> source) {
+	this(source, new SpectrumOptions());
+}
+
+public SpectrumProcessor(SwitchablePooledProcessor<ByteBuffer> source, SpectrumOptions options) {
+	super(source);
+	final SpectrumOptions o = new SpectrumOptions(options);
+	size = o.fftSize;
+	mask = size - 1;
+	hop = Math.max(1, (int) Math.round(size * (1 - o.overlap)));
+	averages = o.averages;
+	averaging = o.averaging;
+	framePeriod = Math.round(1e9 / o.frameRate);
+	fft = new FFT(size);
+	window = window(o.window, size);
+	double sum = 0;
+	for (float w : window) {
+		sum += w;
+	}
+	scale = 1 / (sum * sum);
+	frames = new float[o.poolSize][size];
+	samples = new float[2 * size];
+	work = new float[2 * size];
+	power = new float[size];
+}
+
+private static float[] window(final SpectrumOptions.Window type, final int size) {
+	final float[] w = new float[size];
+	for (int i = 0; i < size; ++i) {
+		final double x = 2 * Math.PI * i / size;
+		switch (type) {
+			case HANN:
+				w[i] = (float) (0.5 - 0.5 * Math.cos(x));
+				break;
+			case HAMMING:
+				w[i] = (float) (0.54 - 0.46 * Math.cos(x));
+				break;
+			case BLACKMAN_HARRIS:
+				w[i] = (float) (0.35875 - 0.48829 * Math.cos(x) + 0.14128 * Math.cos(2 * x) - 0.01168 * Math.cos(3 * x));
+				break;
+			default:
+				w[i] = 1;
+		}
+	}
+	return w;
+}
+
+/**
+ * @return frames emitted so far.
+ */
+public long getFrames() {
+	return frameCount;
+}
+
+@Override
+protected void process(final ByteBuffer block) {
+	if (!hasSubscribers()) {
+		return;
+	}
+	if (!collecting) {
+		if (System.nanoTime() - nextFrameAt < 0) {
+			return;
+		}
+		collecting = true;
+		write = 0;
+		filled = 0;
+		sinceTransform = 0;
+		transforms = 0;
+	}
+	final boolean bigEndian = block.order() == ByteOrder.BIG_ENDIAN;
+	final int packets = RXBlock.packetCount(block);
+	for (int p = 0; p < packets; ++p) {
+		int index = IQDecoder.firstWord(p);
+		for (int i = 0; i < RX_SAMPLES_PER_PACKET; ++i, index += 6) {
+			samples[2 * write] = (IQDecoder.word(block, index, bigEndian) >> 8) * SCALE;
+			samples[2 * write + 1] = (IQDecoder.word(block, index + 3, bigEndian) >> 8) * SCALE;
+			write = (write + 1) & mask;
+			if (filled < size) {
+				if (++filled < size) {
+					continue;
+				}
+			} else if (++sinceTransform < hop) {
+				continue;
+			}
+			transform();
+			if (transforms == averages) {
+				publish();
+				return;
+			}
+		}
+	}
+}
+
+private void transform() {
+	sinceTransform = 0;
+	// oldest sample is where next one goes
+	for (int i = 0, j = write; i < size; ++i, j = (j + 1) & mask) {
+		work[2 * i] = samples[2 * j] * window[i];
+		work[2 * i + 1] = samples[2 * j + 1] * window[i];
+	}
+	fft.forward(work);
+	final boolean first = transforms == 0;
+	final int half = size / 2;
+	for (int k = 0; k < size; ++k) {
+		final float re = work[2 * k];
+		final float im = work[2 * k + 1];
+		final float p = re * re + im * im;
+		// negative frequencies first
+		final int bin = (k + half) & mask;
+		if (first) {
+			power[bin] = p;
+		} else if (averaging == SpectrumOptions.Averaging.MEAN) {
+			power[bin] += p;
+		} else if (p > power[bin]) {
+			power[bin] = p;
+		}
+	}
+	++transforms;
+}
+
+private void publish() {
+	collecting = false;
+	final long now = System.nanoTime();
+	nextFrameAt += framePeriod;
+	if (nextFrameAt - now < 0) {
+		// input was late, don't try to catch up
+		nextFrameAt = now;
+	}
+	final double s = averaging == SpectrumOptions.Averaging.MEAN ? scale / transforms : scale;
+	final float[] frame = frames[next];
+	next = next + 1 == frames.length ? 0 : next + 1;
+	for (int i = 0; i < size; ++i) {
+		frame[i] = (float) (10 * Math.log10(power[i] * s + FLOOR));
+	}
+	++frameCount;
+	emit(frame);
+}
+}
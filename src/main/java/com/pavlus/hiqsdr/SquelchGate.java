@@ -0,0 +1,304 @@
+package com.pavlus.hiqsdr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_GAP;
+import static com.pavlus.hiqsdr.Protocol.RX_STATUS_OFFSET;
+
+/**
+ * Stage passing on only packets carrying signal, so stages behind it work in proportion
+ * to channel activity rather than to sample rate.
+ * <p>
+ * Mean power of every packet is summed from raw 24-bit samples, without decoding them,
+ * and compared to open and close levels of {@link SquelchOptions}. Once open, gate stays open
+ * while packets are above close level and for hang time after that. Opening packet is preceded
+ * by a few packets of pre-roll, so the start of transmission isn't cut off, and first packet
+ * of every span is marked with {@link Protocol#RX_STATUS_GAP}.
+ * <p>
+ * Emitted blocks are laid out like receiver ones, see {@link RXBlock}, and taken round-robin from pool
+ * like {@link IQDecoder} blocks, so they stay intact until {@code poolSize - 1} more blocks are emitted.
+ * Input blocks go back to receiver as soon as they are measured, whether gate is open or not.
+ * <p>
+ * Gate is a {@link SwitchablePooledProcessor} itself, so stages are chained behind it like behind receiver,
+ * e.g. {@code new FloatIQDecoder(gate)}. Blocks they hand back are told from input by identity and ignored,
+ * as gate reuses them anyway, and switching gate on or off switches its source.
+ */
+public final class SquelchGate extends PooledStage<ByteBuffer, ByteBuffer>
+		implements SwitchablePooledProcessor<ByteBuffer> {
+
+// full-scale sample is 2^23, so its power is 2^46
+private static final double FULL_SCALE_ENERGY = RX_SAMPLES_PER_PACKET * (double) (1L << 46);
+
+private final long openEnergy;
+private final long closeEnergy;
+private final int hangPackets;
+private final int preRollPackets;
+private final SwitchablePooledProcessor<ByteBuffer> source;
+private final int poolSize;
+private final ByteBuffer[] blocks;
+private volatile ByteBuffer[] owned = new ByteBuffer[0]; // every block ever emitted, replaced ones included
+private int next;
+
+// owned by receiving thread
+private final ByteBuffer preRoll;
+private int preRollHead;
+private int preRollCount;
+private volatile boolean open;
+private int hangLeft;
+
+private volatile long lastEnergy;
+private volatile long inputPackets;
+private volatile long activePackets;
+private volatile long forwardedPackets;
+private volatile long spans;
+
+public SquelchGate(SwitchablePooledProcessor<ByteBuffer> source, int sampleRate) {
+	this(source, sampleRate, new SquelchOptions());
+}
+
+/**
+ * @param sampleRate sample rate receiver is configured for, hang time is counted in packets at this rate.
+ */
+public SquelchGate(SwitchablePooledProcessor<ByteBuffer> source, int sampleRate, SquelchOptions options) {
+	super(source);
+	if (source == null) {
+		throw new IllegalArgumentException("Source must be specified.");
+	}
+	if (sampleRate <= 0) {
+		throw new IllegalArgumentException("Sample rate must be positive.");
+	}
+	this.source = source;
+	final SquelchOptions o = new SquelchOptions(options);
+	openEnergy = energyOf(o.openLevel);
+	closeEnergy = energyOf(o.closeLevel);
+	hangPackets = (int) Math.ceil(o.hangNanos * 1e-9 * sampleRate / RX_SAMPLES_PER_PACKET);
+	preRollPackets = o.preRollPackets;
+	poolSize = o.poolSize;
+	blocks = new ByteBuffer[poolSize];
+	preRoll = ByteBuffer.allocateDirect(Math.max(1, preRollPackets) * RX_PACKET_SIZE);
+}
+
+private static long energyOf(final double level) {
+	return (long) Math.ceil(FULL_SCALE_ENERGY * Math.pow(10, level / 10));
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOn() throws IOException {
+	source.switchOn();
+	return this;
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOff() throws IOException {
+	source.switchOff();
+	return this;
+}
+
+/**
+ * Handles input block, or ignores block emitted by gate and handed back by its subscriber.
+ */
+@Override
+public void onNext(final ByteBuffer block) {
+	for (ByteBuffer b : owned) {
+		if (b == block) {
+			return;
+		}
+	}
+	super.onNext(block);
+}
+
+/**
+ * @return mean power of the last packet in dB relative to full-scale complex sine.
+ */
+public double getLevel() {
+	return 10 * Math.log10(Math.max(lastEnergy, 1) / FULL_SCALE_ENERGY);
+}
+
+public boolean isOpen() {
+	return open;
+}
+
+public long getInputPackets() {
+	return inputPackets;
+}
+
+/**
+ * @return packets received while gate was open, including hang time.
+ */
+public long getActivePackets() {
+	return activePackets;
+}
+
+/**
+ * @return packets emitted, active ones and pre-roll.
+ */
+public long getForwardedPackets() {
+	return forwardedPackets;
+}
+
+/**
+ * @return number of times gate opened.
+ */
+public long getSpans() {
+	return spans;
+}
+
+/**
+ * @return part of input packets gate was open for, from 0 to 1.
+ */
+public double getDutyCycle() {
+	final long input = inputPackets;
+	return input == 0 ? 0 : activePackets / (double) input;
+}
+
+@Override
+protected void process(final ByteBuffer block) {
+	final int packets = RXBlock.packetCount(block);
+	if (packets == 0) {
+		return;
+	}
+	final boolean bigEndian = block.order() == ByteOrder.BIG_ENDIAN;
+	ByteBuffer out = null;
+	int closedSince = 0; // first packet of current closed run within block
+	long energy = 0;
+	long active = 0;
+	long forwarded = 0;
+	int spanStart = -1;
+	for (int p = 0; p < packets; ++p) {
+		energy = energy(block, p, bigEndian);
+		if (open) {
+			if (energy >= closeEnergy) {
+				hangLeft = hangPackets;
+			} else if (hangLeft-- == 0) {
+				open = false;
+				closedSince = p;
+				continue;
+			}
+		} else if (energy >= openEnergy) {
+			open = true;
+			hangLeft = hangPackets;
+			++spans;
+			if (out == null) {
+				out = prepare(block, packets);
+			}
+			spanStart = out.position();
+			forwarded += appendPreRoll(block, closedSince, p, out);
+		} else {
+			continue;
+		}
+		if (out == null) {
+			out = prepare(block, packets);
+		}
+		append(block, p, out);
+		if (spanStart >= 0) {
+			final int status = spanStart + RX_STATUS_OFFSET;
+			out.put(status, (byte) (out.get(status) | RX_STATUS_GAP));
+			spanStart = -1;
+		}
+		++active;
+		++forwarded;
+	}
+	if (!open) {
+		keepPreRoll(block, closedSince, packets);
+	}
+	lastEnergy = energy;
+	inputPackets += packets;
+	activePackets += active;
+	if (out != null) {
+		forwardedPackets += forwarded;
+		out.flip();
+		emit(out);
+	}
+}
+
+private static long energy(final ByteBuffer block, final int packet, final boolean bigEndian) {
+	long sum = 0;
+	int index = IQDecoder.firstWord(packet);
+	for (int i = 0; i < RX_SAMPLES_PER_PACKET; ++i, index += 6) {
+		final long re = IQDecoder.word(block, index, bigEndian) >> 8;
+		final long im = IQDecoder.word(block, index + 3, bigEndian) >> 8;
+		sum += re * re + im * im;
+	}
+	return sum;
+}
+
+/**
+ * @return cleared block of current slot, big enough for all packets of input and pre-roll.
+ */
+private ByteBuffer prepare(final ByteBuffer block, final int packets) {
+	final int size = (packets + preRollPackets) * RX_PACKET_SIZE;
+	ByteBuffer out = blocks[next];
+	if (out == null || out.capacity() < size) {
+		// rounded up, so that slot is replaced only a few times and list of owned blocks stays short
+		final int capacity = Integer.highestOneBit(Math.max(1, packets + preRollPackets - 1)) << 1;
+		out = blocks[next] = ByteBuffer.allocateDirect(capacity * RX_PACKET_SIZE);
+		final ByteBuffer[] current = owned;
+		final ByteBuffer[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = out;
+		owned = updated;
+	}
+	next = next + 1 == poolSize ? 0 : next + 1;
+	out.clear();
+	out.order(block.order());
+	return out;
+}
+
+private static void append(final ByteBuffer src, final int packet, final ByteBuffer out) {
+	final int pos = out.position();
+	Buffers.copy(src, RXBlock.packetOffset(packet), out, pos, RX_PACKET_SIZE);
+	out.position(pos + RX_PACKET_SIZE);
+}
+
+/**
+ * Appends packets preceding opening one: the closed ones from current block and, if that's not enough,
+ * the last ones kept from previous blocks.
+ *
+ * @return number of packets appended.
+ */
+private int appendPreRoll(final ByteBuffer block, final int closedSince, final int opening, final ByteBuffer out) {
+	final int fromBlock = Math.min(preRollPackets, opening - closedSince);
+	int fromKept = 0;
+	if (closedSince == 0) {
+		fromKept = Math.min(preRollPackets - fromBlock, preRollCount);
+		for (int i = preRollCount - fromKept; i < preRollCount; ++i) {
+			final int slot = (preRollHead + i) % preRollPackets;
+			final int pos = out.position();
+			Buffers.copy(preRoll, slot * RX_PACKET_SIZE, out, pos, RX_PACKET_SIZE);
+			out.position(pos + RX_PACKET_SIZE);
+		}
+	}
+	for (int p = opening - fromBlock; p < opening; ++p) {
+		append(block, p, out);
+	}
+	preRollCount = 0;
+	return fromKept + fromBlock;
+}
+
+/**
+ * Keeps the last closed packets of block for pre-roll of span opening in later blocks.
+ */
+private void keepPreRoll(final ByteBuffer block, final int closedSince, final int packets) {
+	if (preRollPackets == 0) {
+		return;
+	}
+	if (closedSince > 0) {
+		// packets kept earlier aren't contiguous with this run
+		preRollCount = 0;
+	}
+	for (int p = Math.max(closedSince, packets - preRollPackets); p < packets; ++p) {
+		final int slot;
+		if (preRollCount < preRollPackets) {
+			slot = (preRollHead + preRollCount++) % preRollPackets;
+		} else {
+			slot = preRollHead;
+			preRollHead = (preRollHead + 1) % preRollPackets;
+		}
+		Buffers.copy(block, RXBlock.packetOffset(p), preRoll, slot * RX_PACKET_SIZE, RX_PACKET_SIZE);
+	}
+}
+}
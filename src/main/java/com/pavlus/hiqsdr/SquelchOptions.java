@@ -0,0 +1,76 @@
+package com.pavlus.hiqsdr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of {@link SquelchGate}.
+ * <p>
+ * Levels are mean power of packet in dB relative to full-scale complex sine.
+ * Options are copied when gate is created, so one instance can be reused for several gates.
+ */
+public final class SquelchOptions {
+
+double openLevel = -60;
+double closeLevel = -66;
+long hangNanos = TimeUnit.MILLISECONDS.toNanos(200);
+int preRollPackets = 4;
+int poolSize = 4;
+
+public SquelchOptions() {}
+
+SquelchOptions(SquelchOptions other) {
+	openLevel = other.openLevel;
+	closeLevel = other.closeLevel;
+	hangNanos = other.hangNanos;
+	preRollPackets = other.preRollPackets;
+	poolSize = other.poolSize;
+}
+
+/**
+ * Gate opens when packet is at least {@code open} dB strong and closes when packets get weaker
+ * than {@code close} dB for hang time, -60 and -66 dB by default.
+ *
+ * @throws IllegalArgumentException if close level is above open level.
+ */
+public SquelchOptions levels(double open, double close) {
+	if (!(close <= open) || open > 0) {
+		throw new IllegalArgumentException("Close level must not be above open level, which must not be above 0 dB.");
+	}
+	openLevel = open;
+	closeLevel = close;
+	return this;
+}
+
+/**
+ * How long gate stays open after signal falls below close level, 200 ms by default.
+ */
+public SquelchOptions hang(long time, TimeUnit unit) {
+	if (time < 0) {
+		throw new IllegalArgumentException("Hang time must not be negative.");
+	}
+	hangNanos = unit.toNanos(time);
+	return this;
+}
+
+/**
+ * Packets preceding the one opening gate which are forwarded along with it, 4 by default.
+ */
+public SquelchOptions preRoll(int packets) {
+	if (packets < 0) {
+		throw new IllegalArgumentException("Pre-roll must not be negative.");
+	}
+	preRollPackets = packets;
+	return this;
+}
+
+/**
+ * Number of output blocks reused round-robin, 4 by default.
+ */
+public SquelchOptions poolSize(int blocks) {
+	if (blocks <= 0) {
+		throw new IllegalArgumentException("Pool size must be positive.");
+	}
+	poolSize = blocks;
+	return this;
+}
+}
@@ -0,0 +1,229 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+
+/**
+ * Receives stream of {@link StreamServer}, emitting blocks shaped exactly like local receiver does.
+ * <p>
+ * Whole packets are emitted as soon as they are read, up to batch size of {@link RXOptions},
+ * which also configures buffer pool and dispatch, like for receiver.
+ * {@link #switchOff()} doesn't stop the server, packets are still read but skipped,
+ * so client isn't disconnected for lagging; {@link #switchOn()} resumes emitting them.
+ * When pool runs dry reading waits, and server disconnects client which waits too long.
+ * Stream ends with {@code onComplete} when server hangs up.
+ */
+public final class StreamClient implements SwitchablePooledProcessor<ByteBuffer>, Runnable, Closeable {
+
+private static final long POOL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+private final SocketChannel channel;
+private final BufferPool pool;
+private final RXDispatcher dispatcher;
+private final Collection<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+private final int batchSize;
+private volatile boolean paused;
+private volatile boolean done;
+private boolean started;
+private volatile long receivedPackets;
+private volatile long skippedPackets;
+
+/**
+ * Connects to server right away.
+ */
+public StreamClient(InetSocketAddress server, RXOptions options) throws IOException {
+	final RXOptions opts = new RXOptions(options);
+	batchSize = opts.batchPackets * RX_PACKET_SIZE;
+	pool = opts.createPool(batchSize);
+	dispatcher = opts.createDispatcher(pool, new Runnable() {
+		@Override
+		public void run() {
+			start();
+		}
+	});
+	channel = SocketChannel.open(server);
+	channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	if (opts.receiveBuffer > 0) {
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, opts.receiveBuffer);
+	}
+}
+
+/**
+ * Receiver of packets {@link StreamServer} sends to multicast group, see {@link StreamOptions#multicast}.
+ * Datagrams are checked and batched like those of device, so lost ones show up as gaps.
+ * Switching it on and off does nothing, server controls the device.
+ *
+ * @param networkInterface interface to join group on.
+ */
+public static SwitchablePooledProcessor<ByteBuffer> multicast(InetSocketAddress group,
+                                                              NetworkInterface networkInterface,
+                                                              RXOptions options) throws IOException {
+	return new RXProcessor(group, networkInterface, options);
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOn() {
+	paused = false;
+	return this;
+}
+
+@Override
+public SwitchablePooledProcessor<ByteBuffer> switchOff() {
+	paused = true;
+	return this;
+}
+
+@Override
+public void subscribe(final Subscriber<? super ByteBuffer> s) {
+	s.onSubscribe(dispatcher.add(s));
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	subscriptions.add(s);
+}
+
+/**
+ * Returns buffer previously emitted by this processor, or adds new one in {@link RXOptions.BufferSource#UPSTREAM} mode.
+ */
+@Override
+public void onNext(final ByteBuffer byteBuffer) {
+	pool.release(byteBuffer);
+}
+
+@Override
+public void onError(final Throwable t) {
+	if (finish(t)) {
+		t.printStackTrace();
+	}
+}
+
+@Override
+public void onComplete() {
+	finish(null);
+}
+
+@Override
+public void close() throws IOException {
+	finish(new IllegalStateException("close() called before Publisher finished!"));
+}
+
+public long getReceivedPackets() {
+	return receivedPackets;
+}
+
+/**
+ * @return packets read while switched off.
+ */
+public long getSkippedPackets() {
+	return skippedPackets;
+}
+
+@Override
+public void run() {
+	ByteBuffer block = null;
+	try {
+		block = nextBlock();
+		while (block != null && channel.read(block) >= 0) {
+			final long arrival = System.nanoTime();
+			final int end = block.position();
+			final int whole = end - end % RX_PACKET_SIZE;
+			if (whole == 0) {
+				continue;
+			}
+			final ByteBuffer next = nextBlock();
+			if (next == null) {
+				break;
+			}
+			// partial packet goes on in the next block
+			Buffers.copy(block, whole, next, 0, end - whole);
+			next.position(end - whole);
+			block.limit(whole).position(0);
+			publishNext(block, arrival, whole / RX_PACKET_SIZE);
+			block = next;
+		}
+		onComplete();
+	} catch (IOException e) {
+		if (!done) {
+			onError(e);
+		}
+	} finally {
+		if (block != null) {
+			pool.release(block);
+		}
+	}
+}
+
+/**
+ * Waits for free buffer.
+ *
+ * @return buffer limited to block size, or null if stream was finished meanwhile.
+ */
+private ByteBuffer nextBlock() {
+	ByteBuffer buff;
+	while ((buff = pool.acquire()) == null) {
+		for (Subscription s : subscriptions) {
+			s.request(1);
+		}
+		if (done) {
+			return null;
+		}
+		LockSupport.parkNanos(this, POOL_WAIT_NANOS);
+	}
+	buff.limit(Math.min(buff.capacity(), batchSize));
+	return buff;
+}
+
+private void publishNext(final ByteBuffer block, final long arrival, final int packets) {
+	receivedPackets += packets;
+	if (paused) {
+		skippedPackets += packets;
+	} else if (!done) {
+		dispatcher.publish(block, arrival);
+	}
+	pool.release(block);
+}
+
+private synchronized void start() {
+	if (!started && !done) {
+		started = true;
+		Schedulers.io().scheduleDirect(this);
+	}
+}
+
+private boolean finish(final Throwable error) {
+	synchronized (this) {
+		if (done) {
+			return false;
+		}
+		done = true;
+	}
+	dispatcher.terminate(error);
+	try {
+		// wakes reading thread up
+		channel.close();
+	} catch (IOException e) {
+		e.printStackTrace();
+	}
+	for (Subscription s : subscriptions) {
+		s.cancel();
+	}
+	return true;
+}
+}
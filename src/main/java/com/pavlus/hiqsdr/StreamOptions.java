@@ -0,0 +1,89 @@
+package com.pavlus.hiqsdr;
+
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of {@link StreamServer}.
+ * <p>
+ * Options are copied when server is created, so one instance can be reused for several servers.
+ */
+public final class StreamOptions {
+
+public static final int DEFAULT_BACKLOG = 32;
+public static final int DEFAULT_DRAIN_SECONDS = 5;
+
+int backlogBlocks = DEFAULT_BACKLOG;
+int sendBuffer;
+InetSocketAddress multicastGroup;
+NetworkInterface multicastInterface;
+int multicastTtl = 1;
+long drainTimeout = TimeUnit.SECONDS.toNanos(DEFAULT_DRAIN_SECONDS);
+
+public StreamOptions() {}
+
+StreamOptions(StreamOptions other) {
+	backlogBlocks = other.backlogBlocks;
+	sendBuffer = other.sendBuffer;
+	multicastGroup = other.multicastGroup;
+	multicastInterface = other.multicastInterface;
+	multicastTtl = other.multicastTtl;
+	drainTimeout = other.drainTimeout;
+}
+
+/**
+ * Blocks of receiver one client may fall behind by before it's disconnected, {@link #DEFAULT_BACKLOG} by default.
+ * Blocks waiting for a client stay out of receiver's pool, so pool has to be larger than backlog.
+ */
+public StreamOptions backlog(int blocks) {
+	if (blocks <= 0) {
+		throw new IllegalArgumentException("Backlog must be positive.");
+	}
+	backlogBlocks = blocks;
+	return this;
+}
+
+/**
+ * Size of socket send buffer of every client, system default if not set.
+ */
+public StreamOptions sendBuffer(int bytes) {
+	if (bytes <= 0) {
+		throw new IllegalArgumentException("Send buffer size must be positive.");
+	}
+	sendBuffer = bytes;
+	return this;
+}
+
+/**
+ * Time clients get to take what is queued for them once receiver completes, {@link #DEFAULT_DRAIN_SECONDS} by default.
+ * Clients which haven't taken everything by then are disconnected as lagging.
+ */
+public StreamOptions drainTimeout(long timeout, TimeUnit unit) {
+	if (timeout < 0) {
+		throw new IllegalArgumentException("Drain timeout must not be negative.");
+	}
+	drainTimeout = unit.toNanos(timeout);
+	return this;
+}
+
+/**
+ * Sends every packet also as datagram to multicast group, just as device sends it.
+ * Datagrams socket can't take at once are dropped.
+ *
+ * @param networkInterface interface to send from, or {@code null} for system default.
+ * @param ttl              hops datagrams may take, 1 keeps them in local network.
+ */
+public StreamOptions multicast(InetSocketAddress group, NetworkInterface networkInterface, int ttl) {
+	if (!group.getAddress().isMulticastAddress()) {
+		throw new IllegalArgumentException(group + " isn't a multicast address.");
+	}
+	if (ttl < 0 || ttl > 255) {
+		throw new IllegalArgumentException("TTL must be from 0 to 255.");
+	}
+	multicastGroup = group;
+	multicastInterface = networkInterface;
+	multicastTtl = ttl;
+	return this;
+}
+}
@@ -0,0 +1,511 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+
+/**
+ * Serves one receiver to many hosts over TCP, and optionally UDP multicast, while device streams to one host only.
+ * <p>
+ * Stream is plain sequence of receiver packets exactly as device sent them, {@link StreamClient} turns it
+ * back into receiver blocks. Blocks aren't copied: server keeps a reference of every block until all
+ * clients have written it and sends it with gathering writes straight from receiver's buffers.
+ * Every client may fall behind by {@link StreamOptions#backlog(int)} blocks, client lagging more than that
+ * is disconnected, so one slow host can't exhaust receiver's pool or stall others.
+ * <p>
+ * All socket work is done by one server thread, receiving thread only queues blocks for it.
+ * When receiver completes, clients get what is queued for them and are disconnected,
+ * those which don't take it within {@link StreamOptions#drainTimeout(long, java.util.concurrent.TimeUnit)}
+ * are disconnected as lagging.
+ */
+public final class StreamServer implements Subscriber<ByteBuffer>, Runnable, Closeable {
+
+// receiver pools are bounded, but blocks of UPSTREAM pool aren't, so forget views once in a while
+private static final int MAX_VIEWS = 1024;
+
+private final SwitchablePooledProcessor<ByteBuffer> source;
+private final ServerSocketChannel server;
+private final InetSocketAddress localAddress;
+private final Selector selector;
+private final DatagramChannel multicast;
+private final InetSocketAddress multicastGroup;
+private final int backlogBlocks;
+private final int sendBuffer;
+private final long drainTimeout;
+private final Queue<Block> incoming = new ConcurrentLinkedQueue<>();
+// owned by receiving thread
+private final Map<ByteBuffer, Block> views = new IdentityHashMap<>();
+// owned by server thread
+private final List<Client> clients = new ArrayList<>();
+private final ByteBuffer[] gather;
+private final ByteBuffer discard = ByteBuffer.allocate(256);
+private boolean multicastFailed;
+private boolean draining;
+private long drainDeadline;
+private volatile Subscription subscription;
+private volatile boolean completed;
+private volatile boolean closed;
+private boolean started;
+
+private volatile int clientCount;
+private volatile long receivedBlocks;
+private volatile long sentBytes;
+private volatile long laggedClients;
+private volatile long multicastDropped;
+
+public StreamServer(SwitchablePooledProcessor<ByteBuffer> source, InetSocketAddress address) throws IOException {
+	this(source, address, new StreamOptions());
+}
+
+/**
+ * @param address address to listen on, port 0 picks free one, see {@link #getLocalAddress()}.
+ */
+public StreamServer(SwitchablePooledProcessor<ByteBuffer> source, InetSocketAddress address, StreamOptions options)
+		throws IOException {
+	final StreamOptions o = new StreamOptions(options);
+	this.source = source;
+	backlogBlocks = o.backlogBlocks;
+	sendBuffer = o.sendBuffer;
+	drainTimeout = o.drainTimeout;
+	gather = new ByteBuffer[backlogBlocks];
+	selector = Selector.open();
+	server = ServerSocketChannel.open();
+	server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+	server.bind(address);
+	server.configureBlocking(false);
+	server.register(selector, SelectionKey.OP_ACCEPT);
+	localAddress = (InetSocketAddress) server.getLocalAddress();
+	multicastGroup = o.multicastGroup;
+	if (multicastGroup != null) {
+		multicast = DatagramChannel.open(multicastGroup.getAddress() instanceof Inet6Address
+		                                 ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+		multicast.configureBlocking(false);
+		multicast.setOption(StandardSocketOptions.IP_MULTICAST_TTL, o.multicastTtl);
+		if (o.multicastInterface != null) {
+			multicast.setOption(StandardSocketOptions.IP_MULTICAST_IF, o.multicastInterface);
+		}
+	} else {
+		multicast = null;
+	}
+}
+
+/**
+ * Starts server thread and subscribes to the source.
+ */
+public StreamServer start() {
+	synchronized (this) {
+		if (started || closed) {
+			return this;
+		}
+		started = true;
+	}
+	new NamedThreadFactory("hiqsdr-stream").newThread(this).start();
+	source.subscribe(this);
+	return this;
+}
+
+/**
+ * @return address server listens on.
+ */
+public InetSocketAddress getLocalAddress() {
+	return localAddress;
+}
+
+public int getClientCount() {
+	return clientCount;
+}
+
+public long getReceivedBlocks() {
+	return receivedBlocks;
+}
+
+/**
+ * @return bytes written to TCP clients, datagrams not included.
+ */
+public long getSentBytes() {
+	return sentBytes;
+}
+
+/**
+ * @return number of clients disconnected for falling behind by more than backlog.
+ */
+public long getLaggedClients() {
+	return laggedClients;
+}
+
+/**
+ * @return packets which couldn't be sent to multicast group.
+ */
+public long getMulticastDropped() {
+	return multicastDropped;
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	subscription = s;
+	s.request(Long.MAX_VALUE);
+}
+
+@Override
+public void onNext(final ByteBuffer block) {
+	++receivedBlocks;
+	if (closed || (clientCount == 0 && multicast == null)) {
+		source.onNext(block);
+		return;
+	}
+	Block b = views.get(block);
+	if (b == null) {
+		if (views.size() == MAX_VIEWS) {
+			views.clear();
+		}
+		b = new Block(block);
+		views.put(block, b);
+	}
+	b.start = block.position();
+	b.end = block.limit();
+	incoming.offer(b);
+	selector.wakeup();
+	if (closed) {
+		// server thread may have finished already
+		releaseIncoming();
+	}
+}
+
+@Override
+public void onError(final Throwable t) {
+	completed = true;
+	selector.wakeup();
+}
+
+@Override
+public void onComplete() {
+	completed = true;
+	selector.wakeup();
+}
+
+/**
+ * Disconnects all clients right away and stops listening.
+ */
+@Override
+public void close() {
+	final boolean running;
+	synchronized (this) {
+		closed = true;
+		running = started;
+	}
+	final Subscription s = subscription;
+	if (s != null) {
+		s.cancel();
+	}
+	if (running) {
+		selector.wakeup();
+	} else {
+		cleanup();
+	}
+}
+
+@Override
+public void run() {
+	try {
+		while (!closed) {
+			if (draining) {
+				final long left = TimeUnit.NANOSECONDS.toMillis(drainDeadline - System.nanoTime());
+				selector.select(Math.max(1, left));
+			} else {
+				selector.select();
+			}
+			Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+			while (selected.hasNext()) {
+				SelectionKey key = selected.next();
+				selected.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				if (key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				final Client c = (Client) key.attachment();
+				if (key.isReadable()) {
+					read(c);
+				}
+				if (key.isValid() && key.isWritable()) {
+					flush(c);
+				}
+			}
+			distribute();
+			if (completed && incoming.isEmpty()) {
+				final long now = System.nanoTime();
+				if (!draining) {
+					draining = true;
+					drainDeadline = now + drainTimeout;
+				}
+				final boolean expired = now - drainDeadline >= 0;
+				for (int i = clients.size() - 1; i >= 0; --i) {
+					final Client c = clients.get(i);
+					if (c.size == 0) {
+						disconnect(c);
+					} else if (expired) {
+						++laggedClients;
+						disconnect(c);
+					}
+				}
+				if (clients.isEmpty()) {
+					closed = true;
+				}
+			}
+		}
+	} catch (IOException e) {
+		e.printStackTrace();
+	} finally {
+		cleanup();
+	}
+}
+
+private void accept() {
+	SocketChannel channel = null;
+	try {
+		while ((channel = server.accept()) != null) {
+			if (completed) {
+				channel.close();
+				continue;
+			}
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			if (sendBuffer > 0) {
+				channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBuffer);
+			}
+			final Client c = new Client(channel, backlogBlocks);
+			c.key = channel.register(selector, SelectionKey.OP_READ, c);
+			clients.add(c);
+			clientCount = clients.size();
+		}
+	} catch (IOException e) {
+		e.printStackTrace();
+		closeQuietly(channel);
+	}
+}
+
+/**
+ * Clients aren't expected to send anything, reading only notices when they hang up.
+ */
+private void read(final Client c) {
+	try {
+		discard.clear();
+		if (c.channel.read(discard) < 0) {
+			disconnect(c);
+		}
+	} catch (IOException e) {
+		disconnect(c);
+	}
+}
+
+/**
+ * Queues blocks received since last time to every client and writes to those whose sockets aren't full.
+ */
+private void distribute() {
+	Block b;
+	while ((b = incoming.poll()) != null) {
+		b.refs = 1;
+		for (int i = clients.size() - 1; i >= 0; --i) {
+			final Client c = clients.get(i);
+			if (c.size == backlogBlocks) {
+				++laggedClients;
+				disconnect(c);
+			} else {
+				c.add(b);
+				++b.refs;
+			}
+		}
+		if (multicast != null) {
+			send(b);
+		}
+		release(b);
+	}
+	for (int i = clients.size() - 1; i >= 0; --i) {
+		final Client c = clients.get(i);
+		if (c.size > 0 && !c.waiting) {
+			flush(c);
+		}
+	}
+}
+
+private void flush(final Client c) {
+	try {
+		final int n = c.size;
+		for (int i = 0; i < n; ++i) {
+			final Block b = c.get(i);
+			final ByteBuffer view = b.view;
+			view.limit(b.end);
+			view.position(i == 0 ? b.start + c.offset : b.start);
+			gather[i] = view;
+		}
+		long written = c.channel.write(gather, 0, n);
+		sentBytes += written;
+		while (c.size > 0) {
+			final Block b = c.get(0);
+			final int left = b.end - b.start - c.offset;
+			if (written < left) {
+				c.offset += (int) written;
+				break;
+			}
+			written -= left;
+			c.offset = 0;
+			c.removeFirst();
+			release(b);
+		}
+		final boolean waiting = c.size > 0;
+		if (waiting != c.waiting) {
+			c.waiting = waiting;
+			c.key.interestOps(waiting ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+	} catch (IOException e) {
+		disconnect(c);
+	}
+}
+
+/**
+ * Sends packets of block as separate datagrams, like device does.
+ */
+private void send(final Block b) {
+	final ByteBuffer view = b.view;
+	for (int p = b.start; p + RX_PACKET_SIZE <= b.end; p += RX_PACKET_SIZE) {
+		view.limit(p + RX_PACKET_SIZE);
+		view.position(p);
+		try {
+			if (multicast.send(view, multicastGroup) == 0) {
+				++multicastDropped;
+			}
+		} catch (IOException e) {
+			if (!multicastFailed) {
+				multicastFailed = true;
+				e.printStackTrace();
+			}
+			++multicastDropped;
+		}
+	}
+}
+
+private void disconnect(final Client c) {
+	c.key.cancel();
+	closeQuietly(c.channel);
+	while (c.size > 0) {
+		final Block b = c.get(0);
+		c.removeFirst();
+		release(b);
+	}
+	clients.remove(c);
+	clientCount = clients.size();
+}
+
+private void release(final Block b) {
+	if (--b.refs == 0) {
+		source.onNext(b.buffer);
+	}
+}
+
+private void releaseIncoming() {
+	Block b;
+	while ((b = incoming.poll()) != null) {
+		source.onNext(b.buffer);
+	}
+}
+
+private void cleanup() {
+	closed = true;
+	for (int i = clients.size() - 1; i >= 0; --i) {
+		disconnect(clients.get(i));
+	}
+	releaseIncoming();
+	closeQuietly(server);
+	closeQuietly(multicast);
+	closeQuietly(selector);
+	final Subscription s = subscription;
+	if (s != null) {
+		s.cancel();
+	}
+}
+
+private static void closeQuietly(final Closeable closeable) {
+	if (closeable == null) {
+		return;
+	}
+	try {
+		closeable.close();
+	} catch (IOException e) {
+		e.printStackTrace();
+	}
+}
+
+/**
+ * Receiver block shared by clients, with view server thread may move freely.
+ */
+private static final class Block {
+	final ByteBuffer buffer;
+	final ByteBuffer view;
+	int start;
+	int end;
+	int refs; // owned by server thread
+
+	Block(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		view = buffer.duplicate();
+	}
+}
+
+/**
+ * Connection with blocks queued for it, owned by server thread.
+ */
+private static final class Client {
+	final SocketChannel channel;
+	final Block[] backlog;
+	SelectionKey key;
+	int head;
+	int size;
+	int offset; // bytes of the first block already written
+	boolean waiting; // for socket to become writable
+
+	Client(final SocketChannel channel, final int backlogBlocks) {
+		this.channel = channel;
+		backlog = new Block[backlogBlocks];
+	}
+
+	Block get(final int i) {
+		final int index = head + i;
+		return backlog[index < backlog.length ? index : index - backlog.length];
+	}
+
+	void add(final Block b) {
+		final int index = head + size++;
+		backlog[index < backlog.length ? index : index - backlog.length] = b;
+	}
+
+	void removeFirst() {
+		backlog[head] = null;
+		head = head + 1 == backlog.length ? 0 : head + 1;
+		--size;
+	}
+}
+}
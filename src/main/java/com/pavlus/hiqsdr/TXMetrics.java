@@ -0,0 +1,92 @@
+package com.pavlus.hiqsdr;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time copy of transmitter counters, taken by polling {@link Device#getTXMetrics()}.
+ * <p>
+ * Counters are cumulative since transmitter was created, like those of {@link RXMetrics}.
+ */
+public final class TXMetrics {
+
+final InetSocketAddress address;
+long timestamp;
+long sentPackets;
+long underruns;
+long latePackets;
+long rejected;
+int queued;
+int pendingReturns;
+
+TXMetrics(final InetSocketAddress address) {
+	this.address = address;
+}
+
+/**
+ * @return address and port of device transmitter sends packets to.
+ */
+public InetSocketAddress getAddress() {
+	return address;
+}
+
+/**
+ * @return {@link System#nanoTime()} when snapshot was taken.
+ */
+public long getTimestamp() {
+	return timestamp;
+}
+
+/**
+ * @return datagrams written to device, silence included.
+ */
+public long getSentPackets() {
+	return sentPackets;
+}
+
+/**
+ * @return packets of silence sent because jitter buffer ran dry.
+ */
+public long getUnderruns() {
+	return underruns;
+}
+
+/**
+ * @return packets sent later than one packet duration after their time.
+ */
+public long getLatePackets() {
+	return latePackets;
+}
+
+/**
+ * @return buffers not sent because they didn't hold whole number of samples fitting into packet.
+ */
+public long getRejected() {
+	return rejected;
+}
+
+/**
+ * @return packets waiting in jitter buffer.
+ */
+public int getQueued() {
+	return queued;
+}
+
+/**
+ * @return used buffers waiting for subscriber to request them back.
+ */
+public int getPendingReturns() {
+	return pendingReturns;
+}
+
+public double packetsPerSecond(final TXMetrics previous) {
+	final long nanos = timestamp - previous.timestamp;
+	return nanos <= 0 ? 0 : (sentPackets - previous.sentPackets) * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+}
+
+@Override
+public String toString() {
+	return "TXMetrics{address=" + address + ", sentPackets=" + sentPackets + ", underruns=" + underruns + ", latePackets=" + latePackets
+	       + ", rejected=" + rejected + ", queued=" + queued + ", pendingReturns=" + pendingReturns + '}';
+}
+}
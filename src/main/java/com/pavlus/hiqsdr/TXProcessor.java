@@ -0,0 +1,372 @@
+package com.pavlus.hiqsdr;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.pavlus.hiqsdr.Protocol.TX_HEADER_SIZE;
+import static com.pavlus.hiqsdr.Protocol.TX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.TX_SAMPLES_PER_PACKET;
+import static com.pavlus.hiqsdr.Protocol.TX_SAMPLE_RATE;
+import static com.pavlus.hiqsdr.Protocol.TX_SAMPLE_SIZE;
+
+/**
+ * Transmitter returned by {@link DeviceControl#getTX(int)}.
+ * <p>
+ * Consumes buffers holding one TX packet each: {@link Protocol#TX_HEADER_SIZE} bytes reserved for header,
+ * which is filled in here, followed by up to {@link Protocol#TX_SAMPLES_PER_PACKET} samples.
+ * Buffers are written to the socket as they are and then emitted to subscriber of this processor,
+ * so producer can refill them. Buffers it hasn't requested yet, or which come back before it subscribes,
+ * wait in queue until it does, and terminal signal follows the last of them.
+ * <p>
+ * Sending is paced by number of samples sent at {@link Protocol#TX_SAMPLE_RATE}, not by sleeping per packet.
+ * Small jitter buffer is filled before transmission starts; when it runs dry, silence is sent
+ * so stream stays continuous, and underrun is counted. Packets sent later than one packet duration
+ * after their time are counted as late; when transmitter falls behind by more than jitter buffer,
+ * clock is restarted instead of bursting.
+ */
+final class TXProcessor implements Processor<ByteBuffer, ByteBuffer>, Runnable, Closeable {
+
+static final int DEFAULT_JITTER_PACKETS = 4;
+private static final long PACKET_NANOS = TimeUnit.SECONDS.toNanos(TX_SAMPLES_PER_PACKET) / TX_SAMPLE_RATE;
+private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+private final InetSocketAddress address;
+private final DatagramChannel channel;
+private final ArrayBlockingQueue<ByteBuffer> jitter;
+private final int jitterPackets;
+private final long maxLag;
+private final ByteBuffer silence = ByteBuffer.allocateDirect(TX_PACKET_SIZE);
+private final AtomicLong demand = new AtomicLong();
+// used buffers on their way back to downstream
+private final Queue<ByteBuffer> returned = new ConcurrentLinkedQueue<>();
+private final AtomicInteger returnedCount = new AtomicInteger();
+private final AtomicInteger wip = new AtomicInteger();
+private volatile Throwable terminal;
+private volatile boolean finished; // set after terminal, once nothing else can be returned
+private volatile boolean returnsCancelled;
+private boolean signalled; // accessed by draining thread
+private volatile Subscription upstream;
+private volatile Subscriber<? super ByteBuffer> downstream;
+private volatile boolean upstreamDone;
+private volatile Throwable upstreamError;
+private volatile boolean done;
+private Thread thread;
+private Runnable onFinish; // guarded by this
+
+private volatile long sentPackets;
+private volatile long underruns;
+private volatile long latePackets;
+private volatile long rejected;
+
+TXProcessor(final InetAddress address, final int port, final int jitterPackets) throws IOException {
+	if (jitterPackets <= 0) {
+		throw new IllegalArgumentException("Jitter buffer needs at least one packet.");
+	}
+	this.jitterPackets = jitterPackets;
+	jitter = new ArrayBlockingQueue<>(jitterPackets);
+	maxLag = (jitterPackets + 1) * PACKET_NANOS;
+	this.address = new InetSocketAddress(address, port);
+	channel = DatagramChannel.open();
+	channel.connect(this.address);
+}
+
+/**
+ * Takes subscriber buffers are returned to, only one is supported.
+ */
+@Override
+public void subscribe(final Subscriber<? super ByteBuffer> s) {
+	synchronized (this) {
+		if (downstream != null) {
+			s.onSubscribe(new Subscription() {
+				@Override
+				public void request(final long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			s.onError(new IllegalStateException("Transmitter returns buffers to one subscriber only."));
+			return;
+		}
+		downstream = s;
+		returnsCancelled = false;
+	}
+	s.onSubscribe(new Subscription() {
+		@Override
+		public void request(final long n) {
+			if (n <= 0) {
+				return;
+			}
+			long current;
+			do {
+				current = demand.get();
+			} while (!demand.compareAndSet(current, RXDispatcher.addDemand(current, n)));
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (TXProcessor.this) {
+				downstream = null;
+			}
+			returnsCancelled = true;
+			drain();
+		}
+	});
+	drain();
+}
+
+@Override
+public void onSubscribe(final Subscription s) {
+	synchronized (this) {
+		if (upstream != null || done) {
+			s.cancel();
+			return;
+		}
+		upstream = s;
+		thread = new NamedThreadFactory("hiqsdr-tx", Thread.MAX_PRIORITY).newThread(this);
+		thread.start();
+	}
+	s.request(jitterPackets);
+}
+
+@Override
+public void onNext(final ByteBuffer buffer) {
+	if (done || !jitter.offer(buffer)) {
+		// producer ignored demand, don't hold its buffer
+		giveBack(buffer);
+	}
+}
+
+@Override
+public void onError(final Throwable t) {
+	upstreamError = t;
+	upstreamDone = true;
+	LockSupport.unpark(thread);
+}
+
+/**
+ * Transmitter finishes after queued packets are sent.
+ */
+@Override
+public void onComplete() {
+	upstreamDone = true;
+	LockSupport.unpark(thread);
+}
+
+/**
+ * Stops transmission at once, queued packets are returned unsent.
+ */
+@Override
+public void close() throws IOException {
+	finish(null);
+}
+
+/**
+ * @return counters of this transmitter, cheap enough to be polled every second.
+ */
+TXMetrics getMetrics() {
+	final TXMetrics m = new TXMetrics(address);
+	m.timestamp = System.nanoTime();
+	m.sentPackets = sentPackets;
+	m.underruns = underruns;
+	m.latePackets = latePackets;
+	m.rejected = rejected;
+	m.queued = jitter.size();
+	m.pendingReturns = returnedCount.get();
+	return m;
+}
+
+@Override
+public void run() {
+	Throwable error = null;
+	try {
+		transmit();
+		error = upstreamError;
+	} catch (IOException e) {
+		error = e;
+	} finally {
+		finish(error);
+	}
+}
+
+private void transmit() throws IOException {
+	int sequence = 0;
+	long base = 0;
+	long samples = 0;
+	boolean started = false;
+	while (!done) {
+		if (!started) {
+			if (jitter.remainingCapacity() == 0 || (upstreamDone && !jitter.isEmpty())) {
+				started = true;
+				base = System.nanoTime();
+			} else if (upstreamDone) {
+				return;
+			} else {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+			continue;
+		}
+		final long lag = System.nanoTime() - (base + samplesToNanos(samples));
+		if (lag < 0) {
+			LockSupport.parkNanos(this, -lag);
+			continue;
+		}
+		if (lag > maxLag) {
+			// we were stalled, restart clock rather than send a burst device can't hold
+			base += lag;
+		}
+		final ByteBuffer packet = jitter.poll();
+		if (packet == null) {
+			if (upstreamDone) {
+				return;
+			}
+			++underruns;
+			silence.clear();
+			send(silence, sequence++);
+			samples += TX_SAMPLES_PER_PACKET;
+			continue;
+		}
+		final Subscription s = upstream;
+		if (s != null && !upstreamDone) {
+			s.request(1);
+		}
+		final int sampleCount = (packet.remaining() - TX_HEADER_SIZE) / TX_SAMPLE_SIZE;
+		if (sampleCount <= 0 || sampleCount > TX_SAMPLES_PER_PACKET
+		    || (packet.remaining() - TX_HEADER_SIZE) % TX_SAMPLE_SIZE != 0) {
+			++rejected;
+			giveBack(packet);
+			continue;
+		}
+		if (lag > PACKET_NANOS) {
+			++latePackets;
+		}
+		final int position = packet.position();
+		send(packet, sequence++);
+		packet.position(position);
+		samples += sampleCount;
+		giveBack(packet);
+	}
+}
+
+private void send(final ByteBuffer packet, final int sequence) throws IOException {
+	final int position = packet.position();
+	packet.put(position, (byte) sequence);
+	packet.put(position + 1, (byte) 0);
+	channel.write(packet);
+	++sentPackets;
+}
+
+private static long samplesToNanos(final long samples) {
+	// 10^9 / 48000 = 62500 / 3, keeps product from overflowing for years
+	return samples * 62_500 / 3;
+}
+
+private void giveBack(final ByteBuffer buffer) {
+	returned.offer(buffer);
+	returnedCount.incrementAndGet();
+	drain();
+}
+
+/**
+ * Emits returned buffers as far as demand allows, then terminal signal once transmitter is done.
+ */
+private void drain() {
+	if (wip.getAndIncrement() != 0) {
+		return;
+	}
+	int missed = 1;
+	do {
+		if (returnsCancelled) {
+			while (returned.poll() != null) {
+				returnedCount.decrementAndGet();
+			}
+		}
+		final Subscriber<? super ByteBuffer> s = downstream;
+		if (s != null) {
+			while (demand.get() > 0) {
+				final ByteBuffer buffer = returned.poll();
+				if (buffer == null) {
+					break;
+				}
+				returnedCount.decrementAndGet();
+				if (demand.get() != Long.MAX_VALUE) {
+					demand.decrementAndGet();
+				}
+				s.onNext(buffer);
+			}
+			if (finished && !signalled && returned.isEmpty()) {
+				signalled = true;
+				final Throwable error = terminal;
+				if (error == null) {
+					s.onComplete();
+				} else {
+					s.onError(error);
+				}
+			}
+		}
+		missed = wip.addAndGet(-missed);
+	} while (missed != 0);
+}
+
+private void finish(final Throwable error) {
+	final Subscription s;
+	final Runnable action;
+	synchronized (this) {
+		if (done) {
+			return;
+		}
+		done = true;
+		s = upstream;
+		action = onFinish;
+	}
+	if (s != null && !upstreamDone) {
+		s.cancel();
+	}
+	ByteBuffer b;
+	while ((b = jitter.poll()) != null) {
+		returned.offer(b);
+		returnedCount.incrementAndGet();
+	}
+	try {
+		channel.close();
+	} catch (IOException e) {
+		e.printStackTrace();
+	}
+	terminal = error;
+	finished = true;
+	drain();
+	if (action != null) {
+		action.run();
+	}
+}
+
+/**
+ * Sets action run once transmitter finishes, or runs it right away if transmitter has already finished.
+ */
+void onFinish(final Runnable action) {
+	synchronized (this) {
+		if (!done) {
+			onFinish = action;
+			return;
+		}
+	}
+	action.run();
+}
+}
@@ -0,0 +1,82 @@
+package com.pavlus.hiqsdr;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link BufferPool} filled by upstream Publisher: every unknown buffer released to it
+ * is adopted as a new pooled buffer, unless it's smaller than buffers receiver needs.
+ * <p>
+ * Buffers are tracked by identity, content-based {@link ByteBuffer#hashCode()} changes with position.
+ */
+final class UpstreamBufferPool implements BufferPool {
+
+private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+private final Map<ByteBuffer, AtomicInteger> usage = new IdentityHashMap<>();
+private final int minCapacity;
+
+/**
+ * @param minCapacity smallest capacity of buffer to adopt.
+ */
+UpstreamBufferPool(final int minCapacity) {
+	this.minCapacity = minCapacity;
+}
+
+@Override
+public ByteBuffer acquire() {
+	ByteBuffer buffer = free.poll();
+	if (buffer != null) {
+		counter(buffer).set(1);
+		buffer.clear();
+	}
+	return buffer;
+}
+
+@Override
+public void retain(final ByteBuffer buffer, final int count) {
+	counter(buffer).addAndGet(count);
+}
+
+/**
+ * @return false if buffer is unknown and too small to be adopted.
+ */
+@Override
+public boolean release(final ByteBuffer buffer) {
+	AtomicInteger cnt;
+	synchronized (usage) {
+		cnt = usage.get(buffer);
+		if (cnt == null) {
+			if (buffer.capacity() < minCapacity) {
+				return false;
+			}
+			usage.put(buffer, new AtomicInteger());
+		}
+	}
+	if (cnt == null || cnt.decrementAndGet() == 0) {
+		free.offer(buffer);
+	}
+	return true;
+}
+
+@Override
+public int available() {
+	return free.size();
+}
+
+@Override
+public int capacity() {
+	synchronized (usage) {
+		return usage.size();
+	}
+}
+
+private AtomicInteger counter(final ByteBuffer buffer) {
+	synchronized (usage) {
+		return usage.get(buffer);
+	}
+}
+}
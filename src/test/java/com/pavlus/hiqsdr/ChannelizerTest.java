@@ -0,0 +1,139 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelizerTest {
+
+private static final int CHANNELS = 8;
+private static final int BLOCK_SAMPLES = 1024;
+private static final int BLOCKS = 16;
+
+private final Channelizer channelizer = new Channelizer(null, CHANNELS);
+
+@After
+public void close() {
+	channelizer.close();
+}
+
+@Test
+public void toneComesOutOfItsChannelOnly() {
+	for (int k : new int[]{0, 3, CHANNELS / 2, CHANNELS - 2}) {
+		final Channelizer bank = new Channelizer(null, CHANNELS);
+		try {
+			final double[] power = run(bank, bank.getChannelOffset(k));
+			for (int c = 0; c < CHANNELS; ++c) {
+				if (c != k) {
+					final double attenuation = 10 * Math.log10(power[k] / Math.max(power[c], 1e-30));
+					assertTrue("tone of channel " + k + " leaks into " + c + ", attenuated by " + attenuation + " dB",
+					           attenuation > 60);
+				}
+			}
+			// unity gain at channel center, 0.25 is power of the tone
+			assertEquals("power in channel " + k, 0.25, power[k], 0.01);
+		} finally {
+			bank.close();
+		}
+	}
+}
+
+@Test
+public void channelOffsetsCoverBandInOrder() {
+	assertEquals(0, channelizer.getChannelOffset(0), 0);
+	assertEquals(1.0 / CHANNELS, channelizer.getChannelOffset(1), 0);
+	assertEquals(-0.5, channelizer.getChannelOffset(CHANNELS / 2), 0);
+	assertEquals(-1.0 / CHANNELS, channelizer.getChannelOffset(CHANNELS - 1), 0);
+}
+
+@Test
+public void subscriberAfterCloseIsCompleted() {
+	channelizer.close();
+	final Collector collector = new Collector();
+	channelizer.channel(1).subscribe(collector);
+	assertTrue(collector.completed);
+	assertEquals(0, collector.frames);
+}
+
+@Test
+public void subscriberAfterErrorGetsIt() {
+	final Exception error = new Exception("upstream failed");
+	channelizer.onError(error);
+	final Collector collector = new Collector();
+	channelizer.channel(0).subscribe(collector);
+	assertEquals(error, collector.error);
+}
+
+/**
+ * Feeds tone at {@code offset} of sample rate with amplitude 0.5 through bank.
+ *
+ * @return mean power of every channel once filters have filled.
+ */
+private static double[] run(final Channelizer bank, final double offset) {
+	final Collector[] collectors = new Collector[CHANNELS];
+	for (int c = 0; c < CHANNELS; ++c) {
+		collectors[c] = new Collector();
+		bank.channel(c).subscribe(collectors[c]);
+	}
+	final float[] block = new float[2 * BLOCK_SAMPLES];
+	long n = 0;
+	for (int b = 0; b < BLOCKS; ++b) {
+		for (int i = 0; i < BLOCK_SAMPLES; ++i, ++n) {
+			final double phase = 2 * Math.PI * offset * n;
+			block[2 * i] = (float) (0.5 * Math.cos(phase));
+			block[2 * i + 1] = (float) (0.5 * Math.sin(phase));
+		}
+		bank.onNext(FloatBuffer.wrap(block));
+	}
+	final double[] power = new double[CHANNELS];
+	for (int c = 0; c < CHANNELS; ++c) {
+		assertEquals(BLOCKS * BLOCK_SAMPLES / CHANNELS, collectors[c].frames);
+		power[c] = collectors[c].power / collectors[c].measured;
+	}
+	return power;
+}
+
+private static final class Collector implements Subscriber<FloatBuffer> {
+	// frames filling filter history aren't measured
+	private static final int SKIP = 2 * Channelizer.DEFAULT_TAPS_PER_CHANNEL;
+
+	int frames;
+	int measured;
+	double power;
+	boolean completed;
+	Throwable error;
+
+	@Override
+	public void onSubscribe(final Subscription s) {
+		s.request(Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(final FloatBuffer block) {
+		while (block.hasRemaining()) {
+			final float re = block.get();
+			final float im = block.get();
+			if (frames++ >= SKIP) {
+				power += re * re + im * im;
+				++measured;
+			}
+		}
+	}
+
+	@Override
+	public void onError(final Throwable t) {
+		error = t;
+	}
+
+	@Override
+	public void onComplete() {
+		completed = true;
+	}
+}
+}
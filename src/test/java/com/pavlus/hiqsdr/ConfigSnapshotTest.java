@@ -0,0 +1,98 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.pavlus.hiqsdr.Protocol.CFG_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.TX_MODE_EXTENDED_IO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigSnapshotTest {
+
+@Test
+public void parsedPacketEncodesTheSame() {
+	final ConfigSnapshot snapshot = ConfigSnapshot.builder()
+			.firmwareVersion((byte) 2)
+			.rxFrequency(7_100_000)
+			.txFrequency(14_200_000)
+			.tiedTxToRxFreq(false)
+			.txPowerLevel(200)
+			.txMode(TX_MODE_EXTENDED_IO)
+			.sampleRate(Protocol.getSupportedSampleRates()[0])
+			.antenna((byte) 1)
+			.build();
+	final ConfigSnapshot parsed = ConfigSnapshot.fromPacket(snapshot.packet());
+
+	assertTrue(parsed.matches(snapshot.packet()));
+	assertTrue(snapshot.matches(parsed.packet()));
+	assertEquals(200, parsed.getTxPowerLevel());
+	assertEquals(TX_MODE_EXTENDED_IO, parsed.getTxMode());
+	assertEquals(snapshot.getSampleRate(), parsed.getSampleRate());
+	assertEquals(2, parsed.getFirmwareVersion());
+	assertEquals(1, parsed.getAntenna());
+	assertFalse(parsed.isTiedTxToRxFreq());
+	// tune phase has much finer step than 1 Hz
+	assertEquals(7_100_000, parsed.getRxFrequency(), 1);
+	assertEquals(14_200_000, parsed.getTxFrequency(), 1);
+}
+
+@Test
+public void tiedFrequencyIsSentAndParsedAsTied() {
+	final ConfigSnapshot snapshot = ConfigSnapshot.builder()
+			.rxFrequency(3_500_000)
+			.txFrequency(10_000_000)
+			.build();
+	final ConfigSnapshot parsed = ConfigSnapshot.fromPacket(snapshot.packet());
+
+	assertTrue(parsed.isTiedTxToRxFreq());
+	assertEquals(parsed.getRxFrequency(), parsed.getTxFrequency());
+	assertTrue(parsed.matches(snapshot.packet()));
+}
+
+@Test
+public void firmwareV1PacketMayEndAfterVersion() {
+	final ConfigSnapshot snapshot = ConfigSnapshot.builder().firmwareVersion((byte) 0).rxFrequency(1_000_000).build();
+	final ByteBuffer shortPacket = (ByteBuffer) snapshot.packet().limit(CFG_PACKET_SIZE - 8);
+	final ConfigSnapshot parsed = ConfigSnapshot.fromPacket(shortPacket);
+
+	assertEquals(0, parsed.getFirmwareVersion());
+	assertEquals(0, parsed.getAntenna());
+	assertTrue(parsed.matches(snapshot.packet()));
+}
+
+@Test(expected = IllegalArgumentException.class)
+public void wrongMagicIsRejected() {
+	final ByteBuffer packet = ByteBuffer.allocate(CFG_PACKET_SIZE);
+	packet.put(ConfigSnapshot.builder().build().packet()).flip();
+	packet.put(0, (byte) 'X');
+	ConfigSnapshot.fromPacket(packet);
+}
+
+@Test(expected = IllegalArgumentException.class)
+public void truncatedPacketIsRejected() {
+	ConfigSnapshot.fromPacket((ByteBuffer) ConfigSnapshot.builder().build().packet().limit(4));
+}
+
+@Test
+public void packetViewIsNotConsumedByParsing() {
+	final ConfigSnapshot snapshot = ConfigSnapshot.builder().rxFrequency(5_000_000).build();
+	ConfigSnapshot.fromPacket(snapshot.packet());
+	assertEquals(CFG_PACKET_SIZE, snapshot.packet().remaining());
+}
+
+@Test
+public void fillingFromPacketTiesButNeverUnties() {
+	final Config config = new Config();
+	config.setTiedTxToRxFreq(false);
+	config.fillFromPacket(ConfigSnapshot.builder().rxFrequency(1_000_000).build().packet());
+	assertTrue(config.isTiedTxToRxFreq());
+
+	config.fillFromPacket(ConfigSnapshot.builder()
+			                      .rxFrequency(1_000_000).txFrequency(2_000_000).tiedTxToRxFreq(false)
+			                      .build().packet());
+	assertTrue(config.isTiedTxToRxFreq());
+}
+}
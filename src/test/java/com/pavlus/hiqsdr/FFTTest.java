@@ -0,0 +1,85 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FFTTest {
+
+private final Random random = new Random(1);
+
+@Test
+public void forwardMatchesNaiveDft() {
+	for (int size = 2; size <= 256; size *= 2) {
+		final float[] data = noise(size);
+		final double[] expected = dft(data, size);
+		new FFT(size).forward(data);
+		for (int i = 0; i < 2 * size; ++i) {
+			assertEquals("size " + size + ", value " + i, expected[i], data[i], 1e-4 * size);
+		}
+	}
+}
+
+@Test
+public void inverseUndoesForwardUpToSize() {
+	final int size = 64;
+	final float[] original = noise(size);
+	final float[] data = original.clone();
+	final FFT fft = new FFT(size);
+	fft.forward(data);
+	fft.inverse(data);
+	for (int i = 0; i < 2 * size; ++i) {
+		assertEquals("value " + i, original[i] * size, data[i], 1e-3);
+	}
+}
+
+@Test
+public void toneLandsInItsBin() {
+	final int size = 32;
+	final int bin = 5;
+	final float[] data = new float[2 * size];
+	for (int n = 0; n < size; ++n) {
+		final double phase = 2 * Math.PI * bin * n / size;
+		data[2 * n] = (float) Math.cos(phase);
+		data[2 * n + 1] = (float) Math.sin(phase);
+	}
+	new FFT(size).forward(data);
+	for (int k = 0; k < size; ++k) {
+		assertEquals("re of bin " + k, k == bin ? size : 0, data[2 * k], 1e-4);
+		assertEquals("im of bin " + k, 0, data[2 * k + 1], 1e-4);
+	}
+}
+
+@Test(expected = IllegalArgumentException.class)
+public void sizeMustBePowerOfTwo() {
+	new FFT(12);
+}
+
+private float[] noise(final int size) {
+	final float[] data = new float[2 * size];
+	for (int i = 0; i < data.length; ++i) {
+		data[i] = (float) random.nextGaussian();
+	}
+	return data;
+}
+
+private static double[] dft(final float[] data, final int size) {
+	final double[] out = new double[2 * size];
+	for (int k = 0; k < size; ++k) {
+		double re = 0;
+		double im = 0;
+		for (int n = 0; n < size; ++n) {
+			final double angle = -2 * Math.PI * ((long) k * n % size) / size;
+			final double c = Math.cos(angle);
+			final double s = Math.sin(angle);
+			re += data[2 * n] * c - data[2 * n + 1] * s;
+			im += data[2 * n] * s + data[2 * n + 1] * c;
+		}
+		out[2 * k] = re;
+		out[2 * k + 1] = im;
+	}
+	return out;
+}
+}
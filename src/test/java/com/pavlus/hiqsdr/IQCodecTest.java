@@ -0,0 +1,148 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IQCodecTest {
+
+private static final int PACKETS = 8;
+
+private final IQCodec codec = new IQCodec();
+private final Random random = new Random(1);
+
+@Test
+public void noiseRoundTripsAndCompresses() {
+	final ByteBuffer block = block(new Samples() {
+		@Override
+		public int next(final int n) {
+			return (int) (random.nextGaussian() * 300);
+		}
+	});
+	final byte[] frame = encode(block);
+	assertTrue("frame of " + frame.length + " bytes", frame.length < block.limit() / 2);
+	assertEquals(block, decode(frame));
+}
+
+@Test
+public void uniformSamplesFallBackToVerbatim() {
+	final ByteBuffer block = block(new Samples() {
+		@Override
+		public int next(final int n) {
+			return random.nextInt(1 << 24) - (1 << 23);
+		}
+	});
+	final byte[] frame = encode(block);
+	// two bits of predictor order and 24 bits per sample in each partition
+	final int verbatimBits = PACKETS * 2 * (2 + RX_SAMPLES_PER_PACKET * 24);
+	final int verbatim = IQCodec.HEADER_SIZE + 2 * PACKETS + (verbatimBits + 7) / 8 + IQCodec.TRAILER_SIZE;
+	assertEquals(verbatim, frame.length);
+	assertEquals(block, decode(frame));
+}
+
+@Test
+public void rareSpikesAreEscaped() {
+	final ByteBuffer block = block(new Samples() {
+		@Override
+		public int next(final int n) {
+			// far above Rice parameter picked for quiet samples around them
+			return n % 97 == 0 ? 5000 : n % 89 == 0 ? -5000 : random.nextInt(3) - 1;
+		}
+	});
+	final byte[] frame = encode(block);
+	assertTrue("frame of " + frame.length + " bytes", frame.length < block.limit() / 2);
+	assertEquals(block, decode(frame));
+}
+
+@Test
+public void fullScaleSwingsRoundTrip() {
+	final ByteBuffer block = block(new Samples() {
+		@Override
+		public int next(final int n) {
+			return (n & 1) == 0 ? (1 << 23) - 1 : -(1 << 23);
+		}
+	});
+	assertEquals(block, decode(encode(block)));
+}
+
+@Test
+public void headerDescribesFrame() {
+	final byte[] frame = encode(block(new Samples() {
+		@Override
+		public int next(final int n) {
+			return n;
+		}
+	}));
+	assertEquals(PACKETS, IQCodec.framePackets(ByteBuffer.wrap(frame), 0));
+	assertEquals(frame.length, IQCodec.frameLength(ByteBuffer.wrap(frame), 0));
+}
+
+@Test
+public void corruptedFrameIsRejected() {
+	final byte[] frame = encode(block(new Samples() {
+		@Override
+		public int next(final int n) {
+			return (int) (random.nextGaussian() * 1000);
+		}
+	}));
+	for (int index : new int[] {IQCodec.HEADER_SIZE, frame.length / 2, frame.length - 1}) {
+		final byte[] damaged = frame.clone();
+		damaged[index] ^= 0x10;
+		try {
+			decode(damaged);
+			fail("damage at " + index + " wasn't detected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
+
+@Test(expected = IllegalArgumentException.class)
+public void truncatedFrameIsRejected() {
+	final byte[] frame = encode(block(new Samples() {
+		@Override
+		public int next(final int n) {
+			return 0;
+		}
+	}));
+	codec.decode(ByteBuffer.wrap(frame, 0, frame.length - 1), 0, ByteBuffer.allocate(PACKETS * RX_PACKET_SIZE), 0);
+}
+
+private interface Samples {
+	int next(int n);
+}
+
+private static ByteBuffer block(final Samples samples) {
+	final ByteBuffer block = ByteBuffer.allocateDirect(PACKETS * RX_PACKET_SIZE);
+	int n = 0;
+	for (int p = 0; p < PACKETS; ++p) {
+		block.put((byte) (250 + p)).put((byte) (p == 3 ? Protocol.RX_STATUS_GAP : 0));
+		for (int i = 0; i < 2 * RX_SAMPLES_PER_PACKET; ++i) {
+			final int value = samples.next(n++);
+			block.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+		}
+	}
+	block.flip();
+	return block;
+}
+
+private byte[] encode(final ByteBuffer block) {
+	final byte[] frame = new byte[IQCodec.maxFrameSize(PACKETS)];
+	final int length = codec.encode(block, 0, PACKETS, frame, 0);
+	final byte[] exact = new byte[length];
+	System.arraycopy(frame, 0, exact, 0, length);
+	return exact;
+}
+
+private ByteBuffer decode(final byte[] frame) {
+	final ByteBuffer decoded = ByteBuffer.allocateDirect(PACKETS * RX_PACKET_SIZE);
+	assertEquals(PACKETS, codec.decode(ByteBuffer.wrap(frame), 0, decoded, 0));
+	return decoded;
+}
+}
@@ -0,0 +1,122 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static org.junit.Assert.assertEquals;
+
+public class ResamplerTest {
+
+private static final int BLOCK_PACKETS = 32;
+
+@Test
+public void downsamplesWithCicAndFir() {
+	check(960000, 44100, 0.2);
+}
+
+@Test
+public void decimatesByFour() {
+	check(48000, 12000, 2);
+}
+
+@Test
+public void resamplesByRationalRatio() {
+	check(192000, 44100, 0.5);
+}
+
+@Test
+public void upsamples() {
+	check(48000, 96000, 1);
+}
+
+@Test(expected = IllegalArgumentException.class)
+public void ratioNeedingTooManyPhasesIsRejected() {
+	new Resampler(null, 48000, Resampler.MAX_PHASES * 48000 + 1);
+}
+
+/**
+ * Feeds {@code seconds} of tone at 0.13 of output rate with amplitude 0.5 and checks
+ * that output has as many samples as rate ratio gives and tone keeps its frequency and level.
+ */
+private static void check(final int inputRate, final int outputRate, final double seconds) {
+	final Resampler resampler = new Resampler(null, inputRate, outputRate);
+	final Collector collector = new Collector();
+	resampler.subscribe(collector);
+	final double frequency = 0.13 * outputRate;
+	final int packets = (int) (seconds * inputRate / RX_SAMPLES_PER_PACKET);
+	long n = 0;
+	for (int p = 0; p < packets; p += BLOCK_PACKETS) {
+		final ByteBuffer block = ByteBuffer.allocate(BLOCK_PACKETS * RX_PACKET_SIZE);
+		for (int i = 0; i < BLOCK_PACKETS; ++i) {
+			block.put((byte) (p + i)).put((byte) 0);
+			for (int s = 0; s < RX_SAMPLES_PER_PACKET; ++s, ++n) {
+				final double phase = 2 * Math.PI * frequency * n / inputRate;
+				put(block, (int) Math.round(0.5 * Math.cos(phase) * (1 << 23)));
+				put(block, (int) Math.round(0.5 * Math.sin(phase) * (1 << 23)));
+			}
+		}
+		block.flip();
+		resampler.onNext(block);
+	}
+	final int count = collector.count;
+	final String ratio = inputRate + ":" + outputRate;
+	assertEquals("samples of " + ratio, n * (double) outputRate / inputRate, count, 1);
+
+	// filters fill during the first tenth of output
+	double re = 0;
+	double im = 0;
+	double power = 0;
+	final float[] out = collector.samples;
+	for (int i = count / 10 + 1; i < count; ++i) {
+		final float r0 = out[2 * i - 2];
+		final float i0 = out[2 * i - 1];
+		final float r1 = out[2 * i];
+		final float i1 = out[2 * i + 1];
+		re += r1 * r0 + i1 * i0;
+		im += i1 * r0 - r1 * i0;
+		power += r1 * r1 + i1 * i1;
+	}
+	final double measured = Math.atan2(im, re) * outputRate / (2 * Math.PI);
+	assertEquals("frequency of tone at " + ratio, frequency, measured, 0.01);
+	assertEquals("power of tone at " + ratio, 0.25, power / (count - count / 10 - 1), 0.25 * 0.01);
+}
+
+private static void put(final ByteBuffer block, final int value) {
+	block.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+}
+
+private static final class Collector implements Subscriber<FloatBuffer> {
+	float[] samples = new float[1024];
+	int count;
+
+	@Override
+	public void onSubscribe(final Subscription s) {
+		s.request(Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(final FloatBuffer block) {
+		final int values = block.remaining();
+		if (samples.length < 2 * count + values) {
+			samples = Arrays.copyOf(samples, Math.max(2 * samples.length, 2 * count + values));
+		}
+		block.get(samples, 2 * count, values);
+		count += values / 2;
+	}
+
+	@Override
+	public void onError(final Throwable t) {
+	}
+
+	@Override
+	public void onComplete() {
+	}
+}
+}
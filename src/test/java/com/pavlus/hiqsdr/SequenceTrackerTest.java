@@ -0,0 +1,77 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SequenceTrackerTest {
+
+@Test
+public void contiguousSequenceWrapsAroundWithoutLoss() {
+	final SequenceTracker tracker = new SequenceTracker();
+	for (int i = 0; i < 1000; ++i) {
+		assertEquals(0, tracker.accept((250 + i) & 0xff));
+	}
+	assertEquals(0, tracker.lost());
+	assertEquals(0, tracker.gaps());
+	assertEquals(0, tracker.late());
+}
+
+@Test
+public void gapIsCountedOnce() {
+	final SequenceTracker tracker = new SequenceTracker();
+	tracker.accept(10);
+	assertEquals(4, tracker.accept(15));
+	assertEquals(0, tracker.accept(16));
+	assertEquals(4, tracker.lost());
+	assertEquals(1, tracker.gaps());
+}
+
+@Test
+public void gapAcrossWrapAround() {
+	final SequenceTracker tracker = new SequenceTracker();
+	tracker.accept(253);
+	assertEquals(3, tracker.accept(1));
+	assertEquals(0, tracker.accept(2));
+	assertEquals(3, tracker.lost());
+}
+
+@Test
+public void latePacketIsDroppedAndSequenceGoesOn() {
+	final SequenceTracker tracker = new SequenceTracker();
+	tracker.accept(0);
+	tracker.accept(1);
+	tracker.accept(2);
+	assertEquals(-1, tracker.accept(1));
+	assertEquals(0, tracker.accept(3));
+	assertEquals(1, tracker.late());
+	assertEquals(0, tracker.lost());
+}
+
+@Test
+public void lateJustAcrossWrapAround() {
+	final SequenceTracker tracker = new SequenceTracker();
+	tracker.accept(255);
+	tracker.accept(0);
+	assertEquals(-1, tracker.accept(255));
+	assertEquals(0, tracker.accept(1));
+}
+
+@Test
+public void largestGapOutsideReorderWindow() {
+	final SequenceTracker tracker = new SequenceTracker();
+	tracker.accept(0);
+	final int missing = 255 - SequenceTracker.REORDER_WINDOW;
+	assertEquals(missing, tracker.accept(missing + 1));
+}
+
+@Test
+public void resyncStartsNewSequence() {
+	final SequenceTracker tracker = new SequenceTracker();
+	tracker.accept(5);
+	tracker.resync();
+	assertEquals(0, tracker.accept(100));
+	assertEquals(0, tracker.accept(101));
+	assertEquals(0, tracker.lost());
+}
+}
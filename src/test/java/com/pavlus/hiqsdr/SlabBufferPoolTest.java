@@ -0,0 +1,89 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlabBufferPoolTest {
+
+@Test
+public void acquiredBufferIsFreedByRelease() {
+	final SlabBufferPool pool = new SlabBufferPool(16, 2, 1, 1);
+	final ByteBuffer buffer = pool.acquire();
+	assertEquals(16, buffer.capacity());
+	assertEquals(1, pool.available());
+	assertTrue(pool.release(buffer));
+	assertEquals(2, pool.available());
+}
+
+@Test
+public void retainedBufferStaysTakenUntilLastRelease() {
+	final SlabBufferPool pool = new SlabBufferPool(16, 1, 1, 1);
+	final ByteBuffer buffer = pool.acquire();
+	pool.retain(buffer, 2);
+	assertTrue(pool.release(buffer));
+	assertTrue(pool.release(buffer));
+	assertEquals(0, pool.available());
+	assertNull(pool.acquire());
+	assertTrue(pool.release(buffer));
+	assertEquals(1, pool.available());
+	assertSame(buffer, pool.acquire());
+}
+
+@Test(expected = IllegalStateException.class)
+public void releasingFreeBufferFails() {
+	final SlabBufferPool pool = new SlabBufferPool(16, 1, 1, 1);
+	final ByteBuffer buffer = pool.acquire();
+	pool.release(buffer);
+	pool.release(buffer);
+}
+
+@Test
+public void foreignBufferIsNotReleased() {
+	final SlabBufferPool pool = new SlabBufferPool(16, 1, 1, 1);
+	assertFalse(pool.release(ByteBuffer.allocateDirect(16)));
+}
+
+@Test(expected = IllegalArgumentException.class)
+public void foreignBufferCannotBeRetained() {
+	new SlabBufferPool(16, 1, 1, 1).retain(ByteBuffer.allocateDirect(16), 1);
+}
+
+@Test
+public void growsBySlabUpToLimit() {
+	final SlabBufferPool pool = new SlabBufferPool(8, 4, 0, 2);
+	assertEquals(0, pool.capacity());
+	final List<ByteBuffer> taken = new ArrayList<>();
+	for (int i = 0; i < 8; ++i) {
+		final ByteBuffer buffer = pool.acquire();
+		assertNotNull(buffer);
+		taken.add(buffer);
+	}
+	assertEquals(8, pool.capacity());
+	assertNull(pool.acquire());
+	for (ByteBuffer buffer : taken) {
+		assertTrue(pool.release(buffer));
+	}
+	assertEquals(8, pool.available());
+}
+
+@Test
+public void acquiredBufferIsCleared() {
+	final SlabBufferPool pool = new SlabBufferPool(16, 1, 1, 1);
+	final ByteBuffer buffer = pool.acquire();
+	buffer.position(5).limit(7);
+	pool.release(buffer);
+	final ByteBuffer again = pool.acquire();
+	assertEquals(0, again.position());
+	assertEquals(16, again.limit());
+}
+}
@@ -0,0 +1,139 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static com.pavlus.hiqsdr.Protocol.RX_SAMPLES_PER_PACKET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpectrumProcessorTest {
+
+private static final int SIZE = 256;
+private static final int BLOCK_PACKETS = 8;
+// power of complex sine with amplitude 0.5 relative to full scale
+private static final double TONE_LEVEL = 10 * Math.log10(0.25);
+
+@Test
+public void toneShowsAtItsBin() {
+	final float[] frame = firstFrame(20, SpectrumOptions.Window.HANN);
+	assertEquals(SIZE / 2 + 20, peak(frame));
+	assertEquals(TONE_LEVEL, frame[SIZE / 2 + 20], 0.05);
+	for (int i = 0; i < SIZE; ++i) {
+		if (Math.abs(i - SIZE / 2 - 20) > 1) {
+			assertTrue("bin " + i + " at " + frame[i] + " dB", frame[i] < TONE_LEVEL - 80);
+		}
+	}
+}
+
+@Test
+public void negativeFrequenciesComeFirst() {
+	final float[] frame = firstFrame(-40, SpectrumOptions.Window.BLACKMAN_HARRIS);
+	assertEquals(SIZE / 2 - 40, peak(frame));
+	assertEquals(TONE_LEVEL, frame[SIZE / 2 - 40], 0.05);
+}
+
+@Test
+public void framesAreLimitedByFrameRate() {
+	final SpectrumProcessor spectrum = new SpectrumProcessor(null, new SpectrumOptions().fftSize(SIZE).frameRate(0.1));
+	final Collector collector = new Collector();
+	spectrum.subscribe(collector);
+	final Tone tone = new Tone(10);
+	for (int b = 0; b < 50; ++b) {
+		spectrum.onNext(tone.block());
+	}
+	assertEquals(1, spectrum.getFrames());
+	assertEquals(1, collector.frames.size());
+}
+
+@Test
+public void nothingIsComputedWithoutSubscribers() {
+	final SpectrumProcessor spectrum = new SpectrumProcessor(null, new SpectrumOptions().fftSize(SIZE));
+	final Tone tone = new Tone(10);
+	for (int b = 0; b < 50; ++b) {
+		spectrum.onNext(tone.block());
+	}
+	assertEquals(0, spectrum.getFrames());
+}
+
+private static float[] firstFrame(final int bin, final SpectrumOptions.Window window) {
+	final SpectrumProcessor spectrum = new SpectrumProcessor(null, new SpectrumOptions()
+			.fftSize(SIZE).window(window).averaging(SpectrumOptions.Averaging.MEAN, 4).frameRate(0.1));
+	final Collector collector = new Collector();
+	spectrum.subscribe(collector);
+	final Tone tone = new Tone(bin);
+	while (collector.frames.isEmpty()) {
+		spectrum.onNext(tone.block());
+	}
+	return collector.frames.get(0);
+}
+
+private static int peak(final float[] frame) {
+	int peak = 0;
+	for (int i = 1; i < frame.length; ++i) {
+		if (frame[i] > frame[peak]) {
+			peak = i;
+		}
+	}
+	return peak;
+}
+
+/**
+ * Complex sine centered in FFT bin, amplitude 0.5, cut into receiver blocks.
+ */
+private static final class Tone {
+	private final int bin;
+	private long n;
+	private int sequence;
+
+	Tone(final int bin) {
+		this.bin = bin;
+	}
+
+	ByteBuffer block() {
+		final ByteBuffer block = ByteBuffer.allocate(BLOCK_PACKETS * RX_PACKET_SIZE);
+		for (int p = 0; p < BLOCK_PACKETS; ++p) {
+			block.put((byte) sequence++).put((byte) 0);
+			for (int s = 0; s < RX_SAMPLES_PER_PACKET; ++s, ++n) {
+				final double phase = 2 * Math.PI * bin * (n % SIZE) / SIZE;
+				put(block, (int) Math.round(0.5 * Math.cos(phase) * (1 << 23)));
+				put(block, (int) Math.round(0.5 * Math.sin(phase) * (1 << 23)));
+			}
+		}
+		block.flip();
+		return block;
+	}
+
+	private static void put(final ByteBuffer block, final int value) {
+		block.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+	}
+}
+
+private static final class Collector implements Subscriber<float[]> {
+	final List<float[]> frames = new ArrayList<>();
+
+	@Override
+	public void onSubscribe(final Subscription s) {
+		s.request(Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(final float[] frame) {
+		frames.add(frame.clone());
+	}
+
+	@Override
+	public void onError(final Throwable t) {
+	}
+
+	@Override
+	public void onComplete() {
+	}
+}
+}
@@ -0,0 +1,225 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.pavlus.hiqsdr.Protocol.RX_PACKET_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamServerTest {
+
+private static final long TIMEOUT_MILLIS = 10000;
+
+private final Source source = new Source();
+private final Random random = new Random(1);
+private StreamServer server;
+
+@After
+public void tearDown() {
+	if (server != null) {
+		server.close();
+	}
+}
+
+@Test
+public void clientGetsIdenticalBytes() throws Exception {
+	server = new StreamServer(source, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).start();
+	final StreamClient client = new StreamClient(server.getLocalAddress(),
+	                                             new RXOptions().overflow(RXOptions.OverflowPolicy.BLOCK, 0));
+	final ByteArrayOutputStream received = new ByteArrayOutputStream();
+	final CountDownLatch completed = new CountDownLatch(1);
+	client.subscribe(new Subscriber<ByteBuffer>() {
+		@Override
+		public void onSubscribe(final Subscription s) {
+			s.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(final ByteBuffer block) {
+			final byte[] bytes = new byte[block.remaining()];
+			block.duplicate().get(bytes);
+			synchronized (received) {
+				received.write(bytes, 0, bytes.length);
+			}
+			client.onNext(block);
+		}
+
+		@Override
+		public void onError(final Throwable t) {
+			completed.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+	});
+	awaitClients(1);
+
+	final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+	for (int i = 0; i < 20; ++i) {
+		final ByteBuffer block = block(1 + i % 5);
+		final byte[] bytes = new byte[block.remaining()];
+		block.duplicate().get(bytes);
+		sent.write(bytes, 0, bytes.length);
+		source.publish(block);
+	}
+	source.complete();
+
+	assertTrue(completed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+	synchronized (received) {
+		assertArrayEquals(sent.toByteArray(), received.toByteArray());
+	}
+	awaitReturned(20);
+	assertEquals(0, server.getLaggedClients());
+}
+
+@Test
+public void clientFallingBehindIsDisconnected() throws Exception {
+	server = new StreamServer(source, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+	                          new StreamOptions().backlog(4).sendBuffer(4096)).start();
+	final SocketChannel stuck = stuckClient();
+	try {
+		awaitClients(1);
+		int published = 0;
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (server.getLaggedClients() == 0 && System.currentTimeMillis() < deadline) {
+			source.publish(block(64));
+			++published;
+			Thread.sleep(1);
+		}
+		assertEquals(1, server.getLaggedClients());
+		awaitClients(0);
+		awaitReturned(published);
+	} finally {
+		stuck.close();
+	}
+}
+
+@Test
+public void clientNotDrainingAfterCompletionIsDisconnected() throws Exception {
+	server = new StreamServer(source, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+	                          new StreamOptions().backlog(64).sendBuffer(4096)
+	                                             .drainTimeout(200, TimeUnit.MILLISECONDS)).start();
+	final SocketChannel stuck = stuckClient();
+	try {
+		awaitClients(1);
+		for (int i = 0; i < 16; ++i) {
+			source.publish(block(64));
+		}
+		source.complete();
+		awaitClients(0);
+		assertEquals(1, server.getLaggedClients());
+		awaitReturned(16);
+	} finally {
+		stuck.close();
+	}
+}
+
+/**
+ * Connects and never reads, so its socket stays full.
+ */
+private SocketChannel stuckClient() throws IOException {
+	final SocketChannel channel = SocketChannel.open();
+	channel.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+	channel.connect(server.getLocalAddress());
+	return channel;
+}
+
+private ByteBuffer block(final int packets) {
+	final byte[] bytes = new byte[packets * RX_PACKET_SIZE];
+	random.nextBytes(bytes);
+	final ByteBuffer block = ByteBuffer.allocateDirect(bytes.length);
+	block.put(bytes).flip();
+	return block;
+}
+
+private void awaitClients(final int count) throws InterruptedException {
+	final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+	while (server.getClientCount() != count && System.currentTimeMillis() < deadline) {
+		Thread.sleep(5);
+	}
+	assertEquals(count, server.getClientCount());
+}
+
+private void awaitReturned(final int count) throws InterruptedException {
+	final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+	while (source.returned.get() != count && System.currentTimeMillis() < deadline) {
+		Thread.sleep(5);
+	}
+	assertEquals(count, source.returned.get());
+}
+
+/**
+ * Stands in for receiver, counting blocks handed back.
+ */
+private static final class Source implements SwitchablePooledProcessor<ByteBuffer> {
+	final AtomicInteger returned = new AtomicInteger();
+	volatile Subscriber<? super ByteBuffer> subscriber;
+
+	void publish(final ByteBuffer block) {
+		subscriber.onNext(block);
+	}
+
+	void complete() {
+		subscriber.onComplete();
+	}
+
+	@Override
+	public SwitchablePooledProcessor<ByteBuffer> switchOn() {
+		return this;
+	}
+
+	@Override
+	public SwitchablePooledProcessor<ByteBuffer> switchOff() {
+		return this;
+	}
+
+	@Override
+	public void subscribe(final Subscriber<? super ByteBuffer> s) {
+		subscriber = s;
+		s.onSubscribe(new Subscription() {
+			@Override
+			public void request(final long n) {
+			}
+
+			@Override
+			public void cancel() {
+			}
+		});
+	}
+
+	@Override
+	public void onSubscribe(final Subscription s) {
+	}
+
+	@Override
+	public void onNext(final ByteBuffer block) {
+		returned.incrementAndGet();
+	}
+
+	@Override
+	public void onError(final Throwable t) {
+	}
+
+	@Override
+	public void onComplete() {
+	}
+}
+}
@@ -0,0 +1,42 @@
+package com.pavlus.hiqsdr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UpstreamBufferPoolTest {
+
+@Test
+public void unknownBufferIsAdopted() {
+	final UpstreamBufferPool pool = new UpstreamBufferPool(16);
+	final ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+	assertTrue(pool.release(buffer));
+	assertEquals(1, pool.capacity());
+	assertSame(buffer, pool.acquire());
+	assertNull(pool.acquire());
+	assertTrue(pool.release(buffer));
+	assertEquals(1, pool.available());
+}
+
+@Test
+public void bufferSmallerThanBatchIsRejected() {
+	final UpstreamBufferPool pool = new UpstreamBufferPool(17);
+	assertFalse(pool.release(ByteBuffer.allocateDirect(16)));
+	assertEquals(0, pool.capacity());
+	assertNull(pool.acquire());
+}
+
+@Test
+public void receiverPoolFitsBatchAndSpareByte() {
+	final BufferPool pool = new RXOptions().bufferSource(RXOptions.BufferSource.UPSTREAM)
+			.createPool(4 * Protocol.RX_PACKET_SIZE + 1);
+	assertFalse(pool.release(ByteBuffer.allocate(4 * Protocol.RX_PACKET_SIZE)));
+	assertTrue(pool.release(ByteBuffer.allocate(4 * Protocol.RX_PACKET_SIZE + 1)));
+}
+}